@@ -3,12 +3,19 @@ package appointment;
 import java.util.Date;
 import java.sql.SQLException;
 
+import database.mapping.Column;
+import database.mapping.MappedEntity;
+
 /**
  * Represents an appointment with database integration
  */
+@MappedEntity(table = "appointments")
 public class Appointment {
+	@Column(name = "appointment_id", type = "VARCHAR(10)", id = true)
 	private final String appointmentId;
+	@Column(name = "appointment_date", type = "TIMESTAMP")
 	private Date appointmentDate;
+	@Column(name = "description", type = "VARCHAR(50)")
 	private String description;
 	private boolean isPersisted = false;
 	
@@ -10,6 +10,11 @@ import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.function.Consumer;
+
+import database.ChangeMonitor;
+import database.ChangeTracking;
+import database.DatabaseManager;
 
 /**
  * Database helper class for Appointment related operations
@@ -17,6 +22,8 @@ import java.util.List;
 public class AppointmentDatabase {
     // Database configuration
     private static final String DB_URL = "jdbc:sqlite:appointments.db";
+    private static final int FETCH_SIZE = 500;
+    private static final int BUSY_TIMEOUT_MILLIS = 5_000;
     private static Connection connection;
 
     /**
@@ -24,8 +31,28 @@ public class AppointmentDatabase {
      */
     public static void initialize() throws SQLException {
         connection = DriverManager.getConnection(DB_URL);
+        // WAL lets a connection from openConnection() read while this one writes
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MILLIS);
+            stmt.execute("PRAGMA journal_mode = WAL");
+        }
         createTables();
     }
+    
+    /**
+     * Opens a separate connection to the appointment database, for work on another thread
+     * that must not share the connection used by the static methods. The caller closes it.
+     */
+    public static Connection openConnection() throws SQLException {
+        Connection separate = DriverManager.getConnection(DB_URL);
+        try (Statement stmt = separate.createStatement()) {
+            stmt.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MILLIS);
+        } catch (SQLException e) {
+            separate.close();
+            throw e;
+        }
+        return separate;
+    }
 
     /**
      * Closes the database connection
@@ -50,13 +77,103 @@ public class AppointmentDatabase {
         try (Statement stmt = connection.createStatement()) {
             stmt.execute(createTableSQL);
         }
+        
+        // Row versions let a cache loaded from a snapshot catch up without reading every row
+        ChangeTracking.install(connection, "appointments", "appointment_id");
+    }
+    
+    /**
+     * Gets the URL and the random ID stored in the database, which together tell it apart from
+     * any other database, including one created later at the same path
+     */
+    public static String getDatabaseIdentity() throws SQLException {
+        return DB_URL + "#" + ChangeTracking.databaseId(connection);
+    }
+    
+    /**
+     * Gets the monitor that reports commits made to the appointment database by other
+     * connections, including this class's own connection and other processes
+     */
+    public static ChangeMonitor getChangeMonitor() {
+        return DatabaseManager.getInstance().getChangeMonitor(DB_URL);
+    }
+    
+    /**
+     * Gets the current change version of the database
+     */
+    public static long currentVersion() throws SQLException {
+        return ChangeTracking.currentVersion(connection);
+    }
+    
+    /**
+     * Passes every appointment changed and the ID of every appointment deleted after a change
+     * version to the given actions, reading both in one transaction
+     * @param version The change version the caller is up to date with
+     * @return The change version the caller is now up to date with
+     * @throws IllegalStateException if deletions after the version have been purged
+     */
+    public static long forEachAppointmentChangedSince(long version, Consumer<Appointment> changed,
+            Consumer<String> deleted) throws SQLException {
+        return forEachAppointmentChangedSince(connection, version, changed, deleted);
+    }
+    
+    /**
+     * Same as {@link #forEachAppointmentChangedSince(long, Consumer, Consumer)}, on a connection
+     * from {@link #openConnection()}
+     */
+    public static long forEachAppointmentChangedSince(Connection connection, long version,
+            Consumer<Appointment> changed, Consumer<String> deleted) throws SQLException {
+        String sql = "SELECT * FROM appointments WHERE row_version > ? AND row_version <= ?";
+        
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            ChangeTracking.checkNotPurged(connection, version);
+            long through = ChangeTracking.currentVersion(connection);
+            
+            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+                pstmt.setLong(1, version);
+                pstmt.setLong(2, through);
+                
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        String appointmentId = rs.getString("appointment_id");
+                        Date appointmentDate = new Date(rs.getTimestamp("appointment_date").getTime());
+                        String description = rs.getString("description");
+                        
+                        changed.accept(new Appointment(appointmentId, appointmentDate, description));
+                    }
+                }
+            }
+            
+            try (PreparedStatement pstmt = connection.prepareStatement(ChangeTracking.DELETED_SINCE_SQL)) {
+                pstmt.setString(1, "appointments");
+                pstmt.setLong(2, version);
+                pstmt.setLong(3, through);
+                
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        deleted.accept(rs.getString(1));
+                    }
+                }
+            }
+            
+            connection.commit();
+            return through;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
     }
 
     /**
      * Inserts a new appointment into the database
      */
     public static void insertAppointment(Appointment appointment) throws SQLException {
-        String sql = "INSERT INTO appointments (appointment_id, appointment_date, description) VALUES (?, ?, ?)";
+        String sql = "INSERT INTO appointments (appointment_id, appointment_date, description, " + ChangeTracking.VERSION_COLUMN + ") " +
+            "VALUES (?, ?, ?, " + ChangeTracking.NEXT_ROW_VERSION + ")";
         
         try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
             pstmt.setString(1, appointment.getAppointmentId());
@@ -70,7 +187,8 @@ public class AppointmentDatabase {
      * Updates an existing appointment in the database
      */
     public static void updateAppointment(Appointment appointment) throws SQLException {
-        String sql = "UPDATE appointments SET appointment_date = ?, description = ? WHERE appointment_id = ?";
+        String sql = "UPDATE appointments SET appointment_date = ?, description = ?, " +
+            ChangeTracking.VERSION_COLUMN + " = " + ChangeTracking.NEXT_ROW_VERSION + " WHERE appointment_id = ?";
         
         try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
             pstmt.setTimestamp(1, new Timestamp(appointment.getAppointmentDate().getTime()));
@@ -106,17 +224,87 @@ public class AppointmentDatabase {
      */
     public static List<Appointment> getAllAppointments() throws SQLException {
         List<Appointment> appointments = new ArrayList<>();
+        forEachAppointment(appointments::add);
+        return appointments;
+    }
+    
+    /**
+     * Passes every appointment to an action, reading rows from a cursor
+     * instead of loading the whole table into memory
+     */
+    public static void forEachAppointment(Consumer<Appointment> action) throws SQLException {
+        readAppointments(connection, action);
+    }
+    
+    /**
+     * Passes every appointment to an action in one read transaction, on a connection from
+     * {@link #openConnection()}
+     * @return The change version the appointments passed are current as of
+     */
+    public static long forEachAppointment(Connection connection, Consumer<Appointment> action) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            long version = ChangeTracking.currentVersion(connection);
+            readAppointments(connection, action);
+            
+            connection.commit();
+            return version;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+    
+    private static void readAppointments(Connection connection, Consumer<Appointment> action) throws SQLException {
         String sql = "SELECT * FROM appointments";
         
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.setFetchSize(FETCH_SIZE);
             
-            while (rs.next()) {
-                String appointmentId = rs.getString("appointment_id");
-                Date appointmentDate = new Date(rs.getTimestamp("appointment_date").getTime());
-                String description = rs.getString("description");
-                
-                appointments.add(new Appointment(appointmentId, appointmentDate, description));
+            try (ResultSet rs = stmt.executeQuery(sql)) {
+                while (rs.next()) {
+                    String appointmentId = rs.getString("appointment_id");
+                    Date appointmentDate = new Date(rs.getTimestamp("appointment_date").getTime());
+                    String description = rs.getString("description");
+                    
+                    action.accept(new Appointment(appointmentId, appointmentDate, description));
+                }
+            }
+        }
+    }
+
+    /**
+     * Retrieves the next page of appointments ordered by date, seeking past the last
+     * appointment of the previous page (keyset pagination) instead of using OFFSET
+     * @param after The last appointment of the previous page, or null for the first page
+     * @param limit The maximum number of appointments to return
+     */
+    public static List<Appointment> getAppointmentsPage(Appointment after, int limit) throws SQLException {
+        List<Appointment> appointments = new ArrayList<>(limit);
+        String sql = after == null
+            ? "SELECT * FROM appointments ORDER BY appointment_date, appointment_id LIMIT ?"
+            : "SELECT * FROM appointments WHERE (appointment_date, appointment_id) > (?, ?) " +
+              "ORDER BY appointment_date, appointment_id LIMIT ?";
+        
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            int index = 1;
+            if (after != null) {
+                pstmt.setTimestamp(index++, new Timestamp(after.getAppointmentDate().getTime()));
+                pstmt.setString(index++, after.getAppointmentId());
+            }
+            pstmt.setInt(index, limit);
+            
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    String appointmentId = rs.getString("appointment_id");
+                    Date appointmentDate = new Date(rs.getTimestamp("appointment_date").getTime());
+                    String description = rs.getString("description");
+                    
+                    appointments.add(new Appointment(appointmentId, appointmentDate, description));
+                }
             }
         }
         
@@ -14,6 +14,7 @@ public class AppointmentDatabaseApp {
     private static AppointmentService appointmentService;
     private static Scanner scanner = new Scanner(System.in);
     private static SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+    private static final int PAGE_SIZE = 20;
     
     public static void main(String[] args) {
         try {
@@ -162,12 +163,10 @@ public class AppointmentDatabaseApp {
     
     private static void listAllAppointments() {
         try {
-            // Refresh the cache to ensure we have the latest data
-            appointmentService.refreshCache();
+            // Page through appointments by date instead of printing the whole table at once
+            List<Appointment> page = appointmentService.getAppointmentsPage(null, PAGE_SIZE);
             
-            List<Appointment> appointments = AppointmentDatabase.getAllAppointments();
-            
-            if (appointments.isEmpty()) {
+            if (page.isEmpty()) {
                 System.out.println("No appointments found.");
                 return;
             }
@@ -175,10 +174,23 @@ public class AppointmentDatabaseApp {
             System.out.println("\nAll Appointments:");
             System.out.println("----------------");
             
-            for (Appointment appointment : appointments) {
-                System.out.println("ID: " + appointment.getAppointmentId() + 
-                                   " | Date: " + dateFormat.format(appointment.getAppointmentDate()) + 
-                                   " | Description: " + appointment.getDescription());
+            while (!page.isEmpty()) {
+                for (Appointment appointment : page) {
+                    System.out.println("ID: " + appointment.getAppointmentId() + 
+                                       " | Date: " + dateFormat.format(appointment.getAppointmentDate()) + 
+                                       " | Description: " + appointment.getDescription());
+                }
+                
+                if (page.size() < PAGE_SIZE) {
+                    break;
+                }
+                
+                System.out.print("Press Enter for more, or q to stop: ");
+                if (scanner.nextLine().trim().equalsIgnoreCase("q")) {
+                    break;
+                }
+                
+                page = appointmentService.getAppointmentsPage(page.get(page.size() - 1), PAGE_SIZE);
             }
             
         } catch (SQLException e) {
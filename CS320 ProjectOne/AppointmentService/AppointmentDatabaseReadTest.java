@@ -0,0 +1,90 @@
+package test;
+
+import appointment.Appointment;
+import appointment.AppointmentDatabase;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Reads of the appointment database, run against the appointments.db the class is fixed to
+ */
+public class AppointmentDatabaseReadTest {
+
+    private static final long DAY_MILLIS = 86400000L;
+
+    @BeforeEach
+    void emptyDatabase() throws SQLException {
+        AppointmentDatabase.initialize();
+        deleteAll();
+    }
+
+    @AfterEach
+    void closeDatabase() throws SQLException {
+        deleteAll();
+        AppointmentDatabase.closeConnection();
+    }
+
+    private static void deleteAll() throws SQLException {
+        try (Connection connection = AppointmentDatabase.openConnection();
+             Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("DELETE FROM appointments");
+        }
+    }
+
+    @Test
+    void testForEachAppointmentVisitsEveryRow() throws SQLException {
+        Date tomorrow = new Date(System.currentTimeMillis() + DAY_MILLIS);
+        AppointmentDatabase.insertAppointment(new Appointment("DBS1", tomorrow, "First Streamed"));
+        AppointmentDatabase.insertAppointment(new Appointment("DBS2", tomorrow, "Second Streamed"));
+
+        Set<String> seen = new HashSet<>();
+        AppointmentDatabase.forEachAppointment(appointment -> seen.add(appointment.getAppointmentId()));
+        assertEquals(Set.of("DBS1", "DBS2"), seen);
+
+        // The overload on its own connection reads in one transaction and reports its version
+        Set<String> seenOnOwnConnection = new HashSet<>();
+        try (Connection connection = AppointmentDatabase.openConnection()) {
+            long version = AppointmentDatabase.forEachAppointment(connection,
+                    appointment -> seenOnOwnConnection.add(appointment.getAppointmentId()));
+            assertEquals(AppointmentDatabase.currentVersion(), version);
+            assertTrue(connection.getAutoCommit());
+        }
+        assertEquals(seen, seenOnOwnConnection);
+    }
+
+    @Test
+    void testAppointmentsPageBreaksDateTiesById() throws SQLException {
+        long now = System.currentTimeMillis();
+        Date first = new Date(now + DAY_MILLIS);
+        Date second = new Date(now + 2 * DAY_MILLIS);
+        Date third = new Date(now + 3 * DAY_MILLIS);
+        AppointmentDatabase.insertAppointment(new Appointment("DBPE", third, "Last"));
+        AppointmentDatabase.insertAppointment(new Appointment("DBPC", second, "Tied"));
+        AppointmentDatabase.insertAppointment(new Appointment("DBPA", second, "Tied"));
+        AppointmentDatabase.insertAppointment(new Appointment("DBPZ", first, "First"));
+        AppointmentDatabase.insertAppointment(new Appointment("DBPB", second, "Tied"));
+
+        // A page boundary falls between rows on the same date; the ID decides which side each is on
+        List<List<String>> pages = new ArrayList<>();
+        Appointment after = null;
+        List<Appointment> page;
+        while (!(page = AppointmentDatabase.getAppointmentsPage(after, 2)).isEmpty()) {
+            pages.add(page.stream().map(Appointment::getAppointmentId).toList());
+            after = page.get(page.size() - 1);
+        }
+
+        assertEquals(List.of(List.of("DBPZ", "DBPA"), List.of("DBPB", "DBPC"), List.of("DBPE")), pages);
+    }
+}
@@ -1,43 +1,373 @@
 package appointment;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Date;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.sql.Connection;
 import java.sql.SQLException;
 
+import database.ChangeMonitor;
+import database.cache.AbsenceFilter;
+import database.cache.AbsenceStats;
+import database.cache.CacheSnapshotFile;
+import database.cache.EntityCodec;
+import database.repositories.AppointmentCodec;
+
 /**
  * Service class for managing appointments with database integration
  */
 public class AppointmentService {
-    private Map<String, Appointment> appointmentCache = new HashMap<>();
+    private Map<String, Appointment> appointmentCache = new ConcurrentHashMap<>();
+    
+    // Background load state; the cache is warm once every stored appointment is in it
+    private volatile boolean warm = false;
+    private volatile CompletableFuture<Void> warmUp;
+    
+    // Background loads and ID filter refreshes run here rather than on the common pool; idle threads exit after a minute
+    private static final ExecutorService WARM_UP_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "appointment-cache-warm-up");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    // Bloom filter of stored IDs and recently missing IDs, so adding a new ID needs no lookup query
+    private final AbsenceFilter absenceFilter = new AbsenceFilter(0.01, 5_000, 10_000);
+    // Rebuilds and refreshes of the ID filter run one at a time
+    private final Object idFilterLock = new Object();
+    // The change version up to which rows inserted elsewhere have been added to the ID filter, or -1
+    private long idFilterVersion = -1;
+    // Refreshes the ID filter when another connection commits
+    private ChangeMonitor.Subscription changeSubscription;
+    private static final long CHANGE_POLL_MILLIS = 1_000;
+    
+    // Snapshot file the cache is loaded from at startup and written to on close, or null
+    private final Path snapshotFile;
+    // Adding and deleting hold the read lock, so a snapshot never misses a committed write
+    private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    private final long createdAtNanos = System.nanoTime();
+    private volatile long startupNanos = -1;
+    private volatile boolean startedFromSnapshot = false;
+    
+    // The snapshot encoding generated for the appointments table
+    private static final EntityCodec<Appointment> SNAPSHOT_CODEC = AppointmentCodec.INSTANCE;
     
     /**
      * Initializes the appointment service
      */
     public AppointmentService() {
+        this(false);
+    }
+    
+    /**
+     * Initializes the appointment service, optionally loading the cache in the background.
+     * While a background load runs, lookups that miss the cache read the database.
+     */
+    public AppointmentService(boolean warmUpInBackground) {
+        this(warmUpInBackground, null);
+    }
+    
+    /**
+     * Initializes the appointment service with a snapshot file. If the file holds a valid
+     * snapshot, the cache is loaded from it and only appointments changed since are read from
+     * the database; otherwise the cache is loaded as usual. The snapshot is written on close.
+     */
+    public AppointmentService(boolean warmUpInBackground, Path snapshotFile) {
+        this.snapshotFile = snapshotFile;
         try {
             // Initialize database connection
             AppointmentDatabase.initialize();
             
+            // The refresh runs off the monitor's thread, since it may wait for a rebuild
+            changeSubscription = AppointmentDatabase.getChangeMonitor().subscribe(CHANGE_POLL_MILLIS,
+                () -> WARM_UP_EXECUTOR.execute(this::refreshIdFilter));
+            
             // Load existing appointments into cache
-            loadAppointmentsFromDatabase();
+            if (snapshotFile != null && loadSnapshot()) {
+                recordStartup();
+            } else if (warmUpInBackground) {
+                startWarmUp();
+            } else {
+                loadAppointmentsFromDatabase();
+                recordStartup();
+            }
         } catch (SQLException e) {
             System.err.println("Failed to initialize database: " + e.getMessage());
         }
     }
     
+    /**
+     * Load the cache on a background thread, reading one cursor on a connection of its own.
+     * Appointments added or changed meanwhile are not overwritten. A row can still be deleted
+     * between the scan reading it and the cache taking it, so the load ends by replaying every
+     * change made since the scan began while adds and deletes wait on the snapshot lock.
+     */
+    private void startWarmUp() {
+        warmUp = CompletableFuture.runAsync(() -> {
+            try (Connection connection = AppointmentDatabase.openConnection()) {
+                long scannedVersion = AppointmentDatabase.forEachAppointment(connection, appointment -> {
+                    appointment.setPersisted(true);
+                    appointmentCache.putIfAbsent(appointment.getAppointmentId(), appointment);
+                });
+                
+                long loadedVersion;
+                snapshotLock.writeLock().lock();
+                try {
+                    loadedVersion = AppointmentDatabase.forEachAppointmentChangedSince(connection, scannedVersion,
+                        this::replaceIfChanged, appointmentCache::remove);
+                    warm = true;
+                } finally {
+                    snapshotLock.writeLock().unlock();
+                }
+                // The cache now holds every stored appointment, so it fills the ID filter
+                rebuildIdFilter(ids -> {
+                    appointmentCache.keySet().forEach(ids);
+                    return loadedVersion;
+                });
+                recordStartup();
+            } catch (SQLException e) {
+                System.err.println("Failed to warm up appointment cache: " + e.getMessage());
+                throw new CompletionException(e);
+            }
+        }, WARM_UP_EXECUTOR);
+    }
+    
+    /**
+     * Cache a row read from the database, keeping the cached object if it already matches
+     * so that callers holding it still update the cached copy
+     */
+    private void replaceIfChanged(Appointment stored) {
+        stored.setPersisted(true);
+        appointmentCache.merge(stored.getAppointmentId(), stored, (cached, fresh) ->
+            Objects.equals(cached.getAppointmentDate(), fresh.getAppointmentDate())
+                && Objects.equals(cached.getDescription(), fresh.getDescription()) ? cached : fresh);
+    }
+    
+    /**
+     * Rebuild the ID filter from a scan of the table on a background thread, once it has grown
+     * past its size or missed changes
+     */
+    private void startIdFilterRebuild() {
+        WARM_UP_EXECUTOR.execute(() -> {
+            try (Connection connection = AppointmentDatabase.openConnection()) {
+                rebuildIdFilter(ids -> AppointmentDatabase.forEachAppointment(connection,
+                    appointment -> ids.accept(appointment.getAppointmentId())));
+            } catch (SQLException | RuntimeException e) {
+                System.err.println("Failed to rebuild appointment ID filter: " + e.getMessage());
+            }
+        });
+    }
+    
+    /**
+     * Swap in a new ID filter filled with every ID stored as of the change version the source returns.
+     * Rebuilds run one at a time under the lock, so the source is always run.
+     */
+    private void rebuildIdFilter(VersionedIdSource source) throws SQLException {
+        synchronized (idFilterLock) {
+            long[] version = {-1};
+            absenceFilter.rebuild(appointmentCache.size(), ids -> version[0] = source.forEachId(ids));
+            if (version[0] >= 0) {
+                idFilterVersion = version[0];
+            }
+        }
+    }
+    
+    /**
+     * Passes stored IDs to an action and returns the change version they are complete up to
+     */
+    private interface VersionedIdSource {
+        long forEachId(Consumer<String> action) throws SQLException;
+    }
+    
+    /**
+     * Add the rows inserted since the last refresh to the ID filter. Runs after each commit the
+     * change monitor sees, so a row inserted by another process is known within a poll interval.
+     */
+    private void refreshIdFilter() {
+        synchronized (idFilterLock) {
+            if (idFilterVersion < 0) {
+                return;
+            }
+            try (Connection connection = AppointmentDatabase.openConnection()) {
+                idFilterVersion = AppointmentDatabase.forEachAppointmentChangedSince(connection, idFilterVersion,
+                    appointment -> absenceFilter.recordPresent(appointment.getAppointmentId()), appointmentId -> { });
+            } catch (IllegalStateException e) {
+                // Deletions since the last refresh were purged; the inserts can only be found by a scan
+                startIdFilterRebuild();
+            } catch (SQLException e) {
+                System.err.println("Failed to refresh appointment ID filter: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Check whether every stored appointment has been loaded into the cache
+     */
+    public boolean isWarm() {
+        return warm;
+    }
+    
+    /**
+     * Wait for a background load to finish
+     * 
+     * @return true if the cache is warm, false if the timeout passed first
+     * @throws SQLException if the background load failed
+     */
+    public boolean awaitWarm(Duration timeout) throws SQLException {
+        CompletableFuture<Void> future = warmUp;
+        if (future == null || warm) {
+            return warm;
+        }
+        
+        try {
+            future.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for appointment cache warm-up", e);
+        } catch (ExecutionException e) {
+            throw new SQLException("Appointment cache warm-up failed", e.getCause());
+        }
+    }
+    
     /**
      * Loads all appointments from the database into the cache
      */
     private void loadAppointmentsFromDatabase() throws SQLException {
-        List<Appointment> appointments = AppointmentDatabase.getAllAppointments();
         appointmentCache.clear();
         
-        for (Appointment appointment : appointments) {
+        // The ID filter is filled by the same scan
+        rebuildIdFilter(ids -> {
+            try (Connection connection = AppointmentDatabase.openConnection()) {
+                return AppointmentDatabase.forEachAppointment(connection, appointment -> {
+                    ids.accept(appointment.getAppointmentId());
+                    appointment.setPersisted(true);
+                    appointmentCache.put(appointment.getAppointmentId(), appointment);
+                });
+            }
+        });
+        warm = true;
+    }
+    
+    /**
+     * Loads the cache from the snapshot file and applies the changes made since it was written
+     * 
+     * @return false if there is no usable snapshot
+     */
+    private boolean loadSnapshot() throws SQLException {
+        CacheSnapshotFile.Contents<Appointment> contents;
+        try {
+            contents = CacheSnapshotFile.read(snapshotFile, getSnapshotSource(), SNAPSHOT_CODEC);
+        } catch (IOException e) {
+            System.err.println("Ignoring appointment snapshot " + snapshotFile + ": " + e.getMessage());
+            return false;
+        }
+        if (contents == null) {
+            return false;
+        }
+        // A database older than the snapshot, for example after a restore, cannot be replayed
+        if (contents.getHighWaterMark() > AppointmentDatabase.currentVersion()) {
+            System.err.println("Ignoring appointment snapshot " + snapshotFile + ": it is newer than the database");
+            return false;
+        }
+        
+        for (Appointment appointment : contents.getEntities()) {
             appointment.setPersisted(true);
             appointmentCache.put(appointment.getAppointmentId(), appointment);
         }
+        long loadedVersion;
+        try {
+            loadedVersion = AppointmentDatabase.forEachAppointmentChangedSince(contents.getHighWaterMark(),
+                appointment -> {
+                    appointment.setPersisted(true);
+                    appointmentCache.put(appointment.getAppointmentId(), appointment);
+                },
+                appointmentCache::remove);
+        } catch (IllegalStateException e) {
+            // Deletions made since the snapshot have been purged, so it cannot be replayed
+            System.err.println("Ignoring appointment snapshot " + snapshotFile + ": " + e.getMessage());
+            appointmentCache.clear();
+            return false;
+        }
+        
+        rebuildIdFilter(ids -> {
+            appointmentCache.keySet().forEach(ids);
+            return loadedVersion;
+        });
+        warm = true;
+        startedFromSnapshot = true;
+        return true;
+    }
+    
+    /**
+     * Writes every cached appointment to the snapshot file, so the next startup can load it
+     * instead of reading the whole table. Does nothing until the cache is warm.
+     * 
+     * @return true if the snapshot was written
+     */
+    public boolean writeSnapshot() throws SQLException, IOException {
+        if (snapshotFile == null) {
+            throw new IllegalStateException("No snapshot file configured");
+        }
+        if (!warm) {
+            return false;
+        }
+        
+        long version;
+        List<Appointment> appointments;
+        snapshotLock.writeLock().lock();
+        try {
+            version = AppointmentDatabase.currentVersion();
+            appointments = List.copyOf(appointmentCache.values());
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+        CacheSnapshotFile.write(snapshotFile, getSnapshotSource(), version, appointments, SNAPSHOT_CODEC);
+        return true;
+    }
+    
+    /**
+     * Identifies the database and table a snapshot belongs to
+     */
+    private static String getSnapshotSource() throws SQLException {
+        return AppointmentDatabase.getDatabaseIdentity() + "#appointments";
+    }
+    
+    private void recordStartup() {
+        if (startupNanos < 0) {
+            startupNanos = System.nanoTime() - createdAtNanos;
+        }
+    }
+    
+    /**
+     * Gets the time from construction until the cache was warm, or -1 while it is still loading
+     */
+    public long getStartupMillis() {
+        long nanos = startupNanos;
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+    
+    /**
+     * Checks whether the cache was loaded from the snapshot file rather than the whole table
+     */
+    public boolean isStartedFromSnapshot() {
+        return startedFromSnapshot;
     }
     
     /**
@@ -51,25 +381,85 @@ public class AppointmentService {
      * Adds a new appointment
      */
     public void addAppointment(String appointmentId, Date appointmentDate, String description) throws SQLException {
-        if(appointmentCache.containsKey(appointmentId) || AppointmentDatabase.appointmentExists(appointmentId)) {
+        if(appointmentCache.containsKey(appointmentId) || existsInDatabase(appointmentId)) {
             throw new IllegalArgumentException("Appointment ID already exists");
         }
         
         Appointment appointment = new Appointment(appointmentId, appointmentDate, description);
         
-        // Save to database
-        appointment.save();
-        appointment.setPersisted(true);
-        
-        // Add to cache
-        appointmentCache.put(appointmentId, appointment);
+        snapshotLock.readLock().lock();
+        try {
+            // Save to database
+            try {
+                appointment.save();
+            } catch (SQLException e) {
+                // Inserted elsewhere since the ID filter last heard; the primary key refused it
+                if (AppointmentDatabase.appointmentExists(appointmentId)) {
+                    absenceFilter.recordPresent(appointmentId);
+                    throw new IllegalArgumentException("Appointment ID already exists");
+                }
+                throw e;
+            }
+            appointment.setPersisted(true);
+            
+            // Add to cache
+            appointmentCache.put(appointmentId, appointment);
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+        absenceFilter.recordPresent(appointmentId);
+        if (absenceFilter.needsRebuild()) {
+            startIdFilterRebuild();
+        }
+    }
+    
+    /**
+     * Checks the database for an ID, unless the ID filter knows it does not exist
+     */
+    private boolean existsInDatabase(String appointmentId) throws SQLException {
+        if (absenceFilter.isDefinitelyAbsent(appointmentId)) {
+            return false;
+        }
+        long ticket = absenceFilter.beginLookup();
+        boolean exists = AppointmentDatabase.appointmentExists(appointmentId);
+        absenceFilter.recordLookup(appointmentId, exists, ticket);
+        return exists;
+    }
+    
+    /**
+     * Gets the counters of ID lookups answered without a query and the ID filter's false positive rate
+     */
+    public AbsenceStats getAbsenceStats() {
+        return absenceFilter.getStats();
     }
 
     /**
-     * Gets an appointment by ID (from cache)
+     * Gets an appointment by ID (from cache, or the database while the cache is warming up).
+     * A row read during warm-up is not cached, since it could be deleted before it was put;
+     * the warm-up caches it instead.
      */
     public Appointment getAppointment(String appointmentId) {
-        return appointmentCache.get(appointmentId);
+        Appointment appointment = appointmentCache.get(appointmentId);
+        if (appointment != null || warm) {
+            return appointment;
+        }
+        
+        try {
+            appointment = AppointmentDatabase.getAppointment(appointmentId);
+        } catch (SQLException e) {
+            System.err.println("Failed to read appointment " + appointmentId + ": " + e.getMessage());
+            return null;
+        }
+        if (appointment == null) {
+            return null;
+        }
+        // The warm-up may have cached it meanwhile; hand out that copy so updates reach the cache
+        Appointment cached = appointmentCache.get(appointmentId);
+        if (cached != null) {
+            return cached;
+        }
+        appointment.setPersisted(true);
+        return appointment;
     }
 
     /**
@@ -97,6 +487,14 @@ public class AppointmentService {
         return appointment;
     }
 
+    /**
+     * Gets the next page of appointments ordered by date from the database.
+     * Pass the last appointment of the previous page, or null for the first page.
+     */
+    public List<Appointment> getAppointmentsPage(Appointment after, int limit) throws SQLException {
+        return AppointmentDatabase.getAppointmentsPage(after, limit);
+    }
+
     /**
      * Deletes an appointment by ID
      */
@@ -105,11 +503,17 @@ public class AppointmentService {
             throw new IllegalArgumentException("Appointment ID does not exist");
         }
         
-        // Remove from database
-        AppointmentDatabase.deleteAppointment(appointmentId);
-        
-        // Remove from cache
-        appointmentCache.remove(appointmentId);
+        snapshotLock.readLock().lock();
+        try {
+            // Remove from database
+            AppointmentDatabase.deleteAppointment(appointmentId);
+            
+            // Remove from cache
+            appointmentCache.remove(appointmentId);
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+        absenceFilter.recordAbsent(appointmentId);
     }
     
     /**
@@ -126,6 +530,17 @@ public class AppointmentService {
      * Closes the database connection when service is no longer needed
      */
     public void close() throws SQLException {
-        AppointmentDatabase.closeConnection();
+        try {
+            if (snapshotFile != null) {
+                writeSnapshot();
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to write appointment snapshot: " + e.getMessage());
+        } finally {
+            if (changeSubscription != null) {
+                changeSubscription.close();
+            }
+            AppointmentDatabase.closeConnection();
+        }
     }
 }
@@ -0,0 +1,82 @@
+package test;
+
+import appointment.AppointmentDatabase;
+import appointment.AppointmentService;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Date;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AppointmentServiceIdFilterTest {
+
+    private static final long DAY_MILLIS = 86400000L;
+
+    private final Date tomorrow = new Date(System.currentTimeMillis() + DAY_MILLIS);
+    private AppointmentService service;
+
+    @BeforeEach
+    void emptyDatabase() throws SQLException {
+        AppointmentDatabase.initialize();
+        deleteAll();
+        AppointmentDatabase.closeConnection();
+        service = new AppointmentService();
+    }
+
+    @AfterEach
+    void closeService() throws SQLException {
+        service.close();
+        deleteAll();
+    }
+
+    private static void deleteAll() throws SQLException {
+        try (Connection connection = AppointmentDatabase.openConnection();
+             Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("DELETE FROM appointments");
+        }
+    }
+
+    @Test
+    void testNewIdIsAddedWithoutALookupQuery() throws SQLException {
+        service.addAppointment("F1", tomorrow, "New");
+        service.addAppointment("F2", tomorrow, "New");
+
+        assertEquals(2, service.getAbsenceStats().getBloomRejections());
+        assertThrows(IllegalArgumentException.class, () -> service.addAppointment("F1", tomorrow, "Again"));
+    }
+
+    @Test
+    void testIdInsertedByAnotherConnectionIsRefused() throws SQLException {
+        try (Connection connection = AppointmentDatabase.openConnection();
+             PreparedStatement pstmt = connection.prepareStatement(
+                     "INSERT INTO appointments (appointment_id, appointment_date, description) VALUES (?, ?, ?)")) {
+            pstmt.setString(1, "OTHER");
+            pstmt.setTimestamp(2, new Timestamp(tomorrow.getTime()));
+            pstmt.setString(3, "Inserted elsewhere");
+            pstmt.executeUpdate();
+        }
+
+        // Whether or not the filter has heard of the row yet, the ID is reported as taken
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> service.addAppointment("OTHER", tomorrow, "Duplicate"));
+        assertEquals("Appointment ID already exists", e.getMessage());
+        assertNull(service.getAppointment("OTHER"));
+        assertEquals("Inserted elsewhere", AppointmentDatabase.getAppointment("OTHER").getDescription());
+    }
+
+    @Test
+    void testDeletedIdCanBeAddedAgain() throws SQLException {
+        service.addAppointment("F1", tomorrow, "First");
+        service.deleteAppointment("F1");
+
+        service.addAppointment("F1", tomorrow, "Second");
+        assertEquals("Second", service.getAppointment("F1").getDescription());
+    }
+}
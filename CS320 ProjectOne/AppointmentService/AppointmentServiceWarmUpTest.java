@@ -0,0 +1,82 @@
+package test;
+
+import appointment.AppointmentDatabase;
+import appointment.AppointmentService;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.Date;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AppointmentServiceWarmUpTest {
+
+    private static final int APPOINTMENTS = 20_000;
+
+    private AppointmentService service;
+
+    @BeforeEach
+    void fillDatabase() throws SQLException {
+        AppointmentDatabase.initialize();
+        try (Connection connection = AppointmentDatabase.openConnection()) {
+            connection.setAutoCommit(false);
+            try (Statement stmt = connection.createStatement()) {
+                stmt.executeUpdate("DELETE FROM appointments");
+            }
+            try (PreparedStatement pstmt = connection.prepareStatement(
+                    "INSERT INTO appointments (appointment_id, appointment_date, description) VALUES (?, ?, ?)")) {
+                Timestamp tomorrow = new Timestamp(System.currentTimeMillis() + 86400000);
+                for (int i = 0; i < APPOINTMENTS; i++) {
+                    pstmt.setString(1, "W" + i);
+                    pstmt.setTimestamp(2, tomorrow);
+                    pstmt.setString(3, "Warm-up");
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+            connection.commit();
+        }
+        AppointmentDatabase.closeConnection();
+    }
+
+    @AfterEach
+    void emptyDatabase() throws SQLException {
+        if (service != null) {
+            service.close();
+        }
+        try (Connection connection = AppointmentDatabase.openConnection();
+             Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("DELETE FROM appointments");
+        }
+    }
+
+    @Test
+    void testDeletesDuringWarmUpAreNotPutBack() throws SQLException {
+        service = new AppointmentService(true);
+
+        // Delete from the end of the table, which the scan reaches last
+        int deleted = 0;
+        for (int i = APPOINTMENTS - 1; i >= 0 && (deleted < 200 || !service.isWarm()); i--, deleted++) {
+            service.deleteAppointment("W" + i);
+        }
+        Date tomorrow = new Date(System.currentTimeMillis() + 86400000);
+        service.addAppointment("NEW", tomorrow, "Added during warm-up");
+
+        assertTrue(service.awaitWarm(Duration.ofSeconds(30)));
+        for (int i = 0; i < APPOINTMENTS; i++) {
+            if (i >= APPOINTMENTS - deleted) {
+                assertNull(service.getAppointment("W" + i), "W" + i + " was deleted");
+            } else {
+                assertNotNull(service.getAppointment("W" + i), "W" + i + " was not loaded");
+            }
+        }
+        assertNotNull(service.getAppointment("NEW"));
+    }
+}
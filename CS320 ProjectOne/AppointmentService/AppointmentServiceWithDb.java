@@ -2,9 +2,12 @@ package appointment;
 
 import java.util.Date;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.List;
 
 import database.ServiceHelper;
+import database.cache.CacheConfig;
+import database.repositories.AppointmentRepository;
 
 /**
  * Enhanced AppointmentService with database integration using the global database framework
@@ -19,6 +22,46 @@ public class AppointmentServiceWithDb {
         this.serviceHelper = new ServiceHelper<>(Appointment.class);
     }
     
+    /**
+     * Initialize the appointment service with cache settings, for example
+     * {@code new CacheConfig<Appointment>().setWarmUpInBackground(true)} to return before the
+     * cache is loaded
+     */
+    public AppointmentServiceWithDb(CacheConfig<Appointment> cacheConfig) {
+        this.serviceHelper = new ServiceHelper<>(Appointment.class, null, cacheConfig);
+    }
+    
+    /**
+     * Check whether the appointment cache has finished loading
+     */
+    public boolean isWarm() {
+        return serviceHelper.isWarm();
+    }
+    
+    /**
+     * Wait for a background cache load to finish
+     * 
+     * @return true if the cache is warm, false if the timeout passed first
+     */
+    public boolean awaitWarm(Duration timeout) throws SQLException {
+        return serviceHelper.awaitWarm(timeout);
+    }
+    
+    /**
+     * Get the time from construction until the cache was loaded, or -1 while it is still loading
+     */
+    public long getStartupMillis() {
+        return serviceHelper.getStartupMillis();
+    }
+    
+    /**
+     * Check whether the cache was loaded from its snapshot file
+     * (see {@link CacheConfig#setSnapshotFile(java.nio.file.Path)})
+     */
+    public boolean isStartedFromSnapshot() {
+        return serviceHelper.isStartedFromSnapshot();
+    }
+    
     /**
      * Add a new appointment
      */
@@ -92,6 +135,18 @@ public class AppointmentServiceWithDb {
         return serviceHelper.getAll();
     }
     
+    /**
+     * Get the next page of appointments ordered by date.
+     * Pass the last appointment of the previous page, or null for the first page.
+     */
+    public List<Appointment> getAppointmentsPage(Appointment after, int limit) throws SQLException {
+        // Queued writes must reach the database before it is read
+        serviceHelper.flush();
+        
+        AppointmentRepository repository = serviceHelper.getRepository().unwrap(AppointmentRepository.class);
+        return repository.findPageByDate(after, limit);
+    }
+    
     /**
      * Refresh the cache from the database
      */
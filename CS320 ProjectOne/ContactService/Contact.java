@@ -1,9 +1,19 @@
 package contact;
+
+import database.mapping.Column;
+import database.mapping.MappedEntity;
+
+@MappedEntity(table = "contacts")
 public class Contact {
+    @Column(name = "contact_id", type = "VARCHAR(10)", id = true)
     private final String contactId; // Must be unique and immutable.
+    @Column(name = "first_name", type = "VARCHAR(10)")
     private String firstName;
+    @Column(name = "last_name", type = "VARCHAR(10)")
     private String lastName;
+    @Column(name = "phone", type = "VARCHAR(10)")
     private String phone;
+    @Column(name = "address", type = "VARCHAR(30)")
     private String address;
 
     // Constructor
@@ -1,7 +1,15 @@
 package task;
+
+import database.mapping.Column;
+import database.mapping.MappedEntity;
+
+@MappedEntity(table = "tasks")
 public class Task {
+    @Column(name = "task_id", type = "VARCHAR(10)", id = true)
     private final String taskId;
+    @Column(name = "name", type = "VARCHAR(20)")
     private String name;
+    @Column(name = "description", type = "VARCHAR(50)")
     private String description;
 
     public Task(String taskId, String name, String description) {
@@ -0,0 +1,32 @@
+#!/bin/sh
+# Compile the project. RepositoryProcessor is compiled first and then runs over every source,
+# generating the <Entity>RepositoryBase and <Entity>Metadata classes the repositories and
+# EntityRegistry need.
+#
+# Usage: ./build.sh [classpath]
+#   classpath  The sqlite-jdbc and slf4j-api jars, plus JUnit 5 and JUnit 4 when compiling tests.
+#              Defaults to every jar in lib/.
+#   TESTS=true ./build.sh also compiles the *Test.java files.
+#
+# Output: build/classes (classes and META-INF/services), build/generated (generated sources).
+set -e
+cd "$(dirname "$0")"
+
+CLASSPATH_ARG=${1:-$(find lib -name '*.jar' 2>/dev/null | tr '\n' ':')}
+
+rm -rf build
+mkdir -p build/processor build/generated build/classes
+
+# The processor and its annotations, without annotation processing
+javac -proc:none -d build/processor database/mapping/*.java database/mapping/processor/*.java
+mkdir -p build/processor/META-INF/services
+echo database.mapping.processor.RepositoryProcessor > build/processor/META-INF/services/javax.annotation.processing.Processor
+
+if [ "$TESTS" = true ]; then
+    find . -name '*.java' ! -path './build/*' > build/sources.txt
+else
+    find . -name '*.java' ! -path './build/*' ! -name '*Test.java' > build/sources.txt
+fi
+
+javac -cp "$CLASSPATH_ARG" -processorpath build/processor -s build/generated -d build/classes @build/sources.txt
+echo "Compiled to build/classes"
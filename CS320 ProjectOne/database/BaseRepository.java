@@ -5,7 +5,18 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Abstract base repository implementing common database operations.
@@ -15,9 +26,36 @@ import java.util.List;
  */
 public abstract class BaseRepository<T> implements DatabaseRepository<T> {
     
+    // Largest IN (...) list bound in one statement, well under SQLite's host parameter limit
+    protected static final int MAX_IN_LIST_SIZE = 512;
+    
+    // Rows sent per executeBatch() call in bulk writes
+    protected static final int BATCH_SIZE = 1000;
+    
+    // Default number of rows fetched per round trip when streaming
+    protected static final int DEFAULT_FETCH_SIZE = 500;
+    
     protected final DatabaseManager dbManager;
     protected final String tableName;
     protected final String idColumnName;
+    protected final String selectColumns;
+    
+    // SQL for the generic operations, built once per repository
+    protected final String deleteSql;
+    protected final String findByIdSql;
+    protected final String findAllSql;
+    protected final String findAllIdsSql;
+    protected final String existsSql;
+    protected final String firstPageSql;
+    protected final String nextPageSql;
+    protected final String changedSinceSql;
+    protected final String rowIdBoundsSql;
+    protected final String rowIdRangeSql;
+    
+    // IN (...) statements by padded list size, so each size is prepared and cached once
+    private final Map<Integer, String> findByIdsSql = new ConcurrentHashMap<>();
+    
+    private volatile int fetchSize = DEFAULT_FETCH_SIZE;
     
     /**
      * Constructor for the base repository
@@ -26,18 +64,62 @@ public abstract class BaseRepository<T> implements DatabaseRepository<T> {
      * @param idColumnName The name of the ID column in the table
      */
     public BaseRepository(String tableName, String idColumnName) {
+        this(tableName, idColumnName, "*");
+    }
+    
+    /**
+     * Constructor for a repository whose row mapper reads columns by position
+     * 
+     * @param tableName The name of the database table
+     * @param idColumnName The name of the ID column in the table
+     * @param selectColumns The comma-separated columns every query selects, in the order the mapper reads them
+     */
+    protected BaseRepository(String tableName, String idColumnName, String selectColumns) {
         this.dbManager = DatabaseManager.getInstance();
         this.tableName = tableName;
         this.idColumnName = idColumnName;
+        this.selectColumns = selectColumns;
+        
+        String select = "SELECT " + selectColumns + " FROM " + tableName;
+        this.deleteSql = "DELETE FROM " + tableName + " WHERE " + idColumnName + " = ?";
+        this.findByIdSql = select + " WHERE " + idColumnName + " = ?";
+        this.findAllSql = select;
+        this.findAllIdsSql = "SELECT " + idColumnName + " FROM " + tableName;
+        this.existsSql = "SELECT COUNT(*) FROM " + tableName + " WHERE " + idColumnName + " = ?";
+        this.firstPageSql = select + " ORDER BY " + idColumnName + " LIMIT ?";
+        this.nextPageSql = select + " WHERE " + idColumnName + " > ? ORDER BY " + idColumnName + " LIMIT ?";
+        this.changedSinceSql = select + " WHERE " + ChangeTracking.VERSION_COLUMN + " > ? AND " + ChangeTracking.VERSION_COLUMN + " <= ?";
+        this.rowIdBoundsSql = "SELECT MIN(rowid), MAX(rowid) FROM " + tableName;
+        this.rowIdRangeSql = select + " WHERE rowid >= ? AND rowid < ?";
+        
+        // Lookups by ID must always be served by the primary key index
+        SlowQueryLog slowQueryLog = SlowQueryLog.getInstance();
+        slowQueryLog.registerHotQuery(deleteSql);
+        slowQueryLog.registerHotQuery(findByIdSql);
+        slowQueryLog.registerHotQuery(existsSql);
+        slowQueryLog.registerHotQuery(nextPageSql);
+        slowQueryLog.registerHotQuery(changedSinceSql);
+        slowQueryLog.registerHotQuery(rowIdRangeSql);
+        slowQueryLog.registerHotQuery(ChangeTracking.DELETED_SINCE_SQL);
     }
     
     /**
-     * Initialize the repository by creating the necessary table
+     * Initialize the repository by creating the necessary table and its change tracking
      */
     @Override
     public void initialize() throws SQLException {
         String createTableSql = getCreateTableSql();
         dbManager.executeUpdate(createTableSql);
+        
+        // Create any declared secondary index that is missing
+        for (IndexDefinition index : getIndexes()) {
+            dbManager.executeUpdate(index.toCreateSql(tableName));
+        }
+        
+        if (isChangeLogged()) {
+            ChangeLog.install(dbManager);
+        }
+        ChangeTracking.install(dbManager, tableName, idColumnName, isChangeLogged());
     }
     
     /**
@@ -45,23 +127,57 @@ public abstract class BaseRepository<T> implements DatabaseRepository<T> {
      */
     protected abstract String getCreateTableSql();
     
+    /**
+     * Whether initialize() installs the triggers that append every change to the {@link ChangeLog}
+     */
+    protected boolean isChangeLogged() {
+        return false;
+    }
+    
+    /**
+     * Get the secondary indexes this repository needs, created by {@link #initialize()}.
+     * The primary key is indexed already and should not be listed.
+     */
+    protected List<IndexDefinition> getIndexes() {
+        return Collections.emptyList();
+    }
+    
+    /**
+     * Get the secondary indexes declared by this repository
+     */
+    public List<IndexDefinition> getDeclaredIndexes() {
+        return getIndexes();
+    }
+    
     /**
      * Map a database result set to an entity
      */
     protected abstract T mapResultSetToEntity(ResultSet rs) throws SQLException;
     
     /**
-     * Get the SQL statement to insert an entity
+     * Get the SQL statement to insert an entity.
+     * Implementations should return a constant so the statement cache can reuse it, and set
+     * {@link ChangeTracking#VERSION_COLUMN} to {@link ChangeTracking#NEXT_ROW_VERSION}; otherwise
+     * the change tracking triggers stamp the row with a second write.
      */
     protected abstract String getInsertSql();
     
     /**
-     * Set parameters for the insert statement
+     * Get the SQL statement that inserts an entity or updates it if its ID already exists
+     * (INSERT ... ON CONFLICT(id) DO UPDATE). It must take the same parameters, in the same
+     * order, as the insert statement.
+     */
+    protected abstract String getUpsertSql();
+    
+    /**
+     * Set parameters for the insert statement (also used for the upsert statement)
      */
     protected abstract void setInsertParameters(PreparedStatement pstmt, T entity) throws SQLException;
     
     /**
-     * Get the SQL statement to update an entity
+     * Get the SQL statement to update an entity.
+     * Implementations should return a constant so the statement cache can reuse it, and stamp
+     * the row version like the insert statement.
      */
     protected abstract String getUpdateSql();
     
@@ -76,20 +192,15 @@ public abstract class BaseRepository<T> implements DatabaseRepository<T> {
     protected abstract String getEntityId(T entity);
     
     /**
-     * Save an entity to the database
+     * Save an entity to the database with a single upsert statement
      */
     @Override
     public void save(T entity) throws SQLException {
-        String id = getEntityId(entity);
-        if (exists(id)) {
-            update(entity);
-        } else {
-            try (Connection conn = dbManager.getConnection();
-                 PreparedStatement pstmt = conn.prepareStatement(getInsertSql())) {
-                
-                setInsertParameters(pstmt, entity);
-                pstmt.executeUpdate();
-            }
+        try (Connection conn = dbManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(getUpsertSql())) {
+            
+            setInsertParameters(pstmt, entity);
+            pstmt.executeUpdate();
         }
     }
     
@@ -111,10 +222,8 @@ public abstract class BaseRepository<T> implements DatabaseRepository<T> {
      */
     @Override
     public void delete(String id) throws SQLException {
-        String sql = "DELETE FROM " + tableName + " WHERE " + idColumnName + " = ?";
-        
         try (Connection conn = dbManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+             PreparedStatement pstmt = conn.prepareStatement(deleteSql)) {
             
             pstmt.setString(1, id);
             pstmt.executeUpdate();
@@ -126,10 +235,8 @@ public abstract class BaseRepository<T> implements DatabaseRepository<T> {
      */
     @Override
     public T findById(String id) throws SQLException {
-        String sql = "SELECT * FROM " + tableName + " WHERE " + idColumnName + " = ?";
-        
-        try (Connection conn = dbManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (Connection conn = dbManager.getReadConnection();
+             PreparedStatement pstmt = conn.prepareStatement(findByIdSql)) {
             
             pstmt.setString(1, id);
             
@@ -148,10 +255,9 @@ public abstract class BaseRepository<T> implements DatabaseRepository<T> {
     @Override
     public List<T> findAll() throws SQLException {
         List<T> entities = new ArrayList<>();
-        String sql = "SELECT * FROM " + tableName;
         
-        try (Connection conn = dbManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql);
+        try (Connection conn = dbManager.getReadConnection();
+             PreparedStatement pstmt = conn.prepareStatement(findAllSql);
              ResultSet rs = pstmt.executeQuery()) {
             
             while (rs.next()) {
@@ -162,15 +268,240 @@ public abstract class BaseRepository<T> implements DatabaseRepository<T> {
         return entities;
     }
     
+    /**
+     * Get the next page of entities in ID order, seeking past the last ID of the previous page
+     */
+    @Override
+    public List<T> findPage(String afterId, int limit) throws SQLException {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Invalid page size");
+        }
+        
+        List<T> entities = new ArrayList<>(limit);
+        
+        try (Connection conn = dbManager.getReadConnection();
+             PreparedStatement pstmt = conn.prepareStatement(afterId == null ? firstPageSql : nextPageSql)) {
+            
+            int index = 1;
+            if (afterId != null) {
+                pstmt.setString(index++, afterId);
+            }
+            pstmt.setInt(index, limit);
+            
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    entities.add(mapResultSetToEntity(rs));
+                }
+            }
+        }
+        
+        return entities;
+    }
+    
+    /**
+     * Set the number of rows fetched per round trip by {@link #streamAll()} and {@link #forEach(Consumer)}
+     */
+    public void setFetchSize(int fetchSize) {
+        if (fetchSize < 1) {
+            throw new IllegalArgumentException("Invalid fetch size");
+        }
+        this.fetchSize = fetchSize;
+    }
+    
+    public int getFetchSize() {
+        return fetchSize;
+    }
+    
+    /**
+     * Stream all entities lazily from an open cursor.
+     * Rows are mapped as the stream is consumed; closing the stream closes the result set,
+     * statement and connection. A SQLException while reading is rethrown as a RuntimeException.
+     */
+    @Override
+    public Stream<T> streamAll() throws SQLException {
+        Connection conn = dbManager.getReadConnection();
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        
+        try {
+            pstmt = conn.prepareStatement(findAllSql);
+            pstmt.setFetchSize(fetchSize);
+            rs = pstmt.executeQuery();
+        } catch (SQLException | RuntimeException e) {
+            closeQuietly(rs, pstmt, conn);
+            throw e;
+        }
+        
+        ResultSet cursor = rs;
+        PreparedStatement statement = pstmt;
+        Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                try {
+                    if (!cursor.next()) {
+                        return false;
+                    }
+                    action.accept(mapResultSetToEntity(cursor));
+                    return true;
+                } catch (SQLException e) {
+                    throw new RuntimeException("Error reading from " + tableName + ": " + e.getMessage(), e);
+                }
+            }
+        };
+        
+        return StreamSupport.stream(spliterator, false)
+                .onClose(() -> closeQuietly(cursor, statement, conn));
+    }
+    
+    /**
+     * Pass every entity to an action, one row at a time from an open cursor
+     */
+    @Override
+    public void forEach(Consumer<T> action) throws SQLException {
+        try (Connection conn = dbManager.getReadConnection();
+             PreparedStatement pstmt = conn.prepareStatement(findAllSql)) {
+            
+            pstmt.setFetchSize(fetchSize);
+            
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    action.accept(mapResultSetToEntity(rs));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Pass every ID to an action. SQLite answers this from the primary key index alone,
+     * which is much smaller than the table.
+     */
+    @Override
+    public void forEachId(Consumer<String> action) throws SQLException {
+        try (Connection conn = dbManager.getReadConnection();
+             PreparedStatement pstmt = conn.prepareStatement(findAllIdsSql)) {
+            
+            pstmt.setFetchSize(fetchSize);
+            
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    action.accept(rs.getString(1));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Get the smallest and largest rowid of the table, or null if it is empty.
+     * Both are read from the ends of the rowid b-tree, so this is cheap on any table size.
+     */
+    @Override
+    public long[] getRowIdBounds() throws SQLException {
+        try (Connection conn = dbManager.getReadConnection();
+             PreparedStatement pstmt = conn.prepareStatement(rowIdBoundsSql);
+             ResultSet rs = pstmt.executeQuery()) {
+            
+            if (rs.next()) {
+                long min = rs.getLong(1);
+                if (!rs.wasNull()) {
+                    return new long[] { min, rs.getLong(2) };
+                }
+            }
+            return null;
+        }
+    }
+    
+    /**
+     * Pass every entity whose rowid is in a range to an action, reading one rowid b-tree range
+     */
+    @Override
+    public void forEachInRowIdRange(long fromRowId, long toRowId, Consumer<T> action) throws SQLException {
+        try (Connection conn = dbManager.getReadConnection();
+             PreparedStatement pstmt = conn.prepareStatement(rowIdRangeSql)) {
+            
+            pstmt.setLong(1, fromRowId);
+            pstmt.setLong(2, toRowId);
+            pstmt.setFetchSize(fetchSize);
+            
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    action.accept(mapResultSetToEntity(rs));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Pass the entities changed and the IDs deleted since a change version to the given actions.
+     * Both are read in one read transaction, so they are consistent with the returned version.
+     */
+    @Override
+    public long forEachChangeSince(long sinceVersion, Consumer<T> changed, Consumer<String> deleted) throws SQLException {
+        try (Connection conn = dbManager.getReadConnection()) {
+            // Inside a unit of work the transaction is already open
+            boolean ownTransaction = conn.getAutoCommit();
+            if (ownTransaction) {
+                conn.setAutoCommit(false);
+            }
+            
+            try {
+                ChangeTracking.checkNotPurged(conn, sinceVersion);
+                long version = ChangeTracking.currentVersion(conn);
+                
+                // Deletes first: a row deleted and inserted again has lost its tombstone
+                try (PreparedStatement pstmt = conn.prepareStatement(ChangeTracking.DELETED_SINCE_SQL)) {
+                    pstmt.setString(1, tableName);
+                    pstmt.setLong(2, sinceVersion);
+                    pstmt.setLong(3, version);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            deleted.accept(rs.getString(1));
+                        }
+                    }
+                }
+                
+                try (PreparedStatement pstmt = conn.prepareStatement(changedSinceSql)) {
+                    pstmt.setLong(1, sinceVersion);
+                    pstmt.setLong(2, version);
+                    pstmt.setFetchSize(fetchSize);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            changed.accept(mapResultSetToEntity(rs));
+                        }
+                    }
+                }
+                
+                if (ownTransaction) {
+                    conn.commit();
+                }
+                return version;
+            } finally {
+                if (ownTransaction) {
+                    conn.setAutoCommit(true);
+                }
+            }
+        }
+    }
+    
+    private static void closeQuietly(AutoCloseable... resources) {
+        for (AutoCloseable resource : resources) {
+            if (resource == null) {
+                continue;
+            }
+            try {
+                resource.close();
+            } catch (Exception e) {
+                System.err.println("Error closing cursor resource: " + e.getMessage());
+            }
+        }
+    }
+    
     /**
      * Check if an entity with the given ID exists
      */
     @Override
     public boolean exists(String id) throws SQLException {
-        String sql = "SELECT COUNT(*) FROM " + tableName + " WHERE " + idColumnName + " = ?";
-        
-        try (Connection conn = dbManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (Connection conn = dbManager.getReadConnection();
+             PreparedStatement pstmt = conn.prepareStatement(existsSql)) {
             
             pstmt.setString(1, id);
             
@@ -183,6 +514,192 @@ public abstract class BaseRepository<T> implements DatabaseRepository<T> {
         }
     }
     
+    /**
+     * Save several entities in one transaction with a batched upsert
+     */
+    @Override
+    public void saveAll(Collection<T> entities) throws SQLException {
+        if (entities.isEmpty()) {
+            return;
+        }
+        
+        dbManager.runInTransaction(unitOfWork ->
+                executeEntityBatch(unitOfWork.getConnection(), getUpsertSql(), entities, true));
+    }
+    
+    /**
+     * Update several existing entities in one transaction using a JDBC batch
+     */
+    @Override
+    public void updateAll(Collection<T> entities) throws SQLException {
+        if (entities.isEmpty()) {
+            return;
+        }
+        
+        dbManager.runInTransaction(unitOfWork ->
+                executeEntityBatch(unitOfWork.getConnection(), getUpdateSql(), entities, false));
+    }
+    
+    /**
+     * Delete several entities in one transaction using a JDBC batch
+     */
+    @Override
+    public void deleteAll(Collection<String> ids) throws SQLException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        
+        dbManager.runInTransaction(unitOfWork -> {
+            try (PreparedStatement pstmt = unitOfWork.getConnection().prepareStatement(deleteSql)) {
+                int pending = 0;
+                for (String id : ids) {
+                    pstmt.setString(1, id);
+                    pstmt.addBatch();
+                    if (++pending == BATCH_SIZE) {
+                        pstmt.executeBatch();
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    pstmt.executeBatch();
+                }
+            }
+        });
+    }
+    
+    /**
+     * Find several entities by ID using chunked IN lists
+     */
+    @Override
+    public List<T> findAllById(Collection<String> ids) throws SQLException {
+        List<T> entities = new ArrayList<>(ids.size());
+        if (ids.isEmpty()) {
+            return entities;
+        }
+        
+        // An ID repeated in different chunks would otherwise return its entity twice
+        Set<String> uniqueIds = new LinkedHashSet<>(ids);
+        
+        try (Connection conn = dbManager.getReadConnection()) {
+            for (List<String> chunk : chunk(uniqueIds)) {
+                String sql = findByIdsSql.computeIfAbsent(paddedSize(chunk.size()), size -> {
+                    String inListSql = "SELECT " + selectColumns + " FROM " + tableName + " WHERE " + idColumnName + " IN (" + placeholders(size) + ")";
+                    SlowQueryLog.getInstance().registerHotQuery(inListSql);
+                    return inListSql;
+                });
+                
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    bindPadded(pstmt, chunk);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            entities.add(mapResultSetToEntity(rs));
+                        }
+                    }
+                }
+            }
+        }
+        
+        return entities;
+    }
+    
+    /**
+     * Run an insert/upsert or update statement for each entity as JDBC batches
+     */
+    private void executeEntityBatch(Connection conn, String sql, Collection<T> entities, boolean insert) throws SQLException {
+        if (entities.isEmpty()) {
+            return;
+        }
+        
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            int pending = 0;
+            for (T entity : entities) {
+                if (insert) {
+                    setInsertParameters(pstmt, entity);
+                } else {
+                    setUpdateParameters(pstmt, entity);
+                }
+                pstmt.addBatch();
+                if (++pending == BATCH_SIZE) {
+                    pstmt.executeBatch();
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                pstmt.executeBatch();
+            }
+        }
+    }
+    
+    /**
+     * Split IDs into chunks of at most MAX_IN_LIST_SIZE
+     */
+    private static List<List<String>> chunk(Collection<String> ids) {
+        List<List<String>> chunks = new ArrayList<>();
+        List<String> current = new ArrayList<>(Math.min(ids.size(), MAX_IN_LIST_SIZE));
+        for (String id : ids) {
+            current.add(id);
+            if (current.size() == MAX_IN_LIST_SIZE) {
+                chunks.add(current);
+                current = new ArrayList<>(MAX_IN_LIST_SIZE);
+            }
+        }
+        if (!current.isEmpty()) {
+            chunks.add(current);
+        }
+        return chunks;
+    }
+    
+    /**
+     * Round an IN list size up to a power of two so only a few distinct statements are prepared
+     */
+    private static int paddedSize(int size) {
+        if (size <= 1) {
+            return 1;
+        }
+        return Math.min(MAX_IN_LIST_SIZE, Integer.highestOneBit(size - 1) << 1);
+    }
+    
+    private static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Bind a chunk of IDs, repeating the last one to fill the padded parameter list
+     */
+    private static void bindPadded(PreparedStatement pstmt, List<String> chunk) throws SQLException {
+        int size = paddedSize(chunk.size());
+        for (int i = 0; i < size; i++) {
+            pstmt.setString(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+        }
+    }
+    
+    /**
+     * Get the names of the indexes that exist on the table, including SQLite's own
+     * primary key index
+     */
+    @Override
+    public List<String> listIndexes() throws SQLException {
+        List<String> indexes = new ArrayList<>();
+        
+        try (Connection conn = dbManager.getReadConnection();
+             PreparedStatement pstmt = conn.prepareStatement("SELECT name FROM pragma_index_list(?)")) {
+            
+            pstmt.setString(1, tableName);
+            
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    indexes.add(rs.getString(1));
+                }
+            }
+        }
+        
+        return indexes;
+    }
+    
     /**
      * Close the repository's resources
      */
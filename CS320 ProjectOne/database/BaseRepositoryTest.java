@@ -0,0 +1,197 @@
+package database;
+
+import contact.Contact;
+import database.repositories.ContactRepository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BaseRepositoryTest {
+
+    private final DatabaseManager dbManager = DatabaseManager.getInstance();
+    private String testDbUrl;
+    private DatabaseRepository<Contact> repository;
+
+    @BeforeEach
+    void createDatabase() throws SQLException {
+        testDbUrl = dbManager.createTestDatabase("base_repository");
+        repository = RepositoryFactory.getInstance().getRepository(Contact.class);
+    }
+
+    @AfterEach
+    void deleteDatabase() throws SQLException {
+        RepositoryFactory.getInstance().closeAll();
+        dbManager.deleteTestDatabase(testDbUrl);
+    }
+
+    private static Contact contact(int n) {
+        return new Contact("C" + n, "First", "Last", "0123456789", "Address " + n);
+    }
+
+    @Test
+    void testFindAllByIdReturnsEachEntityOnce() throws SQLException {
+        List<Contact> contacts = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            contacts.add(contact(i));
+        }
+        repository.saveAll(contacts);
+
+        // More IDs than fit in one IN list, with repeats that land in different chunks
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            ids.add("C" + i);
+        }
+        ids.add("C1");
+        ids.add("C599");
+        ids.add("missing");
+
+        List<Contact> found = repository.findAllById(ids);
+
+        assertEquals(600, found.size());
+        Set<String> foundIds = new HashSet<>();
+        for (Contact contact : found) {
+            assertTrue(foundIds.add(contact.getContactId()), "Duplicate " + contact.getContactId());
+        }
+    }
+
+    @Test
+    void testInitializeCreatesMissingDeclaredIndexes() throws SQLException {
+        ContactRepository contacts = new ContactRepository();
+        contacts.initialize();
+        dbManager.executeUpdate("DROP INDEX idx_contacts_phone");
+        assertFalse(contacts.listIndexes().contains("idx_contacts_phone"));
+
+        // Initializing an existing table adds the index back without touching the others
+        contacts.initialize();
+
+        List<String> declared = contacts.getDeclaredIndexes().stream()
+                .map(IndexDefinition::getName)
+                .collect(Collectors.toList());
+        assertTrue(contacts.listIndexes().containsAll(declared));
+        contacts.close();
+    }
+
+    private long readLong(String sql, String parameter) throws SQLException {
+        try (Connection conn = dbManager.getReadConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            if (parameter != null) {
+                pstmt.setString(1, parameter);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                assertTrue(rs.next());
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    @Test
+    void testSaveOfExistingIdUpdatesTheRowInPlace() throws SQLException {
+        repository.save(contact(1));
+        long rowId = readLong("SELECT rowid FROM contacts WHERE contact_id = ?", "C1");
+
+        Contact changed = contact(1);
+        changed.setFirstName("Changed");
+        repository.save(changed);
+
+        assertEquals("Changed", repository.findById("C1").getFirstName());
+        assertEquals(1, readLong("SELECT COUNT(*) FROM contacts", null));
+        // An upsert updates the row; a delete and insert would move it and leave a tombstone
+        assertEquals(rowId, readLong("SELECT rowid FROM contacts WHERE contact_id = ?", "C1"));
+        assertEquals(0, readLong("SELECT COUNT(*) FROM deleted_rows", null));
+    }
+
+    @Test
+    void testSaveAllUpsertsNewAndExistingRows() throws SQLException {
+        repository.save(contact(1));
+        Contact changed = contact(1);
+        changed.setFirstName("Changed");
+
+        repository.saveAll(List.of(changed, contact(2)));
+
+        assertEquals("Changed", repository.findById("C1").getFirstName());
+        assertNotNull(repository.findById("C2"));
+        assertEquals(2, readLong("SELECT COUNT(*) FROM contacts", null));
+    }
+
+    @Test
+    void testStreamAllReadsEveryRowAndReturnsItsConnection() throws SQLException {
+        List<Contact> contacts = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            contacts.add(contact(i));
+        }
+        repository.saveAll(contacts);
+        // Several round trips of the cursor
+        repository.unwrap(BaseRepository.class).setFetchSize(10);
+        ConnectionPool readers = dbManager.getTopology(testDbUrl).getReaderPool();
+        int active = readers.getActiveConnections();
+
+        try (Stream<Contact> stream = repository.streamAll()) {
+            // The cursor holds a reader until the stream is closed
+            assertEquals(active + 1, readers.getActiveConnections());
+            assertEquals(25, stream.map(Contact::getContactId).distinct().count());
+        }
+        assertEquals(active, readers.getActiveConnections());
+
+        // A stream closed before its end gives the reader back too
+        try (Stream<Contact> stream = repository.streamAll()) {
+            assertEquals(3, stream.limit(3).count());
+        }
+        assertEquals(active, readers.getActiveConnections());
+    }
+
+    @Test
+    void testForEachVisitsEveryRowOnce() throws SQLException {
+        List<Contact> contacts = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            contacts.add(contact(i));
+        }
+        repository.saveAll(contacts);
+        ConnectionPool readers = dbManager.getTopology(testDbUrl).getReaderPool();
+        int active = readers.getActiveConnections();
+
+        List<String> ids = new ArrayList<>();
+        repository.forEach(contact -> ids.add(contact.getContactId()));
+
+        assertEquals(25, ids.size());
+        assertEquals(25, new HashSet<>(ids).size());
+        assertEquals(active, readers.getActiveConnections());
+    }
+
+    @Test
+    void testFindPageSeeksPastTheLastIdOfThePreviousPage() throws SQLException {
+        List<Contact> contacts = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            // Zero-padded so string order matches numeric order
+            contacts.add(new Contact("C0" + i, "First", "Last", "0123456789", "Address " + i));
+        }
+        repository.saveAll(contacts);
+
+        List<List<String>> pages = new ArrayList<>();
+        String after = null;
+        List<Contact> page;
+        while (!(page = repository.findPage(after, 2)).isEmpty()) {
+            pages.add(page.stream().map(Contact::getContactId).collect(Collectors.toList()));
+            after = page.get(page.size() - 1).getContactId();
+        }
+
+        assertEquals(List.of(List.of("C01", "C02"), List.of("C03", "C04"), List.of("C05")), pages);
+        // A row added behind the cursor is not read again; one added ahead of it is
+        repository.save(new Contact("C00", "First", "Last", "0123456789", "Address"));
+        repository.save(new Contact("C06", "First", "Last", "0123456789", "Address"));
+        assertEquals(List.of("C06"), repository.findPage("C05", 2).stream()
+                .map(Contact::getContactId).collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,98 @@
+package database;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Loads a whole table in the background by splitting its rowid range into chunks that are read
+ * in parallel, each on its own reader connection.
+ */
+final class CacheWarmer {
+
+    // More chunks than threads, so a dense part of the table does not leave other threads idle
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private CacheWarmer() {
+    }
+
+    /**
+     * Start loading every entity of a repository
+     *
+     * @param name Name used for the loader threads
+     * @param repository The repository to read
+     * @param parallelism Number of chunks read at the same time
+     * @param loader Receives each entity; called from several threads at once
+     * @return Completes with the number of entities loaded, or exceptionally if a chunk failed
+     */
+    static <T> CompletableFuture<Long> start(String name, DatabaseRepository<T> repository, int parallelism, Consumer<T> loader) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread thread = new Thread(r, "cache-warm-up-" + name + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        CompletableFuture<Long> result = CompletableFuture
+                .supplyAsync(() -> rowIdBounds(repository), executor)
+                .thenCompose(bounds -> {
+                    if (bounds == null) {
+                        return CompletableFuture.completedFuture(0L);
+                    }
+
+                    List<CompletableFuture<Long>> chunks = new ArrayList<>();
+                    for (long[] range : split(bounds[0], bounds[1], parallelism * CHUNKS_PER_THREAD)) {
+                        chunks.add(CompletableFuture.supplyAsync(() -> loadRange(repository, range, loader), executor));
+                    }
+
+                    return CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0]))
+                            .thenApply(done -> chunks.stream().mapToLong(CompletableFuture::join).sum());
+                });
+
+        result.whenComplete((rows, failure) -> executor.shutdown());
+        return result;
+    }
+
+    /**
+     * Split the rowids from min to max (inclusive) into half-open ranges
+     */
+    static List<long[]> split(long min, long max, int chunks) {
+        List<long[]> ranges = new ArrayList<>(chunks);
+        long span = max - min + 1;
+        long step = Math.max(1, (span + chunks - 1) / chunks);
+        for (long from = min; from <= max; from += step) {
+            ranges.add(new long[] { from, Math.min(from + step, max + 1) });
+            if (from > max - step) {
+                break;
+            }
+        }
+        return ranges;
+    }
+
+    private static long[] rowIdBounds(DatabaseRepository<?> repository) {
+        try {
+            return repository.getRowIdBounds();
+        } catch (SQLException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static <T> long loadRange(DatabaseRepository<T> repository, long[] range, Consumer<T> loader) {
+        long[] rows = new long[1];
+        try {
+            repository.forEachInRowIdRange(range[0], range[1], entity -> {
+                loader.accept(entity);
+                rows[0]++;
+            });
+        } catch (SQLException e) {
+            throw new CompletionException(e);
+        }
+        return rows[0];
+    }
+}
@@ -0,0 +1,287 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reads the {@link ChangeLog} of the current database in sequence order.
+ *
+ * A consumer remembers the sequence of the last change it processed and passes it back to
+ * {@link #readBatch(long, int)} or {@link #forEachBatch(long, int, Consumer)} to get what came
+ * after it. Entries are only deleted by {@link #compactThrough(long)} and
+ * {@link #compactOlderThan(Duration)}; a consumer that asks for changes that have already been
+ * compacted away gets an IllegalStateException and has to rescan the tables instead.
+ *
+ * While any {@link ServiceHelper} is open, entries older than {@link #RETENTION} are compacted
+ * with the tombstone purge. A consumer that needs a tighter bound calls
+ * {@link #compactThrough(long)} itself once it has saved its checkpoint.
+ */
+public class ChangeFeed {
+
+    /**
+     * Kind of row change
+     */
+    public enum Operation { INSERT, UPDATE, DELETE }
+
+    /**
+     * One logged row change
+     */
+    public static final class Change {
+        private final long sequence;
+        private final String tableName;
+        private final String rowId;
+        private final Operation operation;
+        private final long changedAtMillis;
+
+        Change(long sequence, String tableName, String rowId, Operation operation, long changedAtMillis) {
+            this.sequence = sequence;
+            this.tableName = tableName;
+            this.rowId = rowId;
+            this.operation = operation;
+            this.changedAtMillis = changedAtMillis;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        public String getRowId() {
+            return rowId;
+        }
+
+        public Operation getOperation() {
+            return operation;
+        }
+
+        /**
+         * Get the commit time in milliseconds since the epoch, from SQLite's clock
+         */
+        public long getChangedAtMillis() {
+            return changedAtMillis;
+        }
+
+        @Override
+        public String toString() {
+            return sequence + " " + operation + " " + tableName + "/" + rowId;
+        }
+    }
+
+    /**
+     * How long the scheduled compaction keeps entries, from the
+     * {@code database.changeLog.retentionHours} system property; 7 days by default
+     */
+    public static final Duration RETENTION = Duration.ofHours(Long.getLong("database.changeLog.retentionHours", 168));
+
+    // Rows deleted per statement during compaction, so the writer is never held for long
+    private static final int COMPACTION_BATCH_SIZE = 10_000;
+
+    private static final String COLUMNS = "seq, table_name, row_id, operation, changed_at";
+    private static final String READ_ALL_SQL =
+            "SELECT " + COLUMNS + " FROM " + ChangeLog.LOG_TABLE + " WHERE seq > ? ORDER BY seq LIMIT ?";
+    private static final String READ_TABLE_SQL =
+            "SELECT " + COLUMNS + " FROM " + ChangeLog.LOG_TABLE + " WHERE table_name = ? AND seq > ? ORDER BY seq LIMIT ?";
+    private static final String LATEST_SQL = "SELECT MAX(seq) FROM " + ChangeLog.LOG_TABLE;
+    private static final String COMPACTED_THROUGH_SQL = "SELECT compacted_through FROM change_log_state WHERE id = 1";
+    private static final String MARK_COMPACTED_SQL =
+            "UPDATE change_log_state SET compacted_through = MAX(compacted_through, ?) WHERE id = 1";
+    private static final String COMPACT_SQL =
+            "DELETE FROM " + ChangeLog.LOG_TABLE + " WHERE seq IN (SELECT seq FROM " + ChangeLog.LOG_TABLE
+            + " WHERE seq <= ? ORDER BY seq LIMIT " + COMPACTION_BATCH_SIZE + ")";
+    private static final String LAST_BEFORE_SQL =
+            "SELECT MAX(seq) FROM " + ChangeLog.LOG_TABLE + " WHERE changed_at < ?";
+
+    private final DatabaseManager dbManager;
+    private final String tableName;
+
+    /**
+     * Create a feed of the changes to every logged table
+     */
+    public ChangeFeed() {
+        this(null);
+    }
+
+    /**
+     * Create a feed of the changes to one table
+     *
+     * @param tableName The table, or null for every logged table
+     */
+    public ChangeFeed(String tableName) {
+        this.dbManager = DatabaseManager.getInstance();
+        this.tableName = tableName;
+
+        SlowQueryLog slowQueryLog = SlowQueryLog.getInstance();
+        slowQueryLog.registerHotQuery(READ_ALL_SQL);
+        slowQueryLog.registerHotQuery(READ_TABLE_SQL);
+    }
+
+    /**
+     * Read up to limit changes with a sequence above afterSequence, oldest first
+     *
+     * @param afterSequence The sequence of the last change already processed, or 0 for the start
+     * @param limit The most changes to return
+     * @throws IllegalStateException if changes after afterSequence have been compacted
+     */
+    public List<Change> readBatch(long afterSequence, int limit) throws SQLException {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Invalid batch size");
+        }
+
+        try (Connection conn = dbManager.getReadConnection()) {
+            // The compaction mark and the entries are read in one transaction, so a compaction
+            // running in between cannot open a gap that goes unnoticed
+            boolean ownTransaction = conn.getAutoCommit();
+            if (ownTransaction) {
+                conn.setAutoCommit(false);
+            }
+
+            try {
+                long compactedThrough = readLong(conn, COMPACTED_THROUGH_SQL);
+                if (afterSequence < compactedThrough) {
+                    throw new IllegalStateException("Changes up to sequence " + compactedThrough
+                            + " have been compacted; cannot read after " + afterSequence);
+                }
+
+                List<Change> changes = new ArrayList<>();
+                try (PreparedStatement pstmt = conn.prepareStatement(tableName == null ? READ_ALL_SQL : READ_TABLE_SQL)) {
+                    int index = 1;
+                    if (tableName != null) {
+                        pstmt.setString(index++, tableName);
+                    }
+                    pstmt.setLong(index++, afterSequence);
+                    pstmt.setInt(index, limit);
+
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            changes.add(new Change(rs.getLong(1), rs.getString(2), rs.getString(3),
+                                    Operation.valueOf(rs.getString(4)), rs.getLong(5)));
+                        }
+                    }
+                }
+
+                if (ownTransaction) {
+                    conn.commit();
+                }
+                return changes;
+            } finally {
+                if (ownTransaction) {
+                    conn.setAutoCommit(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Pass every change after afterSequence to an action, one batch at a time, until the end of
+     * the log. Each batch is read on its own, so no connection is held while the action runs.
+     *
+     * @return The sequence of the last change passed, or afterSequence if there were none
+     */
+    public long forEachBatch(long afterSequence, int batchSize, Consumer<List<Change>> action) throws SQLException {
+        long last = afterSequence;
+        while (true) {
+            List<Change> batch = readBatch(last, batchSize);
+            if (batch.isEmpty()) {
+                return last;
+            }
+            action.accept(batch);
+            last = batch.get(batch.size() - 1).getSequence();
+            if (batch.size() < batchSize) {
+                return last;
+            }
+        }
+    }
+
+    /**
+     * Get the sequence of the newest logged change, or 0 if nothing has been logged
+     */
+    public long getLatestSequence() throws SQLException {
+        try (Connection conn = dbManager.getReadConnection()) {
+            return readLong(conn, LATEST_SQL);
+        }
+    }
+
+    /**
+     * Get the sequence up to which the log has been compacted; readers must be at or past it
+     */
+    public long getCompactedThrough() throws SQLException {
+        try (Connection conn = dbManager.getReadConnection()) {
+            return readLong(conn, COMPACTED_THROUGH_SQL);
+        }
+    }
+
+    /**
+     * Delete every change with a sequence up to and including the given one.
+     * The compaction mark is moved first, so readers never miss a gap.
+     *
+     * @return The number of changes deleted
+     */
+    public long compactThrough(long sequence) throws SQLException {
+        try (Connection conn = dbManager.getConnection()) {
+            return compactThrough(conn, sequence);
+        }
+    }
+
+    /**
+     * Delete every change logged more than maxAge ago
+     *
+     * @return The number of changes deleted
+     */
+    public long compactOlderThan(Duration maxAge) throws SQLException {
+        try (Connection conn = dbManager.getConnection()) {
+            return compactOlderThan(conn, maxAge);
+        }
+    }
+
+    /**
+     * Delete every change logged more than maxAge ago on the given connection, whatever
+     * database it belongs to. Each batch commits on its own when the connection is in auto-commit.
+     *
+     * @return The number of changes deleted
+     */
+    public static long compactOlderThan(Connection conn, Duration maxAge) throws SQLException {
+        long cutoff = System.currentTimeMillis() - maxAge.toMillis();
+        long sequence;
+        try (PreparedStatement pstmt = conn.prepareStatement(LAST_BEFORE_SQL)) {
+            pstmt.setLong(1, cutoff);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                sequence = rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+        return sequence > 0 ? compactThrough(conn, sequence) : 0;
+    }
+
+    private static long compactThrough(Connection conn, long sequence) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(MARK_COMPACTED_SQL)) {
+            pstmt.setLong(1, sequence);
+            pstmt.executeUpdate();
+        }
+
+        long deleted = 0;
+        try (PreparedStatement pstmt = conn.prepareStatement(COMPACT_SQL)) {
+            pstmt.setLong(1, sequence);
+            int count;
+            do {
+                count = pstmt.executeUpdate();
+                deleted += count;
+            } while (count == COMPACTION_BATCH_SIZE);
+        }
+        return deleted;
+    }
+
+    private static long readLong(Connection conn, String sql) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(sql);
+             ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+}
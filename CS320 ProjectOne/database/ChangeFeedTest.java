@@ -0,0 +1,147 @@
+package database;
+
+import contact.Contact;
+import database.repositories.ContactRepository;
+import task.Task;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import database.ChangeFeed.Change;
+import database.ChangeFeed.Operation;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChangeFeedTest {
+
+    private final DatabaseManager dbManager = DatabaseManager.getInstance();
+    private String testDbUrl;
+    private DatabaseRepository<Contact> contacts;
+
+    @BeforeEach
+    void createDatabase() throws SQLException {
+        testDbUrl = dbManager.createTestDatabase("change_feed");
+        // Contacts are not logged by default; a feed consumer turns it on for its table
+        contacts = new ContactRepository() {
+            @Override
+            protected boolean isChangeLogged() {
+                return true;
+            }
+        };
+        // Creates the contacts table and the change log
+        contacts.initialize();
+    }
+
+    @AfterEach
+    void deleteDatabase() throws SQLException {
+        contacts.close();
+        RepositoryFactory.getInstance().closeAll();
+        dbManager.deleteTestDatabase(testDbUrl);
+    }
+
+    private static Contact contact(String id) {
+        return new Contact(id, "First", "Last", "0123456789", "Address");
+    }
+
+    private void insertContacts(int count) throws SQLException {
+        for (int i = 1; i <= count; i++) {
+            contacts.save(contact(String.valueOf(i)));
+        }
+    }
+
+    @Test
+    void testChangesAreReadInCommitOrder() throws SQLException {
+        contacts.save(contact("1"));
+        Contact updated = contact("1");
+        updated.setFirstName("Changed");
+        contacts.update(updated);
+        contacts.save(contact("2"));
+        contacts.delete("1");
+
+        List<Change> changes = new ChangeFeed("contacts").readBatch(0, 100);
+
+        assertEquals(List.of(Operation.INSERT, Operation.UPDATE, Operation.INSERT, Operation.DELETE),
+                changes.stream().map(Change::getOperation).toList());
+        assertEquals(List.of("1", "1", "2", "1"), changes.stream().map(Change::getRowId).toList());
+        for (int i = 1; i < changes.size(); i++) {
+            assertTrue(changes.get(i).getSequence() > changes.get(i - 1).getSequence());
+        }
+        assertEquals(changes.get(3).getSequence(), new ChangeFeed().getLatestSequence());
+        // Reading after a change starts at the next one
+        assertEquals(List.of(changes.get(2).getSequence(), changes.get(3).getSequence()),
+                new ChangeFeed("contacts").readBatch(changes.get(1).getSequence(), 100).stream()
+                        .map(Change::getSequence).toList());
+        assertTrue(new ChangeFeed("tasks").readBatch(0, 100).isEmpty());
+    }
+
+    @Test
+    void testTablesAreNotLoggedByDefault() throws SQLException {
+        contacts.save(contact("1"));
+        RepositoryFactory.getInstance().getRepository(Task.class).save(new Task("1", "Name", "Description"));
+
+        assertEquals(List.of("contacts"), new ChangeFeed().readBatch(0, 100).stream()
+                .map(Change::getTableName).toList());
+    }
+
+    @Test
+    void testForEachBatchReadsToTheEndInBatches() throws SQLException {
+        insertContacts(5);
+        ChangeFeed feed = new ChangeFeed("contacts");
+
+        List<Integer> batchSizes = new ArrayList<>();
+        List<String> rowIds = new ArrayList<>();
+        long last = feed.forEachBatch(0, 2, batch -> {
+            batchSizes.add(batch.size());
+            batch.forEach(change -> rowIds.add(change.getRowId()));
+        });
+
+        assertEquals(List.of(2, 2, 1), batchSizes);
+        assertEquals(List.of("1", "2", "3", "4", "5"), rowIds);
+        assertEquals(feed.getLatestSequence(), last);
+
+        // Nothing new: the checkpoint is returned unchanged and the action is not called
+        assertEquals(last, feed.forEachBatch(last, 2, batch -> fail("No changes expected")));
+        assertThrows(IllegalArgumentException.class, () -> feed.readBatch(0, 0));
+    }
+
+    @Test
+    void testReadingCompactedChangesFails() throws SQLException {
+        insertContacts(4);
+        ChangeFeed feed = new ChangeFeed();
+        List<Change> changes = feed.readBatch(0, 100);
+        long compactTo = changes.get(1).getSequence();
+
+        assertEquals(2, feed.compactThrough(compactTo));
+        assertEquals(compactTo, feed.getCompactedThrough());
+
+        // A checkpoint behind the mark would silently miss changes
+        assertThrows(IllegalStateException.class, () -> feed.readBatch(0, 100));
+        assertThrows(IllegalStateException.class, () -> feed.readBatch(changes.get(0).getSequence(), 100));
+        assertEquals(List.of("3", "4"), feed.readBatch(compactTo, 100).stream().map(Change::getRowId).toList());
+
+        // The mark never moves back
+        feed.compactThrough(0);
+        assertEquals(compactTo, feed.getCompactedThrough());
+        // Sequences are not reused after compaction
+        contacts.save(contact("5"));
+        assertTrue(feed.getLatestSequence() > changes.get(3).getSequence());
+    }
+
+    @Test
+    void testScheduledCompactionKeepsRecentChanges() throws SQLException {
+        insertContacts(3);
+        ChangeFeed feed = new ChangeFeed();
+
+        assertEquals(0, ServiceHelper.compactChangeLog(testDbUrl));
+        assertEquals(3, feed.readBatch(0, 100).size());
+
+        // Entries logged before the cutoff are removed
+        assertEquals(3, feed.compactOlderThan(Duration.ofMillis(-1_000)));
+        assertTrue(feed.readBatch(feed.getCompactedThrough(), 100).isEmpty());
+    }
+}
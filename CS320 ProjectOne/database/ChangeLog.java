@@ -0,0 +1,89 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * An append-only log of row changes, written by triggers and read through {@link ChangeFeed}.
+ *
+ * Every insert, update and delete of a logged table appends one row to {@code change_log}
+ * with a sequence number, the table, the row ID, the operation and the time in milliseconds
+ * since the epoch. Sequence numbers come from an AUTOINCREMENT key, so they only ever grow,
+ * even after compaction has deleted the newest entries. {@code change_log_state} records how
+ * far the log has been compacted, so a reader can tell when entries it has not seen are gone.
+ *
+ * Unlike {@link ChangeTracking}, which keeps only the latest version of each row, the log keeps
+ * every change in commit order until it is compacted.
+ */
+public final class ChangeLog {
+
+    static final String LOG_TABLE = "change_log";
+
+    private static final String CREATE_LOG_TABLE_SQL =
+            "CREATE TABLE IF NOT EXISTS " + LOG_TABLE + " (" +
+            "seq INTEGER PRIMARY KEY AUTOINCREMENT, " +
+            "table_name TEXT NOT NULL, " +
+            "row_id TEXT NOT NULL, " +
+            "operation TEXT NOT NULL, " +
+            "changed_at INTEGER NOT NULL" +
+            ")";
+
+    private static final IndexDefinition TABLE_INDEX =
+            IndexDefinition.on("idx_change_log_table", "table_name", "seq");
+
+    private static final IndexDefinition TIME_INDEX =
+            IndexDefinition.on("idx_change_log_changed_at", "changed_at");
+
+    private static final String CREATE_STATE_TABLE_SQL =
+            "CREATE TABLE IF NOT EXISTS change_log_state (" +
+            "id INTEGER PRIMARY KEY CHECK (id = 1), " +
+            "compacted_through INTEGER NOT NULL" +
+            ")";
+
+    private static final String SEED_STATE_SQL =
+            "INSERT OR IGNORE INTO change_log_state (id, compacted_through) VALUES (1, 0)";
+
+    private static final String INSTALLED_SQL =
+            "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = '" + LOG_TABLE + "'";
+
+    // Milliseconds since the epoch, from SQLite's clock
+    private static final String NOW_MILLIS = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    private ChangeLog() {
+    }
+
+    /**
+     * Create the log tables. The entries are appended by the {@link ChangeTracking} triggers
+     * of tables installed as logged. Safe to call on every startup.
+     */
+    static void install(DatabaseManager dbManager) throws SQLException {
+        dbManager.executeUpdate(CREATE_LOG_TABLE_SQL);
+        dbManager.executeUpdate(TABLE_INDEX.toCreateSql(LOG_TABLE));
+        dbManager.executeUpdate(TIME_INDEX.toCreateSql(LOG_TABLE));
+        dbManager.executeUpdate(CREATE_STATE_TABLE_SQL);
+        dbManager.executeUpdate(SEED_STATE_SQL);
+    }
+
+    /**
+     * Check whether the log tables exist in a database
+     */
+    static boolean isInstalled(Connection conn) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(INSTALLED_SQL);
+             ResultSet rs = pstmt.executeQuery()) {
+            return rs.next();
+        }
+    }
+
+    /**
+     * Get the trigger statement that appends one change of a table to the log
+     *
+     * @param rowId The trigger expression for the row ID, NEW.id or OLD.id
+     * @param operation INSERT, UPDATE or DELETE
+     */
+    static String appendSql(String table, String rowId, String operation) {
+        return "INSERT INTO " + LOG_TABLE + " (table_name, row_id, operation, changed_at) VALUES ('"
+                + table + "', " + rowId + ", '" + operation + "', " + NOW_MILLIS + "); ";
+    }
+}
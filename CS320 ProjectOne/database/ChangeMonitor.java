@@ -0,0 +1,219 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Detects commits made to a database by other connections, including other processes.
+ *
+ * A dedicated connection polls {@code PRAGMA data_version}, which changes whenever any other
+ * connection commits to the database file and costs no I/O beyond a shared-memory read in WAL
+ * mode. When it changes, every subscriber is told, and a {@link ServiceHelper} then reads only
+ * the changed rows through {@link ChangeTracking}. A subscriber therefore lags other processes
+ * by at most the poll interval plus the time of its own sync.
+ *
+ * The monitor polls at the shortest interval any subscriber asked for, and closes its
+ * connection when the last subscriber leaves. Subscribers are called on the monitor's thread.
+ */
+public class ChangeMonitor {
+
+    /**
+     * A registration returned by {@link #subscribe(long, Runnable)}
+     */
+    public final class Subscription implements AutoCloseable {
+        private final long pollIntervalMillis;
+        private final Runnable onChange;
+
+        private Subscription(long pollIntervalMillis, Runnable onChange) {
+            this.pollIntervalMillis = pollIntervalMillis;
+            this.onChange = onChange;
+        }
+
+        /**
+         * Stop receiving change notifications
+         */
+        @Override
+        public void close() {
+            unsubscribe(this);
+        }
+    }
+
+    // Shared polling thread for all monitors
+    private static final ScheduledExecutorService POLLER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "change-monitor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final String DATA_VERSION_SQL = "PRAGMA data_version";
+
+    private final String dbUrl;
+    private final ConnectionPool.ConnectionFactory factory;
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final LongAdder polls = new LongAdder();
+    private final LongAdder changes = new LongAdder();
+
+    // Guarded by this
+    private Connection connection;
+    private ScheduledFuture<?> polling;
+    private long pollIntervalMillis = -1;
+    private long dataVersion = -1;
+
+    private volatile long lastPollNanos = System.nanoTime();
+
+    /**
+     * Constructor
+     *
+     * @param dbUrl The database URL, used in log messages
+     * @param factory Opens the monitor's own connection
+     */
+    ChangeMonitor(String dbUrl, ConnectionPool.ConnectionFactory factory) {
+        this.dbUrl = dbUrl;
+        this.factory = factory;
+    }
+
+    /**
+     * Call an action after each poll that finds commits by other connections
+     *
+     * @param pollIntervalMillis The longest the subscriber may go without noticing a commit
+     * @param onChange Called on the monitor thread; should not block for long
+     */
+    public synchronized Subscription subscribe(long pollIntervalMillis, Runnable onChange) throws SQLException {
+        if (pollIntervalMillis < 1) {
+            throw new IllegalArgumentException("Invalid poll interval");
+        }
+        if (connection == null) {
+            connection = factory.create();
+            dataVersion = readDataVersion();
+        }
+
+        Subscription subscription = new Subscription(pollIntervalMillis, onChange);
+        subscriptions.add(subscription);
+        reschedule();
+        return subscription;
+    }
+
+    private synchronized void unsubscribe(Subscription subscription) {
+        if (!subscriptions.remove(subscription)) {
+            return;
+        }
+        if (subscriptions.isEmpty()) {
+            close();
+        } else {
+            reschedule();
+        }
+    }
+
+    /**
+     * Poll at the shortest interval any subscriber asked for
+     */
+    private void reschedule() {
+        long interval = Long.MAX_VALUE;
+        for (Subscription subscription : subscriptions) {
+            interval = Math.min(interval, subscription.pollIntervalMillis);
+        }
+        if (interval == pollIntervalMillis && polling != null) {
+            return;
+        }
+
+        if (polling != null) {
+            polling.cancel(false);
+        }
+        pollIntervalMillis = interval;
+        polling = POLLER.scheduleWithFixedDelay(this::poll, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void poll() {
+        boolean changed;
+        synchronized (this) {
+            if (connection == null) {
+                return;
+            }
+            try {
+                long version = readDataVersion();
+                changed = version != dataVersion;
+                dataVersion = version;
+            } catch (SQLException e) {
+                System.err.println("Error polling data version of " + dbUrl + ": " + e.getMessage());
+                return;
+            }
+            polls.increment();
+            lastPollNanos = System.nanoTime();
+        }
+
+        if (!changed) {
+            return;
+        }
+        changes.increment();
+        for (Subscription subscription : subscriptions) {
+            try {
+                subscription.onChange.run();
+            } catch (RuntimeException e) {
+                System.err.println("Error handling change to " + dbUrl + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private long readDataVersion() throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(DATA_VERSION_SQL)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Get the number of polls made
+     */
+    public long getPolls() {
+        return polls.sum();
+    }
+
+    /**
+     * Get the number of polls that found commits by other connections
+     */
+    public long getChangesDetected() {
+        return changes.sum();
+    }
+
+    /**
+     * Get the current poll interval, or -1 when nobody is subscribed
+     */
+    public synchronized long getPollIntervalMillis() {
+        return polling != null ? pollIntervalMillis : -1;
+    }
+
+    /**
+     * Get how long ago the last successful poll was
+     */
+    public long getMillisSinceLastPoll() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastPollNanos);
+    }
+
+    /**
+     * Stop polling and close the monitor's connection; subscriptions are dropped
+     */
+    synchronized void close() {
+        subscriptions.clear();
+        if (polling != null) {
+            polling.cancel(false);
+            polling = null;
+        }
+        pollIntervalMillis = -1;
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                System.err.println("Error closing change monitor connection: " + e.getMessage());
+            }
+            connection = null;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package database;
+
+import contact.Contact;
+import database.cache.CacheConfig;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChangeMonitorTest {
+
+    private final DatabaseManager dbManager = DatabaseManager.getInstance();
+    private String testDbUrl;
+
+    @BeforeEach
+    void createDatabase() throws SQLException {
+        testDbUrl = dbManager.createTestDatabase("change_monitor");
+        // Creates the contacts table with change tracking
+        RepositoryFactory.getInstance().getRepository(Contact.class);
+    }
+
+    @AfterEach
+    void deleteDatabase() throws SQLException {
+        RepositoryFactory.getInstance().closeAll();
+        dbManager.deleteTestDatabase(testDbUrl);
+    }
+
+    /**
+     * Commit a row on a connection of its own, as another process would
+     */
+    private void insertFromOtherConnection(String id) throws SQLException {
+        try (Connection other = DriverManager.getConnection(testDbUrl);
+             Statement stmt = other.createStatement()) {
+            stmt.execute("PRAGMA busy_timeout = 5000");
+            stmt.executeUpdate("INSERT INTO contacts (contact_id, first_name, last_name, phone, address) "
+                    + "VALUES ('" + id + "', 'First', 'Last', '0123456789', 'Address')");
+        }
+    }
+
+    @Test
+    void testCommitOnAnotherConnectionIsDetected() throws Exception {
+        ChangeMonitor monitor = dbManager.getChangeMonitor();
+        CountDownLatch changed = new CountDownLatch(1);
+        ChangeMonitor.Subscription subscription = monitor.subscribe(20, changed::countDown);
+        try {
+            long detected = monitor.getChangesDetected();
+            assertEquals(20, monitor.getPollIntervalMillis());
+
+            insertFromOtherConnection("1");
+
+            assertTrue(changed.await(10, TimeUnit.SECONDS));
+            assertTrue(monitor.getChangesDetected() > detected);
+            assertTrue(monitor.getPolls() > 0);
+        } finally {
+            subscription.close();
+        }
+        assertEquals(-1, monitor.getPollIntervalMillis());
+    }
+
+    @Test
+    void testHelperPicksUpRowFromAnotherConnection() throws Exception {
+        ServiceHelper<Contact> helper = new ServiceHelper<>(Contact.class, null,
+                new CacheConfig<Contact>().setChangePollMillis(20));
+        try {
+            assertTrue(helper.getAll().isEmpty());
+
+            insertFromOtherConnection("1");
+
+            // Only the poll fills the cache; getAll() would sync on its own
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (helper.getCacheSize() == 0) {
+                assertTrue(System.nanoTime() < deadline, "The insert was never synced");
+                Thread.sleep(10);
+            }
+            assertEquals("1", helper.getAll().get(0).getContactId());
+            try (Connection connection = dbManager.getReadConnection()) {
+                assertEquals(ChangeTracking.currentVersion(connection), helper.getSyncedVersion());
+            }
+        } finally {
+            helper.close();
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Row versioning used to read only what changed since a previous read.
+ *
+ * A single database-wide counter in {@code change_version} is incremented by triggers on every
+ * insert, update and delete of a tracked table. Inserted and updated rows carry the new value in
+ * their {@code row_version} column; deleted rows leave a tombstone in {@code deleted_rows} with
+ * the value at which they were deleted. Re-inserting a deleted ID removes its tombstone.
+ * A reader that remembers the counter value of its last read can therefore ask for
+ * "rows with row_version above N" and "tombstones above N" instead of reading the whole table.
+ *
+ * Repository statements stamp {@code row_version} themselves with {@link #NEXT_ROW_VERSION}, so
+ * the triggers only bump the counter. Writes that leave {@code row_version} alone, such as plain
+ * SQL from other programs, are stamped by the triggers with an extra UPDATE of the row.
+ * When a table is also change logged, the same triggers append to the {@link ChangeLog}.
+ *
+ * Tombstones are purged with {@link #purgeTombstonesThrough(Connection, long)}, normally up to
+ * the oldest version a {@link ServiceHelper} still has to read from. A reader asking for changes
+ * since a version that has been purged gets an IllegalStateException and has to reload instead.
+ */
+public final class ChangeTracking {
+
+    /** Name of the version column added to every tracked table */
+    public static final String VERSION_COLUMN = "row_version";
+
+    /**
+     * SQL expression for the version a statement stamps on the row it inserts or updates.
+     * The trigger that fires for the row then moves the counter up to it.
+     */
+    public static final String NEXT_ROW_VERSION = "(SELECT version + 1 FROM change_version WHERE id = 1)";
+
+    private static final String CREATE_VERSION_TABLE_SQL =
+            "CREATE TABLE IF NOT EXISTS change_version (" +
+            "id INTEGER PRIMARY KEY CHECK (id = 1), " +
+            "version INTEGER NOT NULL" +
+            ")";
+
+    private static final String SEED_VERSION_SQL =
+            "INSERT OR IGNORE INTO change_version (id, version) VALUES (1, 0)";
+
+    private static final String CREATE_TOMBSTONE_TABLE_SQL =
+            "CREATE TABLE IF NOT EXISTS deleted_rows (" +
+            "table_name TEXT NOT NULL, " +
+            "row_id TEXT NOT NULL, " +
+            "row_version INTEGER NOT NULL, " +
+            "PRIMARY KEY (table_name, row_id)" +
+            ")";
+
+    private static final IndexDefinition TOMBSTONE_INDEX =
+            IndexDefinition.on("idx_deleted_rows_version", "table_name", "row_version");
+
+    private static final String CREATE_TOMBSTONE_STATE_TABLE_SQL =
+            "CREATE TABLE IF NOT EXISTS deleted_rows_state (" +
+            "id INTEGER PRIMARY KEY CHECK (id = 1), " +
+            "purged_through INTEGER NOT NULL" +
+            ")";
+
+    private static final String SEED_TOMBSTONE_STATE_SQL =
+            "INSERT OR IGNORE INTO deleted_rows_state (id, purged_through) VALUES (1, 0)";
+
+    // A random ID that tells this database apart from another one later created at the same path
+    private static final String CREATE_IDENTITY_TABLE_SQL =
+            "CREATE TABLE IF NOT EXISTS database_identity (" +
+            "id INTEGER PRIMARY KEY CHECK (id = 1), " +
+            "database_id TEXT NOT NULL" +
+            ")";
+
+    private static final String SEED_IDENTITY_SQL =
+            "INSERT OR IGNORE INTO database_identity (id, database_id) VALUES (1, lower(hex(randomblob(16))))";
+
+    private static final String DATABASE_ID_SQL = "SELECT database_id FROM database_identity WHERE id = 1";
+
+    private static final String CURRENT_VERSION_SQL = "SELECT version FROM change_version WHERE id = 1";
+
+    private static final String PURGED_THROUGH_SQL = "SELECT purged_through FROM deleted_rows_state WHERE id = 1";
+
+    /** Tombstones of one table in a version range */
+    public static final String DELETED_SINCE_SQL =
+            "SELECT row_id FROM deleted_rows WHERE table_name = ? AND row_version > ? AND row_version <= ?";
+
+    // Rows deleted per statement when purging, so the writer is never held for long
+    private static final int PURGE_BATCH_SIZE = 10_000;
+
+    private static final String MARK_PURGED_SQL =
+            "UPDATE deleted_rows_state SET purged_through = MAX(purged_through, ?) WHERE id = 1";
+
+    private static final String PURGE_SQL =
+            "DELETE FROM deleted_rows WHERE rowid IN (SELECT rowid FROM deleted_rows WHERE row_version <= ? LIMIT "
+            + PURGE_BATCH_SIZE + ")";
+
+    private static final String HAS_VERSION_COLUMN_SQL =
+            "SELECT COUNT(*) FROM pragma_table_info(?) WHERE name = '" + VERSION_COLUMN + "'";
+
+    private static final String HAS_TRIGGER_SQL =
+            "SELECT COUNT(*) FROM sqlite_master WHERE type = 'trigger' AND name = ?";
+
+    private static final String CURRENT_VERSION = "(SELECT version FROM change_version WHERE id = 1)";
+    private static final String BUMP_VERSION = "UPDATE change_version SET version = version + 1 WHERE id = 1; ";
+
+    private static final String[] OPERATIONS = { "insert", "update", "stamped_update", "delete" };
+
+    // Trigger names used before statements stamped their own versions
+    private static final String[] LEGACY_TRIGGERS = {
+            "_track_insert", "_track_update", "_track_delete", "_log_insert", "_log_update", "_log_delete" };
+
+    private ChangeTracking() {
+    }
+
+    /**
+     * Add the version column, its index and the tracking triggers to a table.
+     * Safe to call on every startup; existing rows keep version 0 until they change.
+     *
+     * @param logged Whether the triggers also append every change to the {@link ChangeLog}
+     */
+    static void install(DatabaseManager dbManager, String tableName, String idColumnName, boolean logged) throws SQLException {
+        try (Connection conn = dbManager.getConnection()) {
+            install(conn, tableName, idColumnName, logged);
+        }
+    }
+
+    /**
+     * Install change tracking through a connection the caller manages itself.
+     * A table whose changes are already logged stays logged.
+     */
+    public static void install(Connection conn, String tableName, String idColumnName) throws SQLException {
+        install(conn, tableName, idColumnName, hasTrigger(conn, triggerName(tableName, true, OPERATIONS[0])));
+    }
+
+    private static void install(Connection conn, String tableName, String idColumnName, boolean logged) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(CREATE_VERSION_TABLE_SQL);
+            stmt.execute(SEED_VERSION_SQL);
+            stmt.execute(CREATE_TOMBSTONE_TABLE_SQL);
+            stmt.execute(TOMBSTONE_INDEX.toCreateSql("deleted_rows"));
+            stmt.execute(CREATE_TOMBSTONE_STATE_TABLE_SQL);
+            stmt.execute(SEED_TOMBSTONE_STATE_SQL);
+            stmt.execute(CREATE_IDENTITY_TABLE_SQL);
+            stmt.execute(SEED_IDENTITY_SQL);
+
+            if (!hasVersionColumn(conn, tableName)) {
+                stmt.execute("ALTER TABLE " + tableName + " ADD COLUMN " + VERSION_COLUMN + " INTEGER NOT NULL DEFAULT 0");
+            }
+            stmt.execute(versionIndex(tableName).toCreateSql(tableName));
+
+            // The new triggers go in before the old ones are dropped, so no change goes untracked
+            for (String trigger : triggerSql(tableName, idColumnName, logged)) {
+                stmt.execute(trigger);
+            }
+            for (String operation : OPERATIONS) {
+                stmt.execute("DROP TRIGGER IF EXISTS " + triggerName(tableName, !logged, operation));
+            }
+            for (String legacy : LEGACY_TRIGGERS) {
+                stmt.execute("DROP TRIGGER IF EXISTS " + tableName + legacy);
+            }
+        }
+    }
+
+    /**
+     * Get the index that serves "changed since" queries on a table
+     */
+    static IndexDefinition versionIndex(String tableName) {
+        return IndexDefinition.on("idx_" + tableName + "_" + VERSION_COLUMN, VERSION_COLUMN);
+    }
+
+    /**
+     * Read the current value of the change counter
+     */
+    public static long currentVersion(Connection conn) throws SQLException {
+        return readLong(conn, CURRENT_VERSION_SQL);
+    }
+
+    /**
+     * Read the random ID generated when change tracking was first installed in the database.
+     * A database deleted and created again at the same path gets a new ID.
+     */
+    public static String databaseId(Connection conn) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(DATABASE_ID_SQL);
+             ResultSet rs = pstmt.executeQuery()) {
+            if (!rs.next()) {
+                throw new SQLException("Change tracking is not installed");
+            }
+            return rs.getString(1);
+        }
+    }
+
+    /**
+     * Read the version up to which tombstones have been purged
+     */
+    public static long purgedThrough(Connection conn) throws SQLException {
+        return readLong(conn, PURGED_THROUGH_SQL);
+    }
+
+    /**
+     * Check that the tombstones a reader needs are still there.
+     * Call in the same transaction as the read.
+     *
+     * @param sinceVersion The version the reader is up to date with, or -1 for a full read
+     * @throws IllegalStateException if tombstones after sinceVersion have been purged
+     */
+    public static void checkNotPurged(Connection conn, long sinceVersion) throws SQLException {
+        if (sinceVersion < 0) {
+            return;
+        }
+        long purgedThrough = purgedThrough(conn);
+        if (sinceVersion < purgedThrough) {
+            throw new IllegalStateException("Deletions up to version " + purgedThrough
+                    + " have been purged; cannot read changes since " + sinceVersion);
+        }
+    }
+
+    /**
+     * Delete the tombstones of every tracked table with a version up to and including the
+     * given one. The purge mark is moved first, so a reader further behind fails instead of
+     * missing deletions.
+     *
+     * @return The number of tombstones deleted
+     */
+    public static long purgeTombstonesThrough(Connection conn, long version) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(MARK_PURGED_SQL)) {
+            pstmt.setLong(1, version);
+            pstmt.executeUpdate();
+        }
+
+        long deleted = 0;
+        try (PreparedStatement pstmt = conn.prepareStatement(PURGE_SQL)) {
+            pstmt.setLong(1, version);
+            int count;
+            do {
+                count = pstmt.executeUpdate();
+                deleted += count;
+            } while (count == PURGE_BATCH_SIZE);
+        }
+        return deleted;
+    }
+
+    private static long readLong(Connection conn, String sql) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(sql);
+             ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private static boolean hasVersionColumn(Connection conn, String tableName) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(HAS_VERSION_COLUMN_SQL)) {
+            pstmt.setString(1, tableName);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() && rs.getInt(1) > 0;
+            }
+        }
+    }
+
+    private static boolean hasTrigger(Connection conn, String triggerName) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(HAS_TRIGGER_SQL)) {
+            pstmt.setString(1, triggerName);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() && rs.getInt(1) > 0;
+            }
+        }
+    }
+
+    private static String triggerName(String table, boolean logged, String operation) {
+        return table + (logged ? "_changes_logged_" : "_changes_") + operation;
+    }
+
+    private static List<String> triggerSql(String table, String id, boolean logged) {
+        String stampRow = "UPDATE " + table + " SET " + VERSION_COLUMN + " = " + CURRENT_VERSION
+                + " WHERE " + id + " = NEW." + id;
+        String logInsert = logged ? ChangeLog.appendSql(table, "NEW." + id, "INSERT") : "";
+        String logUpdate = logged ? ChangeLog.appendSql(table, "NEW." + id, "UPDATE") : "";
+        String logDelete = logged ? ChangeLog.appendSql(table, "OLD." + id, "DELETE") : "";
+
+        return List.of(
+                "CREATE TRIGGER IF NOT EXISTS " + triggerName(table, logged, "insert") + " AFTER INSERT ON " + table + " BEGIN "
+                        + BUMP_VERSION
+                        // Only rows inserted without a stamp still have the column default
+                        + stampRow + " AND NEW." + VERSION_COLUMN + " = 0; "
+                        + "DELETE FROM deleted_rows WHERE table_name = '" + table + "' AND row_id = NEW." + id + "; "
+                        + logInsert
+                        + "END",
+                // An update that left row_version alone is stamped here
+                "CREATE TRIGGER IF NOT EXISTS " + triggerName(table, logged, "update") + " AFTER UPDATE ON " + table
+                        + " WHEN NEW." + VERSION_COLUMN + " IS OLD." + VERSION_COLUMN + " BEGIN "
+                        + BUMP_VERSION
+                        + stampRow + "; "
+                        + logUpdate
+                        + "END",
+                // A statement stamped the row one above the counter. The stamps written by these
+                // triggers equal the counter, so they fire neither update trigger.
+                "CREATE TRIGGER IF NOT EXISTS " + triggerName(table, logged, "stamped_update") + " AFTER UPDATE ON " + table
+                        + " WHEN NEW." + VERSION_COLUMN + " > " + CURRENT_VERSION + " BEGIN "
+                        + BUMP_VERSION
+                        + logUpdate
+                        + "END",
+                "CREATE TRIGGER IF NOT EXISTS " + triggerName(table, logged, "delete") + " AFTER DELETE ON " + table + " BEGIN "
+                        + BUMP_VERSION
+                        + "INSERT OR REPLACE INTO deleted_rows (table_name, row_id, row_version) "
+                        + "VALUES ('" + table + "', OLD." + id + ", " + CURRENT_VERSION + "); "
+                        + logDelete
+                        + "END");
+    }
+}
@@ -0,0 +1,115 @@
+package database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChangeTrackingTest {
+
+    private static final String STAMPED_INSERT_SQL =
+            "INSERT INTO items (id, name, " + ChangeTracking.VERSION_COLUMN + ") VALUES (?, ?, " + ChangeTracking.NEXT_ROW_VERSION + ")";
+    private static final String STAMPED_UPDATE_SQL =
+            "UPDATE items SET name = ?, " + ChangeTracking.VERSION_COLUMN + " = " + ChangeTracking.NEXT_ROW_VERSION + " WHERE id = ?";
+
+    @TempDir
+    Path tempDir;
+
+    private Connection connection;
+
+    @BeforeEach
+    void openConnection() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:sqlite:" + tempDir.resolve("tracking.db"));
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE items (id TEXT PRIMARY KEY, name TEXT)");
+        }
+        ChangeTracking.install(connection, "items", "id");
+    }
+
+    @AfterEach
+    void closeConnection() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    void testStampedWritesOnlyBumpTheCounter() throws SQLException {
+        long before = totalChanges();
+        write(STAMPED_INSERT_SQL, "1", "one");
+        // The row and the counter
+        assertEquals(2, totalChanges() - before);
+        assertEquals(ChangeTracking.currentVersion(connection), rowVersion("1"));
+
+        before = totalChanges();
+        write(STAMPED_UPDATE_SQL, "uno", "1");
+        assertEquals(2, totalChanges() - before);
+        assertEquals(2, ChangeTracking.currentVersion(connection));
+        assertEquals(2, rowVersion("1"));
+    }
+
+    @Test
+    void testUnstampedWritesAreStampedByTheTriggers() throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("INSERT INTO items (id, name) VALUES ('1', 'one')");
+            assertEquals(1, rowVersion("1"));
+
+            stmt.executeUpdate("UPDATE items SET name = 'uno' WHERE id = '1'");
+            assertEquals(2, rowVersion("1"));
+        }
+        assertEquals(2, ChangeTracking.currentVersion(connection));
+    }
+
+    @Test
+    void testPurgedTombstonesCannotBeReadPast() throws SQLException {
+        write(STAMPED_INSERT_SQL, "1", "one");
+        write(STAMPED_INSERT_SQL, "2", "two");
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("DELETE FROM items WHERE id = '1'");
+            stmt.executeUpdate("DELETE FROM items WHERE id = '2'");
+        }
+
+        // Tombstones at versions 3 and 4; a reader at version 3 still needs the second one
+        assertEquals(1, ChangeTracking.purgeTombstonesThrough(connection, 3));
+        assertEquals(3, ChangeTracking.purgedThrough(connection));
+        ChangeTracking.checkNotPurged(connection, 3);
+        ChangeTracking.checkNotPurged(connection, -1);
+        assertThrows(IllegalStateException.class, () -> ChangeTracking.checkNotPurged(connection, 2));
+
+        // The mark never moves back
+        assertEquals(0, ChangeTracking.purgeTombstonesThrough(connection, 1));
+        assertEquals(3, ChangeTracking.purgedThrough(connection));
+    }
+
+    private void write(String sql, String first, String second) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setString(1, first);
+            pstmt.setString(2, second);
+            assertEquals(1, pstmt.executeUpdate());
+        }
+    }
+
+    private long rowVersion(String id) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT " + ChangeTracking.VERSION_COLUMN + " FROM items WHERE id = ?")) {
+            pstmt.setString(1, id);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                assertTrue(rs.next());
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    private long totalChanges() throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT total_changes()")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+}
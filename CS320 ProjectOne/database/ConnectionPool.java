@@ -0,0 +1,412 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool of JDBC connections to a single database URL.
+ * Callers borrow a connection with {@link #borrow()} and give it back by closing it:
+ * the returned object is a wrapper whose close() returns the physical connection to the pool,
+ * so existing try-with-resources blocks keep working unchanged.
+ */
+public class ConnectionPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConnectionPool.class);
+
+    /**
+     * Opens new physical connections for the pool
+     */
+    @FunctionalInterface
+    public interface ConnectionFactory {
+        Connection create() throws SQLException;
+    }
+
+    // Shared housekeeping thread for all pools
+    private static final ScheduledExecutorService HOUSEKEEPER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "connection-pool-housekeeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String name;
+    private final PoolConfig config;
+    private final ConnectionFactory factory;
+
+    // Idle connections, most recently used first
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+
+    // One permit per connection that may be handed out
+    private final Semaphore permits;
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final StatementCache.Stats statementCacheStats = new StatementCache.Stats();
+    private final ScheduledFuture<?> housekeeping;
+    private volatile boolean closed = false;
+
+    /**
+     * Create a pool and open the configured minimum number of connections
+     *
+     * @param name A name used in log messages, usually the database URL
+     * @param config The pool configuration
+     * @param factory Opens new physical connections
+     */
+    public ConnectionPool(String name, PoolConfig config, ConnectionFactory factory) throws SQLException {
+        this.name = name;
+        this.config = new PoolConfig(config);
+        this.factory = factory;
+        this.permits = new Semaphore(this.config.getMaxSize(), true);
+
+        try {
+            fillToMinimum();
+        } catch (SQLException | RuntimeException e) {
+            // Do not leak the connections opened before the failure
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                destroy(pooled);
+            }
+            throw e;
+        }
+
+        long interval = this.config.getHousekeepingIntervalMillis();
+        this.housekeeping = HOUSEKEEPER.scheduleWithFixedDelay(this::housekeep, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrow a connection, waiting up to the configured timeout for one to become free
+     *
+     * @return A connection wrapper; closing it returns the connection to the pool
+     */
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed: " + name);
+        }
+
+        try {
+            if (!permits.tryAcquire(config.getBorrowTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out after " + config.getBorrowTimeoutMillis()
+                        + " ms waiting for a connection to " + name
+                        + " (" + borrowed.size() + " of " + config.getMaxSize() + " in use)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection to " + name, e);
+        }
+
+        try {
+            PooledConnection pooled = takeValidIdleConnection();
+            if (pooled == null) {
+                pooled = openConnection();
+            }
+
+            pooled.markBorrowed(config.getLeakDetectionThresholdMillis() > 0);
+            borrowed.add(pooled);
+            return pooled.newHandle();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the number of open physical connections
+     */
+    public int getTotalConnections() {
+        return totalConnections.get();
+    }
+
+    /**
+     * Get the number of idle connections
+     */
+    public int getIdleConnections() {
+        return idle.size();
+    }
+
+    /**
+     * Get the number of borrowed connections
+     */
+    public int getActiveConnections() {
+        return borrowed.size();
+    }
+
+    /**
+     * Get the prepared statement cache counters of all connections in this pool
+     */
+    public StatementCache.Stats getStatementCacheStats() {
+        return statementCacheStats;
+    }
+
+    /**
+     * Close the pool and every idle connection.
+     * Borrowed connections are closed when they are returned.
+     */
+    public void close() {
+        closed = true;
+        housekeeping.cancel(false);
+
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+    }
+
+    /**
+     * Take the most recently used idle connection that still passes validation
+     */
+    private PooledConnection takeValidIdleConnection() {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            if (isValid(pooled)) {
+                return pooled;
+            }
+            destroy(pooled);
+        }
+        return null;
+    }
+
+    private boolean isValid(PooledConnection pooled) {
+        try {
+            return !pooled.physical.isClosed() && pooled.physical.isValid(config.getValidationTimeoutSeconds());
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PooledConnection openConnection() throws SQLException {
+        Connection physical = factory.create();
+        totalConnections.incrementAndGet();
+        return new PooledConnection(physical);
+    }
+
+    /**
+     * Return a borrowed connection to the pool (called by the handle's close())
+     */
+    private void release(PooledConnection pooled) {
+        if (!borrowed.remove(pooled)) {
+            return;
+        }
+
+        try {
+            if (closed || pooled.physical.isClosed()) {
+                destroy(pooled);
+                return;
+            }
+
+            // Reset any state the borrower may have changed
+            if (!pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+
+            pooled.markReturned();
+            idle.offerFirst(pooled);
+        } catch (SQLException e) {
+            LOG.warn("Discarding connection to {} after reset failed: {}", name, e.getMessage());
+            destroy(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void destroy(PooledConnection pooled) {
+        totalConnections.decrementAndGet();
+        if (pooled.statementCache != null) {
+            pooled.statementCache.closeAll();
+        }
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            LOG.warn("Error closing pooled connection to {}: {}", name, e.getMessage());
+        }
+    }
+
+    private void fillToMinimum() throws SQLException {
+        while (!closed && totalConnections.get() < config.getMinSize()) {
+            idle.offerLast(openConnection());
+        }
+    }
+
+    /**
+     * Evict idle connections above the minimum, report leaks and top the pool back up
+     */
+    private void housekeep() {
+        // An exception escaping a scheduled task would cancel all later runs
+        try {
+            evictAndReportLeaks();
+        } catch (RuntimeException e) {
+            LOG.error("Error during housekeeping of connection pool {}", name, e);
+        }
+
+        try {
+            fillToMinimum();
+        } catch (SQLException | RuntimeException e) {
+            LOG.warn("Error refilling connection pool {}: {}", name, e.getMessage());
+        }
+    }
+
+    private void evictAndReportLeaks() {
+        long now = System.currentTimeMillis();
+
+        // Idle eviction, oldest first
+        Iterator<PooledConnection> idleIterator = idle.descendingIterator();
+        while (idleIterator.hasNext() && totalConnections.get() > config.getMinSize()) {
+            PooledConnection pooled = idleIterator.next();
+            if (now - pooled.lastUsedAt > config.getIdleTimeoutMillis() && idle.remove(pooled)) {
+                destroy(pooled);
+            }
+        }
+
+        // Leak detection
+        long leakThreshold = config.getLeakDetectionThresholdMillis();
+        if (leakThreshold > 0) {
+            for (PooledConnection pooled : borrowed) {
+                if (!pooled.leakReported && now - pooled.borrowedAt > leakThreshold) {
+                    pooled.leakReported = true;
+                    // The borrow stack, when recorded, is logged as the cause
+                    LOG.warn("Possible connection leak on {}: connection borrowed {} ms ago by thread {} has not been returned",
+                            name, now - pooled.borrowedAt, pooled.borrowerThread, pooled.borrowStack);
+                }
+            }
+        }
+    }
+
+    /**
+     * A physical connection together with its pool bookkeeping
+     */
+    private final class PooledConnection {
+        private final Connection physical;
+        private final StatementCache statementCache;
+        private volatile long lastUsedAt = System.currentTimeMillis();
+        private volatile long borrowedAt;
+        private volatile String borrowerThread;
+        private volatile Throwable borrowStack;
+        private volatile boolean leakReported;
+
+        private PooledConnection(Connection physical) {
+            this.physical = physical;
+            int cacheSize = config.getStatementCacheSize();
+            this.statementCache = cacheSize > 0 ? new StatementCache(physical, cacheSize, statementCacheStats) : null;
+        }
+
+        private void markBorrowed(boolean captureStack) {
+            borrowedAt = System.currentTimeMillis();
+            borrowerThread = Thread.currentThread().getName();
+            borrowStack = captureStack ? new Throwable("Connection borrowed here") : null;
+            leakReported = false;
+        }
+
+        private void markReturned() {
+            lastUsedAt = System.currentTimeMillis();
+            borrowStack = null;
+        }
+
+        private Connection newHandle() {
+            return new ConnectionHandle(this);
+        }
+    }
+
+    /**
+     * One borrow of a pooled connection.
+     * Each borrow gets its own handle so a stale reference cannot touch the next borrower's session.
+     */
+    private final class ConnectionHandle extends DelegatingConnection {
+        private final PooledConnection pooled;
+        private boolean handleClosed = false;
+
+        private ConnectionHandle(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        protected Connection delegate() throws SQLException {
+            if (handleClosed) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            return pooled.physical;
+        }
+
+        @Override
+        public void close() {
+            if (!handleClosed) {
+                handleClosed = true;
+                release(pooled);
+            }
+        }
+
+        @Override
+        public boolean isClosed() throws SQLException {
+            return handleClosed || pooled.physical.isClosed();
+        }
+
+        @Override
+        public String toString() {
+            return "PooledConnection[" + name + "]";
+        }
+
+        /**
+         * Plain prepareStatement(sql) goes through the statement cache
+         */
+        @Override
+        public PreparedStatement prepareStatement(String sql) throws SQLException {
+            Connection physical = delegate();
+            return timed(sql, pooled.statementCache != null ? pooled.statementCache.prepare(sql) : physical.prepareStatement(sql));
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+            return timed(sql, delegate().prepareStatement(sql, autoGeneratedKeys));
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+            return timed(sql, delegate().prepareStatement(sql, columnIndexes));
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+            return timed(sql, delegate().prepareStatement(sql, columnNames));
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency)
+                throws SQLException {
+            return timed(sql, delegate().prepareStatement(sql, resultSetType, resultSetConcurrency));
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency,
+                int resultSetHoldability) throws SQLException {
+            return timed(sql, delegate().prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability));
+        }
+
+        /**
+         * Let the slow query log time the statement. If it refuses the statement, the statement
+         * is closed so a cached one goes back to the cache instead of staying checked out.
+         */
+        private PreparedStatement timed(String sql, PreparedStatement statement) throws SQLException {
+            try {
+                return SlowQueryLog.getInstance().wrap(pooled.physical, sql, statement, config.isSlowQueryLogged());
+            } catch (RuntimeException e) {
+                try {
+                    statement.close();
+                } catch (SQLException closeFailure) {
+                    e.addSuppressed(closeFailure);
+                }
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConnectionPoolTest {
+
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    void resetSlowQueryLog() {
+        SlowQueryLog.getInstance().setFailOnFullScan(false);
+    }
+
+    private String url() {
+        return "jdbc:sqlite:" + tempDir.resolve("pool.db");
+    }
+
+    @Test
+    void testFailedFillClosesConnectionsAlreadyOpened() throws SQLException {
+        List<Connection> opened = new ArrayList<>();
+        ConnectionPool.ConnectionFactory failsOnThird = () -> {
+            if (opened.size() == 2) {
+                throw new SQLException("Cannot open");
+            }
+            Connection connection = DriverManager.getConnection(url());
+            opened.add(connection);
+            return connection;
+        };
+
+        assertThrows(SQLException.class,
+                () -> new ConnectionPool("test", new PoolConfig().setMinSize(3), failsOnThird));
+        assertEquals(2, opened.size());
+        for (Connection connection : opened) {
+            assertTrue(connection.isClosed());
+        }
+    }
+
+    @Test
+    void testRejectedStatementGoesBackToCache() throws SQLException {
+        ConnectionPool pool = new ConnectionPool("test", new PoolConfig(), () -> DriverManager.getConnection(url()));
+        String sql = "SELECT * FROM items";
+        try (Connection connection = pool.borrow()) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("CREATE TABLE items (id TEXT PRIMARY KEY, name TEXT)");
+            }
+
+            SlowQueryLog.getInstance().setFailOnFullScan(true);
+            SlowQueryLog.getInstance().registerHotQuery(sql);
+            assertThrows(IllegalStateException.class, () -> connection.prepareStatement(sql));
+            SlowQueryLog.getInstance().setFailOnFullScan(false);
+
+            // A statement left checked out would make this a miss
+            long hits = pool.getStatementCacheStats().getHits();
+            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+                assertFalse(pstmt.isClosed());
+            }
+            assertEquals(hits + 1, pool.getStatementCacheStats().getHits());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    void testReturnedHandleCannotBeUsed() throws SQLException {
+        ConnectionPool pool = new ConnectionPool("test", new PoolConfig(), () -> DriverManager.getConnection(url()));
+        try {
+            Connection connection = pool.borrow();
+            connection.close();
+            assertTrue(connection.isClosed());
+            assertThrows(SQLException.class, connection::createStatement);
+            assertEquals(1, pool.getIdleConnections());
+        } finally {
+            pool.close();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Single-writer / multi-reader connections to one SQLite database in WAL mode.
+ * SQLite only ever allows one writer, so all mutations share a pool of exactly one connection
+ * and queue on it instead of failing with SQLITE_BUSY against each other. Reads go to a
+ * separate pool of query-only connections that run alongside the writer.
+ */
+public class ConnectionTopology {
+
+    private final String dbUrl;
+    private final ConnectionPool writerPool;
+    private final ConnectionPool readerPool;
+
+    /**
+     * Create the writer and reader pools for a database
+     *
+     * @param dbUrl The database URL
+     * @param readerConfig Pool settings for the readers; the writer uses the same timeouts with exactly one connection
+     * @param factory Opens new, already tuned, physical connections
+     */
+    public ConnectionTopology(String dbUrl, PoolConfig readerConfig, ConnectionPool.ConnectionFactory factory) throws SQLException {
+        this.dbUrl = dbUrl;
+
+        // The writer pool is created first so it switches the database to WAL before any reader opens
+        PoolConfig writerConfig = new PoolConfig(readerConfig).setMinSize(1).setMaxSize(1);
+        this.writerPool = new ConnectionPool(dbUrl + " [writer]", writerConfig, factory);
+
+        try {
+            this.readerPool = new ConnectionPool(dbUrl + " [reader]", readerConfig, () -> openReader(factory));
+        } catch (SQLException e) {
+            writerPool.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Default reader pool size: one connection per core
+     */
+    public static int defaultReaderCount() {
+        return Math.max(2, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Borrow the writer connection, waiting for the current writer to finish
+     */
+    public Connection borrowWriter() throws SQLException {
+        return writerPool.borrow();
+    }
+
+    /**
+     * Borrow a read-only connection
+     */
+    public Connection borrowReader() throws SQLException {
+        return readerPool.borrow();
+    }
+
+    public String getDbUrl() {
+        return dbUrl;
+    }
+
+    public ConnectionPool getWriterPool() {
+        return writerPool;
+    }
+
+    public ConnectionPool getReaderPool() {
+        return readerPool;
+    }
+
+    /**
+     * Close both pools
+     */
+    public void close() {
+        readerPool.close();
+        writerPool.close();
+    }
+
+    /**
+     * Open a reader connection that rejects any statement that would modify the database
+     */
+    private static Connection openReader(ConnectionPool.ConnectionFactory factory) throws SQLException {
+        Connection connection = factory.create();
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA query_only = ON");
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+}
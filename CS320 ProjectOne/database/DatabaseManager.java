@@ -7,13 +7,33 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import database.jfr.ConnectionAcquireEvent;
 
 /**
  * Global database manager for the application.
  * This class manages database connections and provides utility methods for database operations.
  */
 public class DatabaseManager {
+    
+    /**
+     * Work run inside a transaction by {@link #inTransaction(TransactionWork)}
+     */
+    @FunctionalInterface
+    public interface TransactionWork<R> {
+        R execute(UnitOfWork unitOfWork) throws SQLException;
+    }
+    
+    /**
+     * Work without a result run inside a transaction by {@link #runInTransaction(TransactionAction)}
+     */
+    @FunctionalInterface
+    public interface TransactionAction {
+        void execute(UnitOfWork unitOfWork) throws SQLException;
+    }
+    
     // Singleton instance
     private static DatabaseManager instance;
     
@@ -21,11 +41,32 @@ public class DatabaseManager {
     private static final String DEFAULT_DB_URL = "jdbc:sqlite:service_database.db";
     private static final String TEST_DB_URL_PREFIX = "jdbc:sqlite:";
     
-    // Connection pool
-    private Map<String, Connection> connections = new HashMap<>();
+    // Writer and reader pools, one topology per database URL
+    private final Map<String, ConnectionTopology> topologies = new ConcurrentHashMap<>();
+    
+    // Watchers of commits by other processes, one per database URL
+    private final Map<String, ChangeMonitor> changeMonitors = new ConcurrentHashMap<>();
+    
+    // Reader pool settings, per database URL or the default
+    private final Map<String, PoolConfig> poolConfigs = new ConcurrentHashMap<>();
+    private volatile PoolConfig defaultPoolConfig = new PoolConfig().setMaxSize(ConnectionTopology.defaultReaderCount());
+    
+    // SQLite tuning profiles, per database URL or the default
+    private final Map<String, SqliteProfile> profiles = new ConcurrentHashMap<>();
+    private volatile SqliteProfile defaultProfile = SqliteProfile.BALANCED;
     
     // Current database URL
-    private String currentDbUrl;
+    private volatile String currentDbUrl;
+    
+    // A database URL bound to the current thread by inTransaction(dbUrl, work), used instead of the current one
+    private final ThreadLocal<String> threadDbUrl = new ThreadLocal<>();
+    
+    // Whether initialize() logs the effective PRAGMA values, once per database URL
+    private volatile boolean logPragmaReport = Boolean.getBoolean("database.logPragmaReport");
+    private final Set<String> reportedUrls = ConcurrentHashMap.newKeySet();
+    
+    // Units of work bound to the current thread, keyed by database URL
+    private final ThreadLocal<Map<String, UnitOfWork>> currentUnitsOfWork = new ThreadLocal<>();
     
     // Private constructor for singleton pattern
     private DatabaseManager() {
@@ -48,7 +89,29 @@ public class DatabaseManager {
      */
     public void initialize(String dbUrl) throws SQLException {
         this.currentDbUrl = dbUrl;
-        getConnection();
+        getTopology(dbUrl);
+        if (logPragmaReport && reportedUrls.add(dbUrl)) {
+            System.err.println(formatPragmaReport(dbUrl));
+        }
+    }
+    
+    /**
+     * Log the effective PRAGMA values the first time each database is initialized
+     * (also enabled by {@code -Ddatabase.logPragmaReport=true})
+     */
+    public DatabaseManager setLogPragmaReport(boolean logPragmaReport) {
+        this.logPragmaReport = logPragmaReport;
+        return this;
+    }
+    
+    /**
+     * Initialize the database with a custom URL and tuning profile
+     * @param dbUrl The database URL to use
+     * @param profile The SQLite profile applied to every connection for this URL
+     */
+    public void initialize(String dbUrl, SqliteProfile profile) throws SQLException {
+        setProfile(dbUrl, profile);
+        initialize(dbUrl);
     }
     
     /**
@@ -58,6 +121,78 @@ public class DatabaseManager {
         initialize(DEFAULT_DB_URL);
     }
     
+    /**
+     * Set the reader pool settings used for database URLs without their own settings.
+     * The writer pool always holds exactly one connection.
+     * Only affects pools created after this call.
+     */
+    public void setDefaultPoolConfig(PoolConfig config) {
+        this.defaultPoolConfig = new PoolConfig(config);
+    }
+    
+    /**
+     * Set the reader pool settings for a specific database URL.
+     * Only affects pools created after this call.
+     */
+    public void setPoolConfig(String dbUrl, PoolConfig config) {
+        poolConfigs.put(dbUrl, new PoolConfig(config));
+    }
+    
+    /**
+     * Set the SQLite profile used for database URLs without their own profile.
+     * Only affects connections opened after this call.
+     */
+    public void setDefaultProfile(SqliteProfile profile) {
+        this.defaultProfile = profile;
+    }
+    
+    /**
+     * Set the SQLite profile for a specific database URL.
+     * Only affects connections opened after this call.
+     */
+    public void setProfile(String dbUrl, SqliteProfile profile) {
+        profiles.put(dbUrl, profile);
+    }
+    
+    /**
+     * Get the SQLite profile applied to connections for a database URL
+     */
+    public SqliteProfile getProfile(String dbUrl) {
+        return profiles.getOrDefault(dbUrl, defaultProfile);
+    }
+    
+    /**
+     * Read the effective PRAGMA values of a connection to the given database
+     * @return The pragma names mapped to their current values
+     */
+    public Map<String, String> getPragmaReport(String dbUrl) throws SQLException {
+        try (Connection conn = getTopology(dbUrl).borrowWriter()) {
+            return SqliteProfile.readEffectiveSettings(conn);
+        }
+    }
+    
+    /**
+     * Format the effective PRAGMA values of a database as a single log line
+     */
+    public String formatPragmaReport(String dbUrl) throws SQLException {
+        StringBuilder report = new StringBuilder("SQLite settings for ")
+                .append(dbUrl).append(" (profile ").append(getProfile(dbUrl)).append("):");
+        for (Map.Entry<String, String> setting : getPragmaReport(dbUrl).entrySet()) {
+            report.append(' ').append(setting.getKey()).append('=').append(setting.getValue());
+        }
+        return report.toString();
+    }
+    
+    /**
+     * Get the prepared statement cache counters for a database, writer and readers combined
+     */
+    public StatementCache.Stats getStatementCacheStats(String dbUrl) throws SQLException {
+        ConnectionTopology topology = getTopology(dbUrl);
+        return new StatementCache.Stats()
+                .add(topology.getWriterPool().getStatementCacheStats())
+                .add(topology.getReaderPool().getStatementCacheStats());
+    }
+    
     /**
      * Create a test database with a unique name
      * @param testName A unique name for the test database
@@ -65,7 +200,7 @@ public class DatabaseManager {
      */
     public String createTestDatabase(String testName) throws SQLException {
         String testDbUrl = TEST_DB_URL_PREFIX + "test_" + testName + ".db";
-        initialize(testDbUrl);
+        initialize(testDbUrl, SqliteProfile.TEST);
         return testDbUrl;
     }
     
@@ -74,64 +209,263 @@ public class DatabaseManager {
      * @param sql The SQL statement to execute
      */
     public void executeUpdate(String sql) throws SQLException {
-        try (Statement stmt = getConnection().createStatement()) {
+        try (Connection conn = getConnection();
+             Statement stmt = conn.createStatement()) {
             stmt.execute(sql);
         }
     }
     
     /**
-     * Get a connection to the database
-     * @return A database connection
+     * Borrow the writer connection to the current database.
+     * There is only one writer per database, so callers must not request a second
+     * connection from this method while holding one.
+     * Closing the returned connection gives it back to the pool.
+     * @return A database connection that may be used for reads and writes
      */
-    public synchronized Connection getConnection() throws SQLException {
-        Connection connection = connections.get(currentDbUrl);
+    public Connection getConnection() throws SQLException {
+        ConnectionAcquireEvent event = new ConnectionAcquireEvent();
+        event.begin();
         
-        if (connection == null || connection.isClosed()) {
-            // Create a new connection
-            connection = DriverManager.getConnection(currentDbUrl);
-            connection.setAutoCommit(true);
-            connections.put(currentDbUrl, connection);
+        UnitOfWork unitOfWork = getCurrentUnitOfWork();
+        Connection connection = unitOfWork != null ? unitOfWork.getConnection() : getTopology(getCurrentDbUrl()).borrowWriter();
+        
+        commitAcquireEvent(event, "writer", unitOfWork != null);
+        return connection;
+    }
+    
+    /**
+     * Borrow a read-only connection to the current database.
+     * Readers run alongside the writer and do not see its uncommitted changes.
+     * Closing the returned connection gives it back to the pool.
+     * @return A query-only database connection
+     */
+    public Connection getReadConnection() throws SQLException {
+        ConnectionAcquireEvent event = new ConnectionAcquireEvent();
+        event.begin();
+        
+        // Inside a transaction, read through it so the caller sees its own writes
+        UnitOfWork unitOfWork = getCurrentUnitOfWork();
+        Connection connection = unitOfWork != null ? unitOfWork.getConnection() : getTopology(getCurrentDbUrl()).borrowReader();
+        
+        commitAcquireEvent(event, "reader", unitOfWork != null);
+        return connection;
+    }
+    
+    private void commitAcquireEvent(ConnectionAcquireEvent event, String role, boolean inTransaction) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.url = getCurrentDbUrl();
+            event.role = role;
+            event.inTransaction = inTransaction;
+            event.commit();
+        }
+    }
+    
+    /**
+     * Run work in a transaction on the current database.
+     * The writer connection is bound to the current thread for the duration of the work, so
+     * repository calls made inside it join the transaction automatically. The transaction is
+     * committed when the work returns and rolled back when it throws. Calling this again inside
+     * the work opens a nested scope backed by a savepoint, which is rolled back on its own if the
+     * nested work throws.
+     * @param work The work to run
+     * @return The value returned by the work
+     */
+    public <R> R inTransaction(TransactionWork<R> work) throws SQLException {
+        UnitOfWork unitOfWork = getCurrentUnitOfWork();
+        if (unitOfWork != null) {
+            return unitOfWork.runNested(work);
         }
         
+        String dbUrl = getCurrentDbUrl();
+        try (Connection conn = getTopology(dbUrl).borrowWriter()) {
+            unitOfWork = new UnitOfWork(dbUrl, conn);
+            Map<String, UnitOfWork> units = currentUnitsOfWork.get();
+            if (units == null) {
+                units = new HashMap<>();
+                currentUnitsOfWork.set(units);
+            }
+            units.put(dbUrl, unitOfWork);
+            try {
+                return unitOfWork.runOutermost(work);
+            } finally {
+                // Only this database's unit ends; one opened earlier for another URL stays active
+                units.remove(dbUrl);
+                if (units.isEmpty()) {
+                    currentUnitsOfWork.remove();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Run work without a result in a transaction on the current database
+     * @see #inTransaction(TransactionWork)
+     */
+    public void runInTransaction(TransactionAction action) throws SQLException {
+        inTransaction(unitOfWork -> {
+            action.execute(unitOfWork);
+            return null;
+        });
+    }
+    
+    /**
+     * Run work in a transaction on a given database, whatever the current one is.
+     * Repository calls made inside the work, on this thread, use that database.
+     * @see #inTransaction(TransactionWork)
+     */
+    public <R> R inTransaction(String dbUrl, TransactionWork<R> work) throws SQLException {
+        String previous = threadDbUrl.get();
+        threadDbUrl.set(dbUrl);
+        try {
+            return inTransaction(work);
+        } finally {
+            if (previous != null) {
+                threadDbUrl.set(previous);
+            } else {
+                threadDbUrl.remove();
+            }
+        }
+    }
+    
+    /**
+     * Run work without a result in a transaction on a given database
+     * @see #inTransaction(String, TransactionWork)
+     */
+    public void runInTransaction(String dbUrl, TransactionAction action) throws SQLException {
+        inTransaction(dbUrl, unitOfWork -> {
+            action.execute(unitOfWork);
+            return null;
+        });
+    }
+    
+    /**
+     * Get the unit of work bound to the current thread for the current database
+     * @return The active unit of work, or null outside a transaction
+     */
+    public UnitOfWork getCurrentUnitOfWork() {
+        Map<String, UnitOfWork> units = currentUnitsOfWork.get();
+        return units != null ? units.get(getCurrentDbUrl()) : null;
+    }
+    
+    /**
+     * Get the writer and reader pools for a database URL, creating them on first use
+     */
+    public ConnectionTopology getTopology(String dbUrl) throws SQLException {
+        ConnectionTopology topology = topologies.get(dbUrl);
+        if (topology != null) {
+            return topology;
+        }
+        
+        synchronized (topologies) {
+            topology = topologies.get(dbUrl);
+            if (topology == null) {
+                PoolConfig config = poolConfigs.getOrDefault(dbUrl, defaultPoolConfig);
+                if (getProfile(dbUrl) == SqliteProfile.TEST) {
+                    // Test suites see slow queries without the log timing production statements
+                    config = new PoolConfig(config).setSlowQueryLogged(true);
+                }
+                topology = new ConnectionTopology(dbUrl, config, () -> openConnection(dbUrl));
+                topologies.put(dbUrl, topology);
+            }
+            return topology;
+        }
+    }
+    
+    /**
+     * Get the URL of the database that connections are currently opened for.
+     * Inside {@link #inTransaction(String, TransactionWork)} this is the URL given there.
+     */
+    public String getCurrentDbUrl() {
+        String bound = threadDbUrl.get();
+        return bound != null ? bound : currentDbUrl;
+    }
+    
+    /**
+     * Get the monitor of commits made to the current database by other connections and processes
+     */
+    public ChangeMonitor getChangeMonitor() {
+        return getChangeMonitor(getCurrentDbUrl());
+    }
+    
+    /**
+     * Get the monitor of commits made to a database by other connections and processes.
+     * It opens its own connection when the first subscriber arrives.
+     */
+    public ChangeMonitor getChangeMonitor(String dbUrl) {
+        return changeMonitors.computeIfAbsent(dbUrl, url -> new ChangeMonitor(url, () -> openConnection(url)));
+    }
+    
+    /**
+     * Open a new physical connection for a pool and apply the URL's SQLite profile
+     */
+    private Connection openConnection(String dbUrl) throws SQLException {
+        Connection connection = DriverManager.getConnection(dbUrl);
+        try {
+            getProfile(dbUrl).apply(connection);
+            connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
         return connection;
     }
     
     /**
      * Close all connections
      */
-    public synchronized void closeAllConnections() throws SQLException {
-        for (Connection connection : connections.values()) {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
+    public void closeAllConnections() throws SQLException {
+        synchronized (topologies) {
+            for (ConnectionTopology topology : topologies.values()) {
+                topology.close();
+            }
+            topologies.clear();
+            for (ChangeMonitor monitor : changeMonitors.values()) {
+                monitor.close();
             }
+            changeMonitors.clear();
         }
-        connections.clear();
     }
     
     /**
-     * Close a specific connection
+     * Close the connection pools of a specific database
      */
-    public synchronized void closeConnection(String dbUrl) throws SQLException {
-        Connection connection = connections.get(dbUrl);
-        if (connection != null && !connection.isClosed()) {
-            connection.close();
-            connections.remove(dbUrl);
+    public void closeConnection(String dbUrl) throws SQLException {
+        // Concurrent maps reject null keys; there is nothing open for a null URL
+        if (dbUrl == null) {
+            return;
+        }
+        synchronized (topologies) {
+            ConnectionTopology topology = topologies.remove(dbUrl);
+            if (topology != null) {
+                topology.close();
+            }
+            ChangeMonitor monitor = changeMonitors.remove(dbUrl);
+            if (monitor != null) {
+                monitor.close();
+            }
         }
     }
     
     /**
-     * Delete a test database
+     * Delete a test database together with its WAL and shared-memory files,
+     * so a database recreated under the same name cannot replay a stale WAL
      */
     public void deleteTestDatabase(String testDbUrl) {
+        // Called from teardown even when setup failed before the database was created
+        if (testDbUrl == null) {
+            return;
+        }
         try {
             closeConnection(testDbUrl);
             
             // Extract file path from JDBC URL
             String filePath = testDbUrl.replace(TEST_DB_URL_PREFIX, "");
-            File dbFile = new File(filePath);
-            
-            if (dbFile.exists()) {
-                dbFile.delete();
+            for (String suffix : new String[] { "", "-wal", "-shm", "-journal" }) {
+                File file = new File(filePath + suffix);
+                if (file.exists()) {
+                    file.delete();
+                }
             }
         } catch (SQLException e) {
             // Log error but don't throw
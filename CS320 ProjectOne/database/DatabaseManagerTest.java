@@ -0,0 +1,166 @@
+package database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DatabaseManagerTest {
+
+    private final DatabaseManager dbManager = DatabaseManager.getInstance();
+    private String testDbUrl;
+
+    @BeforeEach
+    void createDatabase() throws SQLException {
+        testDbUrl = dbManager.createTestDatabase("database_manager");
+        dbManager.executeUpdate("CREATE TABLE IF NOT EXISTS items (id TEXT PRIMARY KEY, name TEXT)");
+    }
+
+    @AfterEach
+    void deleteDatabase() {
+        dbManager.deleteTestDatabase(testDbUrl);
+    }
+
+    @Test
+    void testDeleteTestDatabaseRemovesWalFiles() throws SQLException {
+        // Keep a read transaction open so the WAL is not checkpointed away before the delete
+        Connection reader = dbManager.getReadConnection();
+        try {
+            reader.setAutoCommit(false);
+            try (Statement stmt = reader.createStatement()) {
+                stmt.executeQuery("SELECT COUNT(*) FROM items").close();
+            }
+            dbManager.executeUpdate("INSERT INTO items (id, name) VALUES ('1', 'one')");
+        } finally {
+            reader.close();
+        }
+        String path = testDbUrl.substring("jdbc:sqlite:".length());
+
+        dbManager.deleteTestDatabase(testDbUrl);
+
+        assertFalse(new File(path).exists());
+        assertFalse(new File(path + "-wal").exists());
+        assertFalse(new File(path + "-shm").exists());
+    }
+
+    @Test
+    void testClosingNullUrlIsIgnored() throws SQLException {
+        // A teardown after a failed setup passes the URL it never got
+        dbManager.closeConnection(null);
+        dbManager.deleteTestDatabase(null);
+    }
+
+    @Test
+    void testReaderConnectionsRejectWrites() throws SQLException {
+        try (Connection reader = dbManager.getReadConnection();
+             Statement stmt = reader.createStatement()) {
+            assertThrows(SQLException.class,
+                    () -> stmt.executeUpdate("INSERT INTO items (id, name) VALUES ('r', 'reader')"));
+        }
+
+        try (Connection writer = dbManager.getConnection();
+             Statement stmt = writer.createStatement()) {
+            assertEquals(1, stmt.executeUpdate("INSERT INTO items (id, name) VALUES ('w', 'writer')"));
+        }
+    }
+
+    @Test
+    void testTransactionCommitsWhenWorkReturns() throws SQLException {
+        dbManager.runInTransaction(unitOfWork -> {
+            insert("1");
+            insert("2");
+        });
+
+        assertEquals(2, countItems());
+    }
+
+    @Test
+    void testTransactionRollsBackWhenWorkThrows() throws SQLException {
+        assertThrows(IllegalStateException.class, () -> dbManager.runInTransaction(unitOfWork -> {
+            insert("1");
+            throw new IllegalStateException("Work failed");
+        }));
+
+        assertEquals(0, countItems());
+        assertNull(dbManager.getCurrentUnitOfWork());
+    }
+
+    @Test
+    void testSetRollbackOnlyDiscardsTransaction() throws SQLException {
+        dbManager.runInTransaction(unitOfWork -> {
+            insert("1");
+            unitOfWork.setRollbackOnly();
+        });
+
+        assertEquals(0, countItems());
+    }
+
+    @Test
+    void testFailedNestedScopeRollsBackToItsSavepoint() throws SQLException {
+        dbManager.runInTransaction(outer -> {
+            insert("1");
+            assertThrows(SQLException.class, () -> dbManager.runInTransaction(nested -> {
+                assertEquals(2, nested.getDepth());
+                insert("2");
+                insert("1");
+            }));
+            assertEquals(1, outer.getDepth());
+            insert("3");
+        });
+
+        assertEquals(2, countItems());
+    }
+
+    @Test
+    void testTransactionOnAnotherDatabaseLeavesOuterUnitActive() throws SQLException {
+        String otherDbUrl = dbManager.createTestDatabase("database_manager_other");
+        dbManager.initialize(testDbUrl);
+        try {
+            dbManager.runInTransaction(outer -> {
+                insert("1");
+
+                dbManager.initialize(otherDbUrl);
+                try {
+                    dbManager.executeUpdate("CREATE TABLE IF NOT EXISTS items (id TEXT PRIMARY KEY, name TEXT)");
+                    dbManager.runInTransaction(inner -> insert("other"));
+                } finally {
+                    dbManager.initialize(testDbUrl);
+                }
+
+                assertSame(outer, dbManager.getCurrentUnitOfWork());
+                insert("2");
+            });
+            assertEquals(2, countItems());
+
+            dbManager.initialize(otherDbUrl);
+            assertEquals(1, countItems());
+        } finally {
+            dbManager.initialize(testDbUrl);
+            dbManager.deleteTestDatabase(otherDbUrl);
+        }
+    }
+
+    private void insert(String id) throws SQLException {
+        try (Connection conn = dbManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement("INSERT INTO items (id, name) VALUES (?, ?)")) {
+            pstmt.setString(1, id);
+            pstmt.setString(2, "item " + id);
+            pstmt.executeUpdate();
+        }
+    }
+
+    private int countItems() throws SQLException {
+        try (Connection conn = dbManager.getReadConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM items")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+}
@@ -1,10 +1,10 @@
 package database;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * Interface for database operations.
@@ -42,11 +42,101 @@ public interface DatabaseRepository<T> {
      */
     List<T> findAll() throws SQLException;
     
+    /**
+     * Get the next page of entities in ID order using keyset pagination.
+     * Pass the ID of the last entity of the previous page (or null for the first page);
+     * each page costs the same no matter how deep into the table it is.
+     * 
+     * @param afterId Only entities with an ID greater than this are returned, or null to start at the beginning
+     * @param limit The maximum number of entities to return
+     */
+    List<T> findPage(String afterId, int limit) throws SQLException;
+    
+    /**
+     * Stream all entities lazily from an open database cursor.
+     * The stream holds a connection until it is closed, so use it in try-with-resources.
+     */
+    Stream<T> streamAll() throws SQLException;
+    
+    /**
+     * Pass every entity to an action, reading rows from a cursor instead of loading them all
+     */
+    void forEach(Consumer<T> action) throws SQLException;
+    
+    /**
+     * Pass the ID of every entity to an action without reading the other columns
+     */
+    void forEachId(Consumer<String> action) throws SQLException;
+    
+    /**
+     * Get the smallest and largest rowid in the table, or null if the table is empty
+     */
+    long[] getRowIdBounds() throws SQLException;
+    
+    /**
+     * Pass every entity with a rowid from fromRowId (inclusive) to toRowId (exclusive) to an action.
+     * Disjoint ranges can be read in parallel on separate connections.
+     */
+    void forEachInRowIdRange(long fromRowId, long toRowId, Consumer<T> action) throws SQLException;
+    
+    /**
+     * Pass every entity inserted or updated and every ID deleted after a change version to the
+     * given actions, from one consistent snapshot. Pass -1 to receive every entity.
+     * See {@link ChangeTracking} for how versions are assigned.
+     * 
+     * @param sinceVersion The version returned by the previous call, or -1 for everything
+     * @param changed Receives each inserted or updated entity
+     * @param deleted Receives the ID of each deleted entity
+     * @return The version the results are complete up to, to pass to the next call
+     * @throws IllegalStateException if deletions after sinceVersion have been purged; the caller
+     *         has to read everything again
+     */
+    long forEachChangeSince(long sinceVersion, Consumer<T> changed, Consumer<String> deleted) throws SQLException;
+    
     /**
      * Check if an entity with the given ID exists
      */
     boolean exists(String id) throws SQLException;
     
+    /**
+     * Save several entities (insert new ones, update existing ones) in one transaction
+     */
+    void saveAll(Collection<T> entities) throws SQLException;
+    
+    /**
+     * Update several existing entities in one transaction
+     */
+    void updateAll(Collection<T> entities) throws SQLException;
+    
+    /**
+     * Delete several entities by ID in one transaction
+     */
+    void deleteAll(Collection<String> ids) throws SQLException;
+    
+    /**
+     * Find the entities with the given IDs; IDs that do not exist are skipped and each entity
+     * is returned once, however often its ID is given
+     */
+    List<T> findAllById(Collection<String> ids) throws SQLException;
+    
+    /**
+     * Get the names of the indexes that currently exist on the repository's table
+     */
+    List<String> listIndexes() throws SQLException;
+    
+    /**
+     * Get this repository as a more specific type, looking through any decorators.
+     * Use this instead of a cast to reach repository-specific queries.
+     * 
+     * @throws IllegalArgumentException if neither this repository nor one it wraps is of that type
+     */
+    default <R> R unwrap(Class<R> type) {
+        if (type.isInstance(this)) {
+            return type.cast(this);
+        }
+        throw new IllegalArgumentException(getClass().getSimpleName() + " is not a " + type.getSimpleName());
+    }
+    
     /**
      * Close the repository's resources
      */
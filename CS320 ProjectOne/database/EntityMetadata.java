@@ -0,0 +1,93 @@
+package database;
+
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import database.cache.EntityCodec;
+
+/**
+ * Everything the framework needs to know about one entity type: its table, how to read its ID,
+ * how to create its repository and how to write it to a cache snapshot file. Generated as {@code <Entity>Metadata} for every
+ * {@link database.mapping.MappedEntity} type and registered in {@link EntityRegistry}.
+ *
+ * @param <T> The entity type described
+ */
+public class EntityMetadata<T> {
+
+    private final Class<T> entityClass;
+    private final String tableName;
+    private final String idColumnName;
+    private final Function<T, String> idExtractor;
+    private final Supplier<? extends DatabaseRepository<T>> repositorySupplier;
+    private final EntityCodec<T> codec;
+
+    /**
+     * Create entity metadata
+     *
+     * @param entityClass The entity class
+     * @param tableName The table the entity is stored in
+     * @param idColumnName The ID column of that table
+     * @param idExtractor Reads the ID from an entity, typically a getter reference
+     * @param repositorySupplier Creates a new repository for the entity
+     */
+    public EntityMetadata(Class<T> entityClass, String tableName, String idColumnName,
+                          Function<T, String> idExtractor,
+                          Supplier<? extends DatabaseRepository<T>> repositorySupplier) {
+        this(entityClass, tableName, idColumnName, idExtractor, repositorySupplier, null);
+    }
+
+    /**
+     * Create entity metadata with a snapshot codec
+     *
+     * @param codec Writes and reads the entity in cache snapshot files, or null if it has none
+     */
+    public EntityMetadata(Class<T> entityClass, String tableName, String idColumnName,
+                          Function<T, String> idExtractor,
+                          Supplier<? extends DatabaseRepository<T>> repositorySupplier,
+                          EntityCodec<T> codec) {
+        this.entityClass = entityClass;
+        this.tableName = tableName;
+        this.idColumnName = idColumnName;
+        this.idExtractor = idExtractor;
+        this.repositorySupplier = repositorySupplier;
+        this.codec = codec;
+    }
+
+    /**
+     * Get the ID of an entity
+     */
+    public String getId(T entity) {
+        return idExtractor.apply(entity);
+    }
+
+    /**
+     * Create a new, uninitialized repository for this entity type
+     */
+    public DatabaseRepository<T> createRepository() {
+        return repositorySupplier.get();
+    }
+
+    // Getters
+    public Class<T> getEntityClass() {
+        return entityClass;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public String getIdColumnName() {
+        return idColumnName;
+    }
+
+    public Function<T, String> getIdExtractor() {
+        return idExtractor;
+    }
+
+    /**
+     * Get the codec used for cache snapshot files, or null if the entity has none
+     */
+    public EntityCodec<T> getCodec() {
+        return codec;
+    }
+}
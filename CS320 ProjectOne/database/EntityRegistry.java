@@ -0,0 +1,61 @@
+package database;
+
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of {@link EntityMetadata} by entity class.
+ * Every {@link database.mapping.MappedEntity} type is registered from the {@code <Entity>Metadata}
+ * class generated for it, found through {@link ServiceLoader}; other types can be added with
+ * {@link #register(EntityMetadata)} before their first ServiceHelper or repository is created.
+ */
+public final class EntityRegistry {
+
+    private static final Map<Class<?>, EntityMetadata<?>> METADATA = new ConcurrentHashMap<>();
+
+    static {
+        for (EntityMetadata<?> metadata : ServiceLoader.load(EntityMetadata.class, EntityRegistry.class.getClassLoader())) {
+            register(metadata);
+        }
+    }
+
+    private EntityRegistry() {
+    }
+
+    /**
+     * Register the metadata of an entity type, replacing any earlier registration
+     */
+    public static <T> void register(EntityMetadata<T> metadata) {
+        METADATA.put(metadata.getEntityClass(), metadata);
+    }
+
+    /**
+     * Get the metadata of an entity type.
+     * A subclass of a registered type (for example AppointmentWithDb) uses its parent's metadata.
+     *
+     * @throws IllegalArgumentException if neither the class nor a superclass is registered
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> EntityMetadata<T> get(Class<T> entityClass) {
+        for (Class<?> type = entityClass; type != null; type = type.getSuperclass()) {
+            EntityMetadata<?> metadata = METADATA.get(type);
+            if (metadata != null) {
+                return (EntityMetadata<T>) metadata;
+            }
+        }
+        throw new IllegalArgumentException("No repository available for entity class: " + entityClass.getSimpleName());
+    }
+
+    /**
+     * Check whether an entity type (or a superclass of it) is registered
+     */
+    public static boolean isRegistered(Class<?> entityClass) {
+        for (Class<?> type = entityClass; type != null; type = type.getSuperclass()) {
+            if (METADATA.containsKey(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,38 @@
+package database;
+
+import appointment.Appointment;
+import appointment.AppointmentWithDb;
+import contact.Contact;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EntityRegistryTest {
+
+    @Test
+    void testBuiltInEntityMetadata() {
+        EntityMetadata<Contact> metadata = EntityRegistry.get(Contact.class);
+
+        assertEquals("contacts", metadata.getTableName());
+        assertEquals("contact_id", metadata.getIdColumnName());
+        assertEquals("C1", metadata.getId(new Contact("C1", "First", "Last", "0123456789", "Address")));
+    }
+
+    @Test
+    void testSubclassUsesParentMetadata() {
+        EntityMetadata<AppointmentWithDb> metadata = EntityRegistry.get(AppointmentWithDb.class);
+        Date tomorrow = new Date(System.currentTimeMillis() + 86_400_000L);
+
+        assertSame(EntityRegistry.get(Appointment.class), metadata);
+        assertEquals("A1", metadata.getId(new AppointmentWithDb("A1", tomorrow, "Checkup")));
+        assertTrue(EntityRegistry.isRegistered(AppointmentWithDb.class));
+    }
+
+    @Test
+    void testUnregisteredTypeIsRejected() {
+        assertFalse(EntityRegistry.isRegistered(String.class));
+        assertThrows(IllegalArgumentException.class, () -> EntityRegistry.get(String.class));
+    }
+}
@@ -0,0 +1,68 @@
+package database;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A secondary index declared by a repository.
+ * {@link BaseRepository#initialize()} creates any declared index that does not exist yet.
+ */
+public class IndexDefinition {
+
+    private final String name;
+    private final List<String> columns;
+    private final boolean unique;
+
+    /**
+     * Create an index definition
+     *
+     * @param name The index name, unique within the database
+     * @param unique Whether the indexed columns must be unique
+     * @param columns The indexed columns, in order
+     */
+    public IndexDefinition(String name, boolean unique, String... columns) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Invalid index name");
+        }
+        if (columns.length == 0) {
+            throw new IllegalArgumentException("An index needs at least one column");
+        }
+        this.name = name;
+        this.unique = unique;
+        this.columns = Collections.unmodifiableList(Arrays.asList(columns.clone()));
+    }
+
+    /**
+     * Create a non-unique index definition
+     */
+    public static IndexDefinition on(String name, String... columns) {
+        return new IndexDefinition(name, false, columns);
+    }
+
+    /**
+     * Get the idempotent CREATE INDEX statement for this index on a table
+     */
+    public String toCreateSql(String tableName) {
+        return "CREATE " + (unique ? "UNIQUE " : "") + "INDEX IF NOT EXISTS " + name
+                + " ON " + tableName + " (" + String.join(", ", columns) + ")";
+    }
+
+    // Getters
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    public boolean isUnique() {
+        return unique;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + String.join(", ", columns) + ")" + (unique ? " UNIQUE" : "");
+    }
+}
@@ -0,0 +1,301 @@
+package database;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import database.RepositoryMetrics.Operation;
+import database.jfr.RepositoryOperationEvent;
+
+/**
+ * A repository decorator that records call counts, error counts, rows and latency
+ * of every operation into a {@link RepositoryMetrics}, then delegates to the real repository.
+ * {@link RepositoryFactory} wraps every repository it creates in one of these.
+ *
+ * @param <T> The entity type of the wrapped repository
+ */
+public class InstrumentedRepository<T> implements DatabaseRepository<T> {
+
+    /**
+     * A repository call that may throw SQLException
+     */
+    @FunctionalInterface
+    private interface Call<R> {
+        R run() throws SQLException;
+    }
+
+    /**
+     * A repository call without a result
+     */
+    @FunctionalInterface
+    private interface VoidCall {
+        void run() throws SQLException;
+    }
+
+    private final DatabaseRepository<T> delegate;
+    private final RepositoryMetrics metrics;
+
+    /**
+     * Wrap a repository
+     *
+     * @param delegate The repository that does the work
+     * @param metrics Where the measurements are recorded
+     */
+    public InstrumentedRepository(DatabaseRepository<T> delegate, RepositoryMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Get the metrics this repository records into
+     */
+    public RepositoryMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public <R> R unwrap(Class<R> type) {
+        if (type.isInstance(this)) {
+            return type.cast(this);
+        }
+        return delegate.unwrap(type);
+    }
+
+    @Override
+    public void initialize() throws SQLException {
+        run(Operation.INITIALIZE, 0, delegate::initialize);
+    }
+
+    @Override
+    public void save(T entity) throws SQLException {
+        run(Operation.SAVE, 1, () -> delegate.save(entity));
+    }
+
+    @Override
+    public void update(T entity) throws SQLException {
+        run(Operation.UPDATE, 1, () -> delegate.update(entity));
+    }
+
+    @Override
+    public void delete(String id) throws SQLException {
+        run(Operation.DELETE, 1, () -> delegate.delete(id));
+    }
+
+    @Override
+    public T findById(String id) throws SQLException {
+        long start = System.nanoTime();
+        RepositoryOperationEvent event = new RepositoryOperationEvent();
+        event.begin();
+        boolean failed = true;
+        T entity = null;
+        try {
+            entity = delegate.findById(id);
+            failed = false;
+            return entity;
+        } finally {
+            finish(Operation.FIND_BY_ID, event, start, entity == null ? 0 : 1, failed);
+        }
+    }
+
+    @Override
+    public List<T> findAll() throws SQLException {
+        return list(Operation.FIND_ALL, delegate::findAll);
+    }
+
+    @Override
+    public List<T> findPage(String afterId, int limit) throws SQLException {
+        return list(Operation.FIND_PAGE, () -> delegate.findPage(afterId, limit));
+    }
+
+    /**
+     * Time until the stream is opened; rows are counted as the caller consumes them
+     */
+    @Override
+    public Stream<T> streamAll() throws SQLException {
+        long start = System.nanoTime();
+        RepositoryOperationEvent event = new RepositoryOperationEvent();
+        event.begin();
+        boolean failed = true;
+        try {
+            Stream<T> stream = delegate.streamAll();
+            failed = false;
+            return stream.peek(entity -> metrics.addRows(Operation.STREAM_ALL, 1));
+        } finally {
+            finish(Operation.STREAM_ALL, event, start, 0, failed);
+        }
+    }
+
+    @Override
+    public void forEach(Consumer<T> action) throws SQLException {
+        long[] rows = new long[1];
+        long start = System.nanoTime();
+        RepositoryOperationEvent event = new RepositoryOperationEvent();
+        event.begin();
+        boolean failed = true;
+        try {
+            delegate.forEach(entity -> {
+                rows[0]++;
+                action.accept(entity);
+            });
+            failed = false;
+        } finally {
+            finish(Operation.FOR_EACH, event, start, rows[0], failed);
+        }
+    }
+
+    @Override
+    public void forEachId(Consumer<String> action) throws SQLException {
+        long[] rows = new long[1];
+        long start = System.nanoTime();
+        RepositoryOperationEvent event = new RepositoryOperationEvent();
+        event.begin();
+        boolean failed = true;
+        try {
+            delegate.forEachId(id -> {
+                rows[0]++;
+                action.accept(id);
+            });
+            failed = false;
+        } finally {
+            finish(Operation.FOR_EACH_ID, event, start, rows[0], failed);
+        }
+    }
+
+    @Override
+    public long[] getRowIdBounds() throws SQLException {
+        return call(Operation.ROW_ID_BOUNDS, 0, delegate::getRowIdBounds);
+    }
+
+    @Override
+    public void forEachInRowIdRange(long fromRowId, long toRowId, Consumer<T> action) throws SQLException {
+        long[] rows = new long[1];
+        long start = System.nanoTime();
+        RepositoryOperationEvent event = new RepositoryOperationEvent();
+        event.begin();
+        boolean failed = true;
+        try {
+            delegate.forEachInRowIdRange(fromRowId, toRowId, entity -> {
+                rows[0]++;
+                action.accept(entity);
+            });
+            failed = false;
+        } finally {
+            finish(Operation.FOR_EACH_IN_RANGE, event, start, rows[0], failed);
+        }
+    }
+
+    @Override
+    public long forEachChangeSince(long sinceVersion, Consumer<T> changed, Consumer<String> deleted) throws SQLException {
+        long[] rows = new long[1];
+        long start = System.nanoTime();
+        RepositoryOperationEvent event = new RepositoryOperationEvent();
+        event.begin();
+        boolean failed = true;
+        try {
+            long version = delegate.forEachChangeSince(sinceVersion, entity -> {
+                rows[0]++;
+                changed.accept(entity);
+            }, id -> {
+                rows[0]++;
+                deleted.accept(id);
+            });
+            failed = false;
+            return version;
+        } finally {
+            finish(Operation.FOR_EACH_CHANGE, event, start, rows[0], failed);
+        }
+    }
+
+    @Override
+    public boolean exists(String id) throws SQLException {
+        return call(Operation.EXISTS, 0, () -> delegate.exists(id));
+    }
+
+    @Override
+    public void saveAll(Collection<T> entities) throws SQLException {
+        run(Operation.SAVE_ALL, entities.size(), () -> delegate.saveAll(entities));
+    }
+
+    @Override
+    public void updateAll(Collection<T> entities) throws SQLException {
+        run(Operation.UPDATE_ALL, entities.size(), () -> delegate.updateAll(entities));
+    }
+
+    @Override
+    public void deleteAll(Collection<String> ids) throws SQLException {
+        run(Operation.DELETE_ALL, ids.size(), () -> delegate.deleteAll(ids));
+    }
+
+    @Override
+    public List<T> findAllById(Collection<String> ids) throws SQLException {
+        return list(Operation.FIND_ALL_BY_ID, () -> delegate.findAllById(ids));
+    }
+
+    @Override
+    public List<String> listIndexes() throws SQLException {
+        return call(Operation.LIST_INDEXES, 0, delegate::listIndexes);
+    }
+
+    @Override
+    public void close() throws SQLException {
+        delegate.close();
+    }
+
+    /**
+     * Record a finished call in the metrics and, when recording, as a JFR event
+     */
+    private void finish(Operation operation, RepositoryOperationEvent event, long start, long rows, boolean failed) {
+        metrics.record(operation, System.nanoTime() - start, rows, failed);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.entity = metrics.getEntity();
+            event.operation = operation.name();
+            event.rows = rows;
+            event.failed = failed;
+            event.commit();
+        }
+    }
+
+    private <R> R call(Operation operation, long rows, Call<R> call) throws SQLException {
+        long start = System.nanoTime();
+        RepositoryOperationEvent event = new RepositoryOperationEvent();
+        event.begin();
+        boolean failed = true;
+        try {
+            R result = call.run();
+            failed = false;
+            return result;
+        } finally {
+            finish(operation, event, start, failed ? 0 : rows, failed);
+        }
+    }
+
+    private void run(Operation operation, long rows, VoidCall call) throws SQLException {
+        long start = System.nanoTime();
+        RepositoryOperationEvent event = new RepositoryOperationEvent();
+        event.begin();
+        boolean failed = true;
+        try {
+            call.run();
+            failed = false;
+        } finally {
+            finish(operation, event, start, failed ? 0 : rows, failed);
+        }
+    }
+
+    private <E> List<E> list(Operation operation, Call<List<E>> call) throws SQLException {
+        long start = System.nanoTime();
+        RepositoryOperationEvent event = new RepositoryOperationEvent();
+        event.begin();
+        List<E> result = null;
+        try {
+            result = call.run();
+            return result;
+        } finally {
+            finish(operation, event, start, result == null ? 0 : result.size(), result == null);
+        }
+    }
+}
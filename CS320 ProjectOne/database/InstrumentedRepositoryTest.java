@@ -0,0 +1,73 @@
+package database;
+
+import contact.Contact;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.List;
+import javax.management.ObjectName;
+
+import database.RepositoryMetrics.Operation;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InstrumentedRepositoryTest {
+
+    private final DatabaseManager dbManager = DatabaseManager.getInstance();
+    private String testDbUrl;
+    private DatabaseRepository<Contact> repository;
+    private RepositoryMetrics metrics;
+
+    @BeforeEach
+    void createDatabase() throws SQLException {
+        testDbUrl = dbManager.createTestDatabase("instrumented_repository");
+        repository = RepositoryFactory.getInstance().getRepository(Contact.class);
+        metrics = RepositoryFactory.getInstance().getMetrics(Contact.class);
+        metrics.reset();
+    }
+
+    @AfterEach
+    void deleteDatabase() throws SQLException {
+        RepositoryFactory.getInstance().closeAll();
+        dbManager.deleteTestDatabase(testDbUrl);
+    }
+
+    private static Contact contact(String id) {
+        return new Contact(id, "First", "Last", "0123456789", "Address");
+    }
+
+    @Test
+    void testCallsRowsAndErrorsAreRecorded() throws SQLException {
+        repository.saveAll(List.of(contact("1"), contact("2"), contact("3")));
+        assertNotNull(repository.findById("1"));
+        assertNull(repository.findById("missing"));
+
+        OperationStats saveAll = metrics.getStats(Operation.SAVE_ALL);
+        assertEquals(1, saveAll.getCalls());
+        assertEquals(3, saveAll.getRows());
+
+        OperationStats findById = metrics.getStats(Operation.FIND_BY_ID);
+        assertEquals(2, findById.getCalls());
+        assertEquals(1, findById.getRows());
+        assertTrue(findById.getMaxMicros() > 0);
+
+        dbManager.executeUpdate("DROP TABLE contacts");
+        assertThrows(SQLException.class, repository::findAll);
+
+        OperationStats findAll = metrics.getStats(Operation.FIND_ALL);
+        assertEquals(1, findAll.getCalls());
+        assertEquals(1, findAll.getErrors());
+        assertEquals(1, metrics.getTotalErrors());
+    }
+
+    @Test
+    void testMetricsArePublishedOverJmx() throws Exception {
+        repository.findById("1");
+
+        ObjectName name = new ObjectName("database:type=RepositoryMetrics,entity=Contact");
+        assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "TotalCalls"));
+    }
+}
@@ -0,0 +1,71 @@
+package database;
+
+import javax.management.ConstructorParameters;
+
+/**
+ * A point-in-time copy of the metrics of one repository operation.
+ * Latencies are in microseconds.
+ */
+public class OperationStats {
+
+    private final long calls;
+    private final long errors;
+    private final long rows;
+    private final double meanMicros;
+    private final double p50Micros;
+    private final double p99Micros;
+    private final double p999Micros;
+    private final double maxMicros;
+
+    @ConstructorParameters({"calls", "errors", "rows", "meanMicros", "p50Micros", "p99Micros", "p999Micros", "maxMicros"})
+    public OperationStats(long calls, long errors, long rows, double meanMicros,
+            double p50Micros, double p99Micros, double p999Micros, double maxMicros) {
+        this.calls = calls;
+        this.errors = errors;
+        this.rows = rows;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p99Micros = p99Micros;
+        this.p999Micros = p999Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    // Getters
+    public long getCalls() {
+        return calls;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public double getMeanMicros() {
+        return meanMicros;
+    }
+
+    public double getP50Micros() {
+        return p50Micros;
+    }
+
+    public double getP99Micros() {
+        return p99Micros;
+    }
+
+    public double getP999Micros() {
+        return p999Micros;
+    }
+
+    public double getMaxMicros() {
+        return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("calls=%d errors=%d rows=%d mean=%.1fus p50=%.1fus p99=%.1fus p999=%.1fus max=%.1fus",
+                calls, errors, rows, meanMicros, p50Micros, p99Micros, p999Micros, maxMicros);
+    }
+}
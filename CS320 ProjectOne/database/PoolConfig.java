@@ -0,0 +1,161 @@
+package database;
+
+/**
+ * Configuration for a {@link ConnectionPool}.
+ * Setters return this config so settings can be chained.
+ */
+public class PoolConfig {
+
+    private int minSize = 1;
+    private int maxSize = 10;
+    private long borrowTimeoutMillis = 30_000;
+    private int validationTimeoutSeconds = 2;
+    private long idleTimeoutMillis = 10 * 60_000;
+    private long leakDetectionThresholdMillis = 60_000;
+    private long housekeepingIntervalMillis = 30_000;
+    private int statementCacheSize = 64;
+    private boolean slowQueryLogged = false;
+
+    /**
+     * Create a config with the default settings
+     */
+    public PoolConfig() {
+    }
+
+    /**
+     * Create a copy of another config
+     */
+    public PoolConfig(PoolConfig other) {
+        this.minSize = other.minSize;
+        this.maxSize = other.maxSize;
+        this.borrowTimeoutMillis = other.borrowTimeoutMillis;
+        this.validationTimeoutSeconds = other.validationTimeoutSeconds;
+        this.idleTimeoutMillis = other.idleTimeoutMillis;
+        this.leakDetectionThresholdMillis = other.leakDetectionThresholdMillis;
+        this.housekeepingIntervalMillis = other.housekeepingIntervalMillis;
+        this.statementCacheSize = other.statementCacheSize;
+        this.slowQueryLogged = other.slowQueryLogged;
+    }
+
+    /**
+     * Number of connections kept open even when idle
+     */
+    public PoolConfig setMinSize(int minSize) {
+        if (minSize < 0) {
+            throw new IllegalArgumentException("Invalid minimum pool size");
+        }
+        this.minSize = minSize;
+        return this;
+    }
+
+    /**
+     * Maximum number of connections open at the same time
+     */
+    public PoolConfig setMaxSize(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Invalid maximum pool size");
+        }
+        this.maxSize = maxSize;
+        return this;
+    }
+
+    /**
+     * How long a caller waits for a free connection before failing
+     */
+    public PoolConfig setBorrowTimeoutMillis(long borrowTimeoutMillis) {
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * Timeout passed to {@link java.sql.Connection#isValid(int)} on checkout
+     */
+    public PoolConfig setValidationTimeoutSeconds(int validationTimeoutSeconds) {
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        return this;
+    }
+
+    /**
+     * How long a connection above the minimum may stay idle before it is closed
+     */
+    public PoolConfig setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * How long a connection may be borrowed before it is reported as leaked (0 disables)
+     */
+    public PoolConfig setLeakDetectionThresholdMillis(long leakDetectionThresholdMillis) {
+        this.leakDetectionThresholdMillis = leakDetectionThresholdMillis;
+        return this;
+    }
+
+    /**
+     * How often idle eviction and leak detection run
+     */
+    public PoolConfig setHousekeepingIntervalMillis(long housekeepingIntervalMillis) {
+        if (housekeepingIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Invalid housekeeping interval");
+        }
+        this.housekeepingIntervalMillis = housekeepingIntervalMillis;
+        return this;
+    }
+
+    /**
+     * Number of prepared statements cached per connection (0 disables the cache)
+     */
+    public PoolConfig setStatementCacheSize(int statementCacheSize) {
+        if (statementCacheSize < 0) {
+            throw new IllegalArgumentException("Invalid statement cache size");
+        }
+        this.statementCacheSize = statementCacheSize;
+        return this;
+    }
+
+    /**
+     * Time this pool's statements with the {@link SlowQueryLog} even while the log is not
+     * enabled for every pool. DatabaseManager turns this on for TEST profile databases.
+     */
+    public PoolConfig setSlowQueryLogged(boolean slowQueryLogged) {
+        this.slowQueryLogged = slowQueryLogged;
+        return this;
+    }
+
+    // Getters
+    public int getMinSize() {
+        return Math.min(minSize, maxSize);
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getBorrowTimeoutMillis() {
+        return borrowTimeoutMillis;
+    }
+
+    public int getValidationTimeoutSeconds() {
+        return validationTimeoutSeconds;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public long getLeakDetectionThresholdMillis() {
+        return leakDetectionThresholdMillis;
+    }
+
+    public long getHousekeepingIntervalMillis() {
+        return housekeepingIntervalMillis;
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    public boolean isSlowQueryLogged() {
+        return slowQueryLogged;
+    }
+}
@@ -1,12 +1,14 @@
 package database;
 
+import java.lang.management.ManagementFactory;
 import java.sql.SQLException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
-import database.repositories.AppointmentRepository;
-import database.repositories.ContactRepository;
-import database.repositories.TaskRepository;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 /**
  * Factory for creating and managing database repositories.
@@ -15,15 +17,12 @@ import database.repositories.TaskRepository;
 public class RepositoryFactory {
     private static RepositoryFactory instance;
     private Map<Class<?>, DatabaseRepository<?>> repositories = new HashMap<>();
+    private Map<Class<?>, RepositoryMetrics> metrics = new LinkedHashMap<>();
+    private Map<Class<?>, ObjectName> registeredMBeans = new HashMap<>();
     
-    // Private constructor for singleton pattern
+    // Private constructor for singleton pattern. Repositories use whichever database is current
+    // when they are called, so creating the factory does not switch it.
     private RepositoryFactory() {
-        // Initialize the database manager
-        try {
-            DatabaseManager.getInstance().initialize();
-        } catch (SQLException e) {
-            System.err.println("Error initializing database: " + e.getMessage());
-        }
     }
     
     /**
@@ -37,10 +36,12 @@ public class RepositoryFactory {
     }
     
     /**
-     * Get a repository for the specified entity class
+     * Get a repository for the specified entity class.
+     * The repository is wrapped in an {@link InstrumentedRepository}; use
+     * {@link DatabaseRepository#unwrap(Class)} to reach repository-specific methods.
      */
     @SuppressWarnings("unchecked")
-    public <T> DatabaseRepository<T> getRepository(Class<T> entityClass) throws SQLException {
+    public synchronized <T> DatabaseRepository<T> getRepository(Class<T> entityClass) throws SQLException {
         // Check if we already have a repository for this entity
         if (repositories.containsKey(entityClass)) {
             return (DatabaseRepository<T>) repositories.get(entityClass);
@@ -61,25 +62,67 @@ public class RepositoryFactory {
     /**
      * Create a repository for the specified entity class
      */
-    @SuppressWarnings("unchecked")
     private <T> DatabaseRepository<T> createRepository(Class<T> entityClass) {
-        String className = entityClass.getSimpleName();
+        RepositoryMetrics repositoryMetrics = new RepositoryMetrics(entityClass.getSimpleName());
+        metrics.put(entityClass, repositoryMetrics);
+        registerMBean(entityClass, repositoryMetrics);
         
-        if (className.equals("Appointment")) {
-            return (DatabaseRepository<T>) new AppointmentRepository();
-        } else if (className.equals("Contact")) {
-            return (DatabaseRepository<T>) new ContactRepository();
-        } else if (className.equals("Task")) {
-            return (DatabaseRepository<T>) new TaskRepository();
-        } else {
-            throw new IllegalArgumentException("No repository available for entity class: " + className);
+        return new InstrumentedRepository<>(EntityRegistry.get(entityClass).createRepository(), repositoryMetrics);
+    }
+    
+    /**
+     * Get the metrics of the repository for an entity class, or null if it has not been created
+     */
+    public synchronized RepositoryMetrics getMetrics(Class<?> entityClass) {
+        return metrics.get(entityClass);
+    }
+    
+    /**
+     * Get the metrics of every repository as plain text
+     */
+    public synchronized String dumpMetrics() {
+        StringBuilder sb = new StringBuilder();
+        for (RepositoryMetrics repositoryMetrics : metrics.values()) {
+            sb.append(repositoryMetrics.dump()).append('\n');
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Publish repository metrics on the platform MBean server
+     */
+    private void registerMBean(Class<?> entityClass, RepositoryMetrics repositoryMetrics) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("database:type=RepositoryMetrics,entity=" + entityClass.getSimpleName());
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(repositoryMetrics, name);
+            registeredMBeans.put(entityClass, name);
+        } catch (JMException e) {
+            System.err.println("Error registering repository metrics for " + entityClass.getSimpleName() + ": " + e.getMessage());
+        }
+    }
+    
+    private void unregisterMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registeredMBeans.values()) {
+            try {
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+            } catch (JMException e) {
+                System.err.println("Error unregistering " + name + ": " + e.getMessage());
+            }
         }
+        registeredMBeans.clear();
     }
     
     /**
      * Close all repositories and database connections
      */
-    public void closeAll() throws SQLException {
+    public synchronized void closeAll() throws SQLException {
         // Close all repositories
         for (DatabaseRepository<?> repository : repositories.values()) {
             repository.close();
@@ -87,6 +130,8 @@ public class RepositoryFactory {
         
         // Clear the cache
         repositories.clear();
+        metrics.clear();
+        unregisterMBeans();
         
         // Close all database connections
         DatabaseManager.getInstance().closeAllConnections();
@@ -0,0 +1,151 @@
+package database;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Call counts, error counts, row counts and latency histograms for the operations of one repository
+ */
+public class RepositoryMetrics implements RepositoryMetricsMXBean {
+
+    /**
+     * The repository operations that are measured
+     */
+    public enum Operation {
+        INITIALIZE, SAVE, UPDATE, DELETE, FIND_BY_ID, FIND_ALL, FIND_PAGE, STREAM_ALL, FOR_EACH,
+        FOR_EACH_ID, FOR_EACH_CHANGE, ROW_ID_BOUNDS, FOR_EACH_IN_RANGE, EXISTS, SAVE_ALL, UPDATE_ALL, DELETE_ALL, FIND_ALL_BY_ID, LIST_INDEXES
+    }
+
+    /**
+     * Live counters of one operation
+     */
+    static final class OperationMetrics {
+        final LongAdder calls = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        OperationStats snapshot() {
+            return new OperationStats(calls.sum(), errors.sum(), rows.sum(),
+                    latency.getMeanNanos() / 1000.0,
+                    latency.getPercentileNanos(50) / 1000.0,
+                    latency.getPercentileNanos(99) / 1000.0,
+                    latency.getPercentileNanos(99.9) / 1000.0,
+                    latency.getMaxNanos() / 1000.0);
+        }
+
+        void reset() {
+            calls.reset();
+            errors.reset();
+            rows.reset();
+            latency.reset();
+        }
+    }
+
+    private final String entity;
+    private final Map<Operation, OperationMetrics> operations = new EnumMap<>(Operation.class);
+
+    /**
+     * Create empty metrics for an entity type
+     */
+    public RepositoryMetrics(String entity) {
+        this.entity = entity;
+        // Filled up front so recording never modifies the map
+        for (Operation operation : Operation.values()) {
+            operations.put(operation, new OperationMetrics());
+        }
+    }
+
+    /**
+     * Record one completed call
+     *
+     * @param operation The operation that was called
+     * @param nanos How long the call took
+     * @param rows Rows returned or written, 0 if not applicable
+     * @param failed Whether the call threw
+     */
+    public void record(Operation operation, long nanos, long rows, boolean failed) {
+        OperationMetrics metrics = operations.get(operation);
+        metrics.calls.increment();
+        if (failed) {
+            metrics.errors.increment();
+        }
+        if (rows > 0) {
+            metrics.rows.add(rows);
+        }
+        metrics.latency.record(nanos);
+    }
+
+    /**
+     * Add rows to an operation whose rows are counted after it returns (such as a stream)
+     */
+    public void addRows(Operation operation, long rows) {
+        operations.get(operation).rows.add(rows);
+    }
+
+    /**
+     * Get the statistics of one operation
+     */
+    public OperationStats getStats(Operation operation) {
+        return operations.get(operation).snapshot();
+    }
+
+    @Override
+    public String getEntity() {
+        return entity;
+    }
+
+    @Override
+    public long getTotalCalls() {
+        long total = 0;
+        for (OperationMetrics metrics : operations.values()) {
+            total += metrics.calls.sum();
+        }
+        return total;
+    }
+
+    @Override
+    public long getTotalErrors() {
+        long total = 0;
+        for (OperationMetrics metrics : operations.values()) {
+            total += metrics.errors.sum();
+        }
+        return total;
+    }
+
+    @Override
+    public Map<String, OperationStats> getOperations() {
+        Map<String, OperationStats> result = new LinkedHashMap<>();
+        for (Map.Entry<Operation, OperationMetrics> entry : operations.entrySet()) {
+            if (entry.getValue().calls.sum() > 0) {
+                result.put(entry.getKey().name(), entry.getValue().snapshot());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Repository metrics for ").append(entity).append(" (latencies in microseconds)\n");
+        sb.append(String.format("%-15s %10s %8s %10s %10s %10s %10s %10s %10s%n",
+                "operation", "calls", "errors", "rows", "mean", "p50", "p99", "p999", "max"));
+        for (Map.Entry<String, OperationStats> entry : getOperations().entrySet()) {
+            OperationStats stats = entry.getValue();
+            sb.append(String.format("%-15s %10d %8d %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    entry.getKey(), stats.getCalls(), stats.getErrors(), stats.getRows(),
+                    stats.getMeanMicros(), stats.getP50Micros(), stats.getP99Micros(),
+                    stats.getP999Micros(), stats.getMaxMicros()));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void reset() {
+        for (OperationMetrics metrics : operations.values()) {
+            metrics.reset();
+        }
+    }
+}
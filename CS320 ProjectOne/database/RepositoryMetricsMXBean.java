@@ -0,0 +1,40 @@
+package database;
+
+import java.util.Map;
+
+/**
+ * JMX view of the metrics an {@link InstrumentedRepository} records for one entity type.
+ * Registered by {@link RepositoryFactory} as {@code database:type=RepositoryMetrics,entity=<Entity>}.
+ */
+public interface RepositoryMetricsMXBean {
+
+    /**
+     * Get the simple name of the entity class
+     */
+    String getEntity();
+
+    /**
+     * Get the total number of repository calls
+     */
+    long getTotalCalls();
+
+    /**
+     * Get the total number of repository calls that threw
+     */
+    long getTotalErrors();
+
+    /**
+     * Get the statistics of every operation that has been called, keyed by operation name
+     */
+    Map<String, OperationStats> getOperations();
+
+    /**
+     * Get the statistics as a plain-text table
+     */
+    String dump();
+
+    /**
+     * Clear all counters and histograms
+     */
+    void reset();
+}
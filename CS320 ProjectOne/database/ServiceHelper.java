@@ -1,9 +1,40 @@
 package database;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import database.cache.AbsenceFilter;
+import database.cache.AbsenceStats;
+import database.cache.CacheConfig;
+import database.cache.CacheSnapshot;
+import database.cache.CacheSnapshotFile;
+import database.cache.CacheStats;
+import database.cache.EntityCache;
+import database.cache.EntityCodec;
+import database.cache.SingleFlight;
+import database.jfr.CacheAccessEvent;
+import database.jfr.CacheRefreshEvent;
 
 /**
  * A generic service helper that provides database operations for any entity type.
@@ -13,43 +44,716 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class ServiceHelper<T> {
     
+    // Shared thread for background cache refreshes of all helpers
+    private static final ScheduledExecutorService REFRESHER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "cache-refresher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    // Cap on the row count estimate taken from the rowid span, which can be sparse
+    private static final long MAXIMUM_ID_FILTER_ESTIMATE = 1L << 24;
+    
+    // Open helpers; the oldest version any of them still needs bounds the tombstone purge
+    private static final Set<ServiceHelper<?>> OPEN_HELPERS = ConcurrentHashMap.newKeySet();
+    private static final long TOMBSTONE_PURGE_INTERVAL_MINUTES = 10;
+    private static final AtomicBoolean TOMBSTONE_PURGE_SCHEDULED = new AtomicBoolean();
+    
     private final Class<T> entityClass;
-    private final Map<String, T> cache = new ConcurrentHashMap<>();
+    private final EntityMetadata<T> metadata;
+    private final CacheConfig<T> cacheConfig;
+    private final EntityCache<T> cache;
+    // True when the cache is meant to hold every row once it is warm
+    private final boolean holdsAllRows;
+    private volatile boolean warm = false;
+    private volatile CompletableFuture<Long> warmUp;
+    // Lets lookups of IDs that do not exist skip the database
+    private final AbsenceFilter absenceFilter;
+    // Concurrent getById misses on one ID share a single query
+    private final SingleFlight<T> loads = new SingleFlight<>();
     private DatabaseRepository<T> repository;
     
+    // Pending writes when running in write-behind mode, otherwise null
+    private WriteBehindQueue<T> writeBehind;
+    
+    // Change version the cache is in sync with, or -1 before the first full load
+    private final Object syncLock = new Object();
+    private volatile long syncedVersion = -1;
+    // Version of the last snapshot file written or loaded, which the next startup replays from
+    private volatile long snapshotVersion = -1;
+    private final String dbUrl;
+    private ScheduledFuture<?> backgroundRefresh;
+    
+    // Notifications of commits by other processes, when watched
+    private ChangeMonitor.Subscription changeSubscription;
+    private final AtomicBoolean changeSyncQueued = new AtomicBoolean();
+    
+    // Startup timing, and whether the cache was loaded from a snapshot file
+    private final long createdAtNanos = System.nanoTime();
+    private volatile long startupNanos = -1;
+    private volatile boolean startedFromSnapshot = false;
+    private volatile long snapshotReplayedChanges = 0;
+    private ScheduledFuture<?> snapshotTimer;
+    
     /**
      * Constructor
      * 
      * @param entityClass The class of the entity this helper manages
      */
     public ServiceHelper(Class<T> entityClass) {
+        this(entityClass, null, new CacheConfig<>());
+    }
+    
+    /**
+     * Constructor for a helper in write-behind mode.
+     * Mutations update the cache immediately and are written to the database in batches by a
+     * background thread; see {@link WriteBehindQueue} for when queued writes can be lost.
+     * 
+     * @param entityClass The class of the entity this helper manages
+     * @param writeBehindConfig Write-behind settings, or null to write synchronously
+     */
+    public ServiceHelper(Class<T> entityClass, WriteBehindConfig writeBehindConfig) {
+        this(entityClass, writeBehindConfig, new CacheConfig<>());
+    }
+    
+    /**
+     * Constructor with cache settings.
+     * With a bounded cache or without a preload, the cache holds only part of the table:
+     * getById loads misses from the database and getAll reads the database.
+     * 
+     * @param entityClass The class of the entity this helper manages
+     * @param writeBehindConfig Write-behind settings, or null to write synchronously
+     * @param cacheConfig Size limit, expiry, eviction policy and preload settings
+     */
+    public ServiceHelper(Class<T> entityClass, WriteBehindConfig writeBehindConfig, CacheConfig<T> cacheConfig) {
         this.entityClass = entityClass;
+        this.metadata = EntityRegistry.get(entityClass);
+        this.cacheConfig = cacheConfig;
+        this.cache = EntityCache.create(cacheConfig);
+        this.holdsAllRows = cacheConfig.isPreload() && !cacheConfig.isBounded();
+        this.absenceFilter = AbsenceFilter.create(cacheConfig);
+        this.dbUrl = DatabaseManager.getInstance().getCurrentDbUrl();
+        OPEN_HELPERS.add(this);
+        scheduleTombstonePurge();
         
         try {
             // Get the repository for this entity type
             this.repository = RepositoryFactory.getInstance().getRepository(entityClass);
             
-            // Load all entities into the cache
-            refreshCache();
+            if (writeBehindConfig != null) {
+                this.writeBehind = new WriteBehindQueue<>(entityClass.getSimpleName(), repository, writeBehindConfig,
+                        this::reloadDroppedWrites);
+            }
+            
+            // Load all entities into the cache, or only note where change tracking starts
+            if (holdsAllRows && cacheConfig.getSnapshotFile() != null && loadSnapshot()) {
+                // Loaded from the snapshot file and brought up to date
+            } else if (cacheConfig.isPreload() && cacheConfig.isWarmUpInBackground()) {
+                startWarmUp();
+            } else if (cacheConfig.isPreload()) {
+                refreshCache();
+                rebuildIdFilter();
+            } else {
+                syncChanges();
+                rebuildIdFilter();
+                warm = true;
+            }
+            
+            if (warm) {
+                recordStartup();
+            }
+            
+            // getAll() checks the change version itself; polling keeps lookups current as well
+            if (cacheConfig.getChangePollMillis() > 0) {
+                changeSubscription = DatabaseManager.getInstance().getChangeMonitor(dbUrl)
+                        .subscribe(cacheConfig.getChangePollMillis(), this::onExternalChange);
+            }
+            if (cacheConfig.getSnapshotFile() != null && cacheConfig.getSnapshotIntervalMillis() > 0) {
+                long interval = cacheConfig.getSnapshotIntervalMillis();
+                snapshotTimer = REFRESHER.scheduleWithFixedDelay(this::writeSnapshotQuietly, interval, interval, TimeUnit.MILLISECONDS);
+            }
         } catch (SQLException e) {
             System.err.println("Error initializing service helper: " + e.getMessage());
         }
     }
     
     /**
-     * Refresh the cache from the database
+     * Check whether this helper writes to the database in the background
+     */
+    public boolean isWriteBehind() {
+        return writeBehind != null;
+    }
+    
+    /**
+     * Wait until every mutation made before this call has been committed to the database.
+     * Does nothing when writes are synchronous.
+     * 
+     * @throws IllegalStateException if called inside a transaction in write-behind mode
+     */
+    public void flush() throws SQLException {
+        if (writeBehind != null) {
+            writeBehind.flush();
+        }
+    }
+    
+    /**
+     * Bring the cache back in line with the database for IDs whose queued writes were given up
+     * after failing: reload each from the database, or remove it if the row does not exist
+     */
+    private void reloadDroppedWrites(List<String> ids) {
+        for (String id : ids) {
+            try {
+                T entity = repository.findById(id);
+                if (entity != null) {
+                    cache.put(id, entity);
+                    recordPresent(id);
+                } else {
+                    cache.remove(id);
+                    absenceFilter.recordAbsent(id);
+                }
+            } catch (SQLException e) {
+                cache.remove(id);
+                System.err.println("Error reloading " + entityClass.getSimpleName() + " " + id
+                        + " after a dropped write: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Reload the whole cache from the database.
+     * Entities are replaced in place and missing ones removed afterwards, so concurrent
+     * readers never see an empty cache.
      */
     public void refreshCache() throws SQLException {
-        // Clear the cache
-        cache.clear();
+        CacheRefreshEvent event = new CacheRefreshEvent();
+        event.begin();
         
-        // Load all entities from the database
-        List<T> entities = repository.findAll();
+        // Queued writes must reach the database before it is read back
+        flush();
         
-        // Add all entities to the cache
-        for (T entity : entities) {
-            String id = getEntityId(entity);
-            cache.put(id, entity);
+        long rows;
+        synchronized (syncLock) {
+            Set<String> loaded = new HashSet<>();
+            
+            // Stream all entities from the database into the cache
+            syncedVersion = repository.forEachChangeSince(-1, entity -> {
+                String id = getEntityId(entity);
+                loaded.add(id);
+                cache.put(id, entity);
+            }, id -> { });
+            
+            cache.retainAll(loaded);
+            rows = loaded.size();
+            warm = true;
+        }
+        
+        commitRefreshEvent(event, rows, false);
+    }
+    
+    /**
+     * Apply the rows changed and deleted in the database since the last refresh to the cache.
+     * Falls back to a full refresh the first time.
+     * 
+     * @return The number of changed or deleted entities applied
+     */
+    public long syncChanges() throws SQLException {
+        if (syncedVersion < 0) {
+            if (cacheConfig.isPreload()) {
+                refreshCache();
+                return cache.size();
+            }
+            synchronized (syncLock) {
+                syncedVersion = readCurrentVersion();
+            }
+            return 0;
+        }
+        
+        CacheRefreshEvent event = new CacheRefreshEvent();
+        event.begin();
+        
+        flush();
+        
+        long[] applied = new long[1];
+        try {
+            synchronized (syncLock) {
+                syncedVersion = repository.forEachChangeSince(syncedVersion, entity -> {
+                    // A partial cache only refreshes what it holds
+                    String id = getEntityId(entity);
+                    if (isCacheComplete()) {
+                        cache.put(id, entity);
+                    } else {
+                        cache.replaceIfPresent(id, entity);
+                    }
+                    absenceFilter.recordPresent(id);
+                    applied[0]++;
+                }, id -> {
+                    cache.remove(id);
+                    absenceFilter.recordAbsent(id);
+                    applied[0]++;
+                });
+            }
+        } catch (IllegalStateException e) {
+            // Deletions since the last sync have been purged, so only a reload is exact
+            return reloadAfterPurge();
+        }
+        
+        commitRefreshEvent(event, applied[0], true);
+        return applied[0];
+    }
+    
+    /**
+     * Bring the cache up to date after the tombstones it needed were purged: reload a cache
+     * that holds every row, and empty a partial one
+     */
+    private long reloadAfterPurge() throws SQLException {
+        if (holdsAllRows) {
+            refreshCache();
+            return cache.size();
+        }
+        synchronized (syncLock) {
+            cache.retainAll(Collections.emptySet());
+            syncedVersion = readCurrentVersion();
+        }
+        return 0;
+    }
+    
+    /**
+     * Purge the change tracking tombstones of every database with open helpers that all of its
+     * helpers have synced past, and that their last snapshot files do not need. Runs every
+     * {@value #TOMBSTONE_PURGE_INTERVAL_MINUTES} minutes while helpers are open.
+     * Readers in other processes that fall behind the purge reload instead of replaying changes.
+     * 
+     * @return The number of tombstones deleted
+     */
+    public static long purgeTombstones() throws SQLException {
+        long purged = 0;
+        for (String dbUrl : openDatabaseUrls()) {
+            purged += purgeTombstones(dbUrl);
+        }
+        return purged;
+    }
+    
+    /**
+     * Purge the tombstones of one database that its open helpers no longer need
+     * @see #purgeTombstones()
+     */
+    public static long purgeTombstones(String dbUrl) throws SQLException {
+        long oldest = Long.MAX_VALUE;
+        for (ServiceHelper<?> helper : OPEN_HELPERS) {
+            if (!helper.dbUrl.equals(dbUrl)) {
+                continue;
+            }
+            // A helper that has not loaded yet starts from a full read and needs no tombstones
+            long version = helper.syncedVersion;
+            if (version >= 0) {
+                oldest = Math.min(oldest, version);
+            }
+            if (helper.snapshotVersion >= 0) {
+                oldest = Math.min(oldest, helper.snapshotVersion);
+            }
+        }
+        if (oldest == Long.MAX_VALUE) {
+            return 0;
+        }
+        
+        try (Connection conn = DatabaseManager.getInstance().getTopology(dbUrl).borrowWriter()) {
+            return ChangeTracking.purgeTombstonesThrough(conn, oldest);
+        }
+    }
+    
+    /**
+     * Delete the change log entries older than {@link ChangeFeed#RETENTION} from every database
+     * with open helpers. Runs with the tombstone purge while helpers are open.
+     * 
+     * @return The number of entries deleted
+     */
+    public static long compactChangeLog() throws SQLException {
+        long compacted = 0;
+        for (String dbUrl : openDatabaseUrls()) {
+            compacted += compactChangeLog(dbUrl);
+        }
+        return compacted;
+    }
+    
+    /**
+     * Delete the change log entries of one database older than {@link ChangeFeed#RETENTION}
+     * @return The number of entries deleted, or 0 if the database has no change log
+     */
+    public static long compactChangeLog(String dbUrl) throws SQLException {
+        try (Connection conn = DatabaseManager.getInstance().getTopology(dbUrl).borrowWriter()) {
+            if (!ChangeLog.isInstalled(conn)) {
+                return 0;
+            }
+            return ChangeFeed.compactOlderThan(conn, ChangeFeed.RETENTION);
+        }
+    }
+    
+    private static Set<String> openDatabaseUrls() {
+        Set<String> dbUrls = new HashSet<>();
+        for (ServiceHelper<?> helper : OPEN_HELPERS) {
+            dbUrls.add(helper.dbUrl);
+        }
+        return dbUrls;
+    }
+    
+    private static void scheduleTombstonePurge() {
+        if (!TOMBSTONE_PURGE_SCHEDULED.compareAndSet(false, true)) {
+            return;
+        }
+        REFRESHER.scheduleWithFixedDelay(() -> {
+            try {
+                purgeTombstones();
+            } catch (SQLException | RuntimeException e) {
+                System.err.println("Error purging change tracking tombstones: " + e.getMessage());
+            }
+            try {
+                compactChangeLog();
+            } catch (SQLException | RuntimeException e) {
+                System.err.println("Error compacting the change log: " + e.getMessage());
+            }
+        }, TOMBSTONE_PURGE_INTERVAL_MINUTES, TOMBSTONE_PURGE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+    
+    /**
+     * Check whether the startup load of the cache has finished.
+     * Always true when the cache is loaded in the constructor or not preloaded.
+     */
+    public boolean isWarm() {
+        return warm;
+    }
+    
+    /**
+     * Wait for a background warm-up to finish
+     * 
+     * @return true if the cache is warm, false if the timeout passed first
+     * @throws SQLException if the warm-up failed
+     */
+    public boolean awaitWarm(Duration timeout) throws SQLException {
+        CompletableFuture<Long> future = warmUp;
+        if (future == null || warm) {
+            return warm;
+        }
+        
+        try {
+            future.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for cache warm-up", e);
+        } catch (ExecutionException e) {
+            throw new SQLException("Cache warm-up of " + entityClass.getSimpleName() + " failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+    
+    /**
+     * Load the table in parallel chunks in the background.
+     * Rows written while the chunks load may be cached with stale values, so the warm-up ends by
+     * applying every change made since it started.
+     */
+    private void startWarmUp() throws SQLException {
+        long startVersion;
+        synchronized (syncLock) {
+            startVersion = readCurrentVersion();
+            syncedVersion = startVersion;
+        }
+        
+        CacheRefreshEvent event = new CacheRefreshEvent();
+        event.begin();
+        
+        warmUp = CacheWarmer.start(entityClass.getSimpleName(), repository, cacheConfig.getWarmUpParallelism(),
+                entity -> cache.put(getEntityId(entity), entity))
+                .thenApply(rows -> {
+                    try {
+                        rebuildIdFilter();
+                        finishWarmUp(startVersion);
+                        recordStartup();
+                    } catch (SQLException e) {
+                        throw new CompletionException(e);
+                    }
+                    commitRefreshEvent(event, rows, false);
+                    return rows;
+                });
+        
+        warmUp.whenComplete((rows, failure) -> {
+            if (failure != null) {
+                System.err.println("Cache warm-up of " + entityClass.getSimpleName() + " failed: " + failure.getMessage());
+            }
+        });
+    }
+    
+    private void finishWarmUp(long startVersion) throws SQLException {
+        flush();
+        synchronized (syncLock) {
+            syncedVersion = repository.forEachChangeSince(startVersion, entity -> {
+                String id = getEntityId(entity);
+                cache.put(id, entity);
+                absenceFilter.recordPresent(id);
+            }, id -> {
+                cache.remove(id);
+                absenceFilter.recordAbsent(id);
+            });
+            warm = true;
+        }
+    }
+    
+    /**
+     * Rebuild the ID Bloom filter from an index-only scan of the IDs.
+     * The table's rowid span is used as an upper bound of its row count.
+     */
+    private void rebuildIdFilter() throws SQLException {
+        long[] bounds = repository.getRowIdBounds();
+        long span = bounds == null ? 0 : Math.min(bounds[1] - bounds[0] + 1, MAXIMUM_ID_FILTER_ESTIMATE);
+        absenceFilter.rebuild(span, action -> {
+            // Queued saves must be in the table before the scan, or the filter would miss them
+            flush();
+            repository.forEachId(action);
+        });
+    }
+    
+    /**
+     * Report a stored ID to the absence filter, and rebuild the filter in the background once it
+     * holds more IDs than it was sized for
+     */
+    private void recordPresent(String id) {
+        absenceFilter.recordPresent(id);
+        if (absenceFilter.needsRebuild()) {
+            REFRESHER.execute(() -> {
+                try {
+                    rebuildIdFilter();
+                } catch (SQLException | RuntimeException e) {
+                    System.err.println("Error rebuilding " + entityClass.getSimpleName() + " ID filter: " + e.getMessage());
+                }
+            });
+        }
+    }
+    
+    /**
+     * Fill the cache from the snapshot file and apply every change made since it was written
+     * 
+     * @return false if there is no usable snapshot, so the table has to be loaded instead
+     */
+    private boolean loadSnapshot() throws SQLException {
+        EntityCodec<T> codec = getEntityCodec();
+        if (codec == null) {
+            return false;
+        }
+        
+        Path path = cacheConfig.getSnapshotFile();
+        CacheSnapshotFile.Contents<T> contents;
+        try {
+            contents = CacheSnapshotFile.read(path, getSnapshotSource(), codec);
+        } catch (IOException e) {
+            System.err.println("Ignoring cache snapshot " + path + ": " + e.getMessage());
+            return false;
+        }
+        if (contents == null) {
+            return false;
+        }
+        // Replaying cannot work if the database is behind the snapshot, for example after a restore
+        if (contents.getHighWaterMark() > readCurrentVersion()) {
+            System.err.println("Ignoring cache snapshot " + path + ": it is newer than the database");
+            return false;
+        }
+        
+        synchronized (syncLock) {
+            for (T entity : contents.getEntities()) {
+                cache.put(getEntityId(entity), entity);
+            }
+            syncedVersion = contents.getHighWaterMark();
+            snapshotVersion = contents.getHighWaterMark();
+            warm = true;
+        }
+        snapshotReplayedChanges = syncChanges();
+        
+        // The cache now holds every row, so it can fill the ID filter without a scan
+        absenceFilter.rebuild(cache.size(), action -> cache.snapshot().getIds().forEach(action));
+        startedFromSnapshot = true;
+        return true;
+    }
+    
+    /**
+     * Write the cache to the configured snapshot file, so the next startup can load it instead
+     * of reading the table. Only a warm cache that holds every row is written, and, in
+     * write-behind mode, only while no writes are queued.
+     * 
+     * @return true if the snapshot was written
+     */
+    public boolean writeSnapshot() throws SQLException, IOException {
+        Path path = cacheConfig.getSnapshotFile();
+        if (path == null) {
+            throw new IllegalStateException("No snapshot file configured for " + entityClass.getSimpleName());
+        }
+        EntityCodec<T> codec = getEntityCodec();
+        if (codec == null || !isCacheComplete()) {
+            return false;
+        }
+        
+        flush();
+        // Brings the mark up past this helper's own writes, so the next startup replays less
+        syncChanges();
+        long version;
+        List<T> entities;
+        synchronized (syncLock) {
+            version = syncedVersion;
+            entities = cache.snapshot().getValues();
+        }
+        // A write queued after the flush may be in the cache but not yet in the database
+        if (writeBehind != null && writeBehind.size() > 0) {
+            return false;
+        }
+        
+        CacheSnapshotFile.write(path, getSnapshotSource(), version, entities, codec);
+        snapshotVersion = version;
+        return true;
+    }
+    
+    private void writeSnapshotQuietly() {
+        try {
+            writeSnapshot();
+        } catch (SQLException | IOException | RuntimeException e) {
+            System.err.println("Error writing " + entityClass.getSimpleName() + " cache snapshot: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Identify the database and entity a snapshot belongs to. The database is named by its URL
+     * and the ID stored in it, so a database recreated at the same path does not match.
+     */
+    private String getSnapshotSource() throws SQLException {
+        DatabaseManager dbManager = DatabaseManager.getInstance();
+        try (Connection conn = dbManager.getReadConnection()) {
+            return dbManager.getCurrentDbUrl() + "#" + ChangeTracking.databaseId(conn) + "#" + entityClass.getName();
+        }
+    }
+    
+    /**
+     * Get the snapshot codec generated for the entity, or null if it has none
+     */
+    private EntityCodec<T> getEntityCodec() {
+        return metadata.getCodec();
+    }
+    
+    private void recordStartup() {
+        if (startupNanos < 0) {
+            startupNanos = System.nanoTime() - createdAtNanos;
+        }
+    }
+    
+    /**
+     * Get the time from construction until the cache was warm, or -1 while it is still loading
+     */
+    public long getStartupMillis() {
+        long nanos = startupNanos;
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+    
+    /**
+     * Check whether the cache was loaded from a snapshot file rather than from the table
+     */
+    public boolean isStartedFromSnapshot() {
+        return startedFromSnapshot;
+    }
+    
+    /**
+     * Get the number of changed and deleted entities applied on top of the snapshot at startup
+     */
+    public long getSnapshotReplayedChanges() {
+        return snapshotReplayedChanges;
+    }
+    
+    /**
+     * Read the current change version without reading any rows
+     */
+    /**
+     * Sync the cache if the database's change version has moved since the last sync.
+     * The version is one row, so the check costs far less than reading the changes.
+     */
+    private void syncIfChanged() throws SQLException {
+        long version;
+        try (Connection conn = DatabaseManager.getInstance().getReadConnection()) {
+            version = ChangeTracking.currentVersion(conn);
+        }
+        if (version != syncedVersion) {
+            syncChanges();
+        }
+    }
+    
+    private long readCurrentVersion() throws SQLException {
+        // No row version is above Long.MAX_VALUE, so nothing is passed to the actions
+        return repository.forEachChangeSince(Long.MAX_VALUE, entity -> { }, id -> { });
+    }
+    
+    /**
+     * Check whether the cache holds every row, so getAll() can be served from it
+     */
+    private boolean isCacheComplete() {
+        return holdsAllRows && warm;
+    }
+    
+    /**
+     * Get the change version the cache was last synced to, or -1 if it has not been loaded
+     */
+    public long getSyncedVersion() {
+        return syncedVersion;
+    }
+    
+    /**
+     * Queue a sync after the change monitor saw a commit. Syncs run on the refresher thread so a
+     * slow one does not delay the monitor's other subscribers, and at most one is queued at a time.
+     * A commit whose changes were already applied, for example by a getAll(), costs only the
+     * version check.
+     */
+    private void onExternalChange() {
+        if (!changeSyncQueued.compareAndSet(false, true)) {
+            return;
+        }
+        REFRESHER.execute(() -> {
+            changeSyncQueued.set(false);
+            try {
+                syncIfChanged();
+            } catch (SQLException | RuntimeException e) {
+                System.err.println("Error syncing " + entityClass.getSimpleName() + " cache: " + e.getMessage());
+            }
+        });
+    }
+    
+    /**
+     * Sync the cache with the database in the background at a fixed interval, as well as
+     * whenever the change monitor sees a commit
+     */
+    public synchronized void startBackgroundRefresh(long intervalMillis) {
+        if (intervalMillis < 1) {
+            throw new IllegalArgumentException("Invalid refresh interval");
+        }
+        stopBackgroundRefresh();
+        backgroundRefresh = REFRESHER.scheduleWithFixedDelay(() -> {
+            try {
+                syncChanges();
+            } catch (SQLException | RuntimeException e) {
+                System.err.println("Error refreshing " + entityClass.getSimpleName() + " cache: " + e.getMessage());
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Stop background refreshing
+     */
+    public synchronized void stopBackgroundRefresh() {
+        if (backgroundRefresh != null) {
+            backgroundRefresh.cancel(false);
+            backgroundRefresh = null;
+        }
+    }
+    
+    private void commitRefreshEvent(CacheRefreshEvent event, long rows, boolean incremental) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.entity = entityClass.getSimpleName();
+            event.rows = rows;
+            event.incremental = incremental;
+            event.commit();
         }
     }
     
@@ -57,12 +761,21 @@ public class ServiceHelper<T> {
      * Save an entity to the database and cache
      */
     public void save(T entity) throws SQLException {
-        // Save to database
-        repository.save(entity);
-        
-        // Add to cache
         String id = getEntityId(entity);
-        cache.put(id, entity);
+        
+        if (writeBehind != null) {
+            // Queue for the writer thread; the cache is updated right away. Queueing first means
+            // a cache snapshot never holds a write the queue has not accepted.
+            writeBehind.enqueueSave(id, entity);
+            cache.put(id, entity);
+        } else {
+            // Save to database
+            repository.save(entity);
+            
+            // Add to cache
+            cache.put(id, entity);
+        }
+        recordPresent(id);
         
         // Set as persisted if applicable
         if (entity instanceof PersistableEntity) {
@@ -74,11 +787,18 @@ public class ServiceHelper<T> {
      * Update an existing entity in the database and cache
      */
     public void update(T entity) throws SQLException {
+        String id = getEntityId(entity);
+        
+        if (writeBehind != null) {
+            writeBehind.enqueueUpdate(id, entity);
+            cache.put(id, entity);
+            return;
+        }
+        
         // Update in database
         repository.update(entity);
         
         // Update in cache
-        String id = getEntityId(entity);
         cache.put(id, entity);
     }
     
@@ -86,82 +806,344 @@ public class ServiceHelper<T> {
      * Delete an entity from the database and cache
      */
     public void delete(String id) throws SQLException {
+        if (writeBehind != null) {
+            writeBehind.enqueueDelete(id);
+            cache.remove(id);
+            absenceFilter.recordAbsent(id);
+            return;
+        }
+        
         // Delete from database
         repository.delete(id);
         
         // Remove from cache
         cache.remove(id);
+        absenceFilter.recordAbsent(id);
     }
     
     /**
-     * Get an entity by ID from the cache or database
+     * Save several entities to the database in one transaction and add them to the cache
      */
-    public T getById(String id) throws SQLException {
-        // Check cache first
-        T entity = cache.get(id);
+    public void saveAll(Collection<T> entities) throws SQLException {
+        if (writeBehind != null) {
+            for (T entity : entities) {
+                save(entity);
+            }
+            return;
+        }
         
-        // If not in cache, check database
-        if (entity == null) {
-            entity = repository.findById(id);
-            
-            // Add to cache if found
+        repository.saveAll(entities);
+        
+        for (T entity : entities) {
+            String id = getEntityId(entity);
+            cache.put(id, entity);
+            recordPresent(id);
+            if (entity instanceof PersistableEntity) {
+                ((PersistableEntity) entity).setPersisted(true);
+            }
+        }
+    }
+    
+    /**
+     * Update several existing entities in the database in one transaction and in the cache
+     */
+    public void updateAll(Collection<T> entities) throws SQLException {
+        if (writeBehind != null) {
+            for (T entity : entities) {
+                update(entity);
+            }
+            return;
+        }
+        
+        repository.updateAll(entities);
+        
+        for (T entity : entities) {
+            cache.put(getEntityId(entity), entity);
+        }
+    }
+    
+    /**
+     * Delete several entities from the database in one transaction and from the cache
+     */
+    public void deleteAll(Collection<String> ids) throws SQLException {
+        if (writeBehind != null) {
+            for (String id : ids) {
+                delete(id);
+            }
+            return;
+        }
+        
+        repository.deleteAll(ids);
+        
+        for (String id : ids) {
+            cache.remove(id);
+            absenceFilter.recordAbsent(id);
+        }
+    }
+    
+    /**
+     * Get several entities by ID, loading the ones missing from the cache in one query
+     */
+    public List<T> getAllById(Collection<String> ids) throws SQLException {
+        List<T> entities = new ArrayList<>(ids.size());
+        List<String> missing = new ArrayList<>();
+        
+        for (String id : ids) {
+            T entity = cache.get(id);
+            if (entity == null) {
+                entity = getPendingEntity(id);
+            }
             if (entity != null) {
+                entities.add(entity);
+            } else if (!isPendingDelete(id) && !absenceFilter.isDefinitelyAbsent(id)) {
+                missing.add(id);
+            }
+        }
+        
+        if (!missing.isEmpty()) {
+            for (T entity : repository.findAllById(missing)) {
+                String id = getEntityId(entity);
+                // A write queued while the rows were read is newer than them
+                T pending = getPendingEntity(id);
+                if (pending != null) {
+                    entities.add(pending);
+                    continue;
+                }
+                if (isPendingDelete(id)) {
+                    continue;
+                }
                 cache.put(id, entity);
-                
-                // Set as persisted if applicable
                 if (entity instanceof PersistableEntity) {
                     ((PersistableEntity) entity).setPersisted(true);
                 }
+                entities.add(entity);
             }
         }
         
+        return entities;
+    }
+    
+    /**
+     * Get an entity by ID from the cache or database.
+     * Concurrent misses on the same ID share one query and its result or failure.
+     */
+    public T getById(String id) throws SQLException {
+        // Check cache first
+        T entity = cache.get(id);
+        
+        CacheAccessEvent event = new CacheAccessEvent();
+        if (event.shouldCommit()) {
+            event.entity = entityClass.getSimpleName();
+            event.id = id;
+            event.hit = entity != null;
+            event.commit();
+        }
+        
+        if (entity == null) {
+            entity = getPendingEntity(id);
+            if (entity != null) {
+                return entity;
+            }
+        }
+        
+        // If not in cache, check database (unless a delete of it is still queued or it cannot exist)
+        if (entity == null && !isPendingDelete(id) && !absenceFilter.isDefinitelyAbsent(id)) {
+            entity = loads.load(id, () -> load(id));
+        }
+        
         return entity;
     }
     
+    /**
+     * Get the entity of a write still queued for an ID, caching it again. An evicted entity may
+     * have such a write, which is newer than the database row.
+     * 
+     * @return The queued entity, or null without write-behind or a queued save or update
+     */
+    private T getPendingEntity(String id) {
+        if (writeBehind == null) {
+            return null;
+        }
+        T entity = writeBehind.getPendingEntity(id);
+        if (entity != null) {
+            cache.put(id, entity);
+        }
+        return entity;
+    }
+    
+    /**
+     * Read an entity from the database and add it to the cache if found
+     */
+    private T load(String id) throws SQLException {
+        long ticket = absenceFilter.beginLookup();
+        T entity = repository.findById(id);
+        absenceFilter.recordLookup(id, entity != null, ticket);
+        
+        // Add to cache if found
+        if (entity != null) {
+            cache.put(id, entity);
+            
+            // Set as persisted if applicable
+            if (entity instanceof PersistableEntity) {
+                ((PersistableEntity) entity).setPersisted(true);
+            }
+        }
+        return entity;
+    }
+    
+    /**
+     * Get the next page of entities in ID order from the database.
+     * Pass the ID of the last entity of the previous page, or null for the first page.
+     */
+    public List<T> getPage(String afterId, int limit) throws SQLException {
+        // Queued writes must reach the database before it is read
+        flush();
+        
+        List<T> page = repository.findPage(afterId, limit);
+        for (T entity : page) {
+            cache.put(getEntityId(entity), entity);
+        }
+        return page;
+    }
+    
+    /**
+     * Get the repository this helper reads and writes through
+     */
+    public DatabaseRepository<T> getRepository() {
+        return repository;
+    }
+    
     /**
      * Check if an entity with the given ID exists
      */
     public boolean exists(String id) throws SQLException {
-        return cache.containsKey(id) || repository.exists(id);
+        if (cache.containsKey(id)) {
+            return true;
+        }
+        if (writeBehind != null && writeBehind.getPendingEntity(id) != null) {
+            return true;
+        }
+        if (isPendingDelete(id) || absenceFilter.isDefinitelyAbsent(id)) {
+            return false;
+        }
+        
+        long ticket = absenceFilter.beginLookup();
+        boolean exists = repository.exists(id);
+        absenceFilter.recordLookup(id, exists, ticket);
+        return exists;
+    }
+    
+    /**
+     * Get the hit, miss, eviction and expiry counters of the cache
+     */
+    public CacheStats getCacheStats() {
+        return cache.getStats();
+    }
+    
+    /**
+     * Get the counters of lookups answered without SQL and the Bloom filter's false positive rate
+     */
+    public AbsenceStats getAbsenceStats() {
+        return absenceFilter.getStats();
+    }
+    
+    /**
+     * Get the number of getById database loads that ran
+     */
+    public long getDatabaseLoads() {
+        return loads.getLoads();
+    }
+    
+    /**
+     * Get the number of getById misses that waited for another thread's load of the same ID
+     * instead of running their own query
+     */
+    public long getCoalescedLoads() {
+        return loads.getCoalescedLoads();
+    }
+    
+    /**
+     * Get the number of cached entities
+     */
+    public int getCacheSize() {
+        return cache.size();
+    }
+    
+    /**
+     * Check whether a delete of this ID is queued but not yet committed
+     */
+    private boolean isPendingDelete(String id) {
+        return writeBehind != null && writeBehind.isPendingDelete(id);
     }
     
     /**
-     * Get all entities from the cache
+     * Get all entities, from the cache when it holds every row and from the database otherwise.
+     * The list from the cache is shared with other callers until the cache changes.
+     * Before a complete cache is served, the database's change version is read; if anything
+     * was committed since the last sync, the changes are applied first.
      */
     public List<T> getAll() throws SQLException {
-        // Ensure cache is up to date
-        refreshCache();
+        if (isCacheComplete()) {
+            syncIfChanged();
+            // The current snapshot of the cache, patched only where something changed
+            return cache.snapshot().getValues();
+        }
+        
+        // A partial cache cannot answer this; read the table without filling the cache.
+        // Queued writes must reach the database before it is read.
+        flush();
+        return repository.findAll();
+    }
+    
+    /**
+     * Get a point-in-time view of all entities for a series of consistent reads.
+     * When the cache holds every row this is the cache's current snapshot, synced as in
+     * {@link #getAll()}; otherwise it is built from the table and its version is the change
+     * version it was read at.
+     */
+    public CacheSnapshot<T> getSnapshot() throws SQLException {
+        if (isCacheComplete()) {
+            syncIfChanged();
+            return cache.snapshot();
+        }
         
-        // Return all entities in the cache
-        return List.copyOf(cache.values());
+        flush();
+        Map<String, T> entities = new HashMap<>();
+        long version = repository.forEachChangeSince(-1, entity -> entities.put(getEntityId(entity), entity), id -> { });
+        return CacheSnapshot.of(version, entities);
     }
     
     /**
      * Close the service helper's resources
      */
     public void close() throws SQLException {
-        cache.clear();
-        repository.close();
+        OPEN_HELPERS.remove(this);
+        stopBackgroundRefresh();
+        if (changeSubscription != null) {
+            changeSubscription.close();
+        }
+        if (snapshotTimer != null) {
+            snapshotTimer.cancel(false);
+        }
+        try {
+            // Written while the queue is still open: the snapshot flushes it first
+            if (cacheConfig.getSnapshotFile() != null) {
+                writeSnapshotQuietly();
+            }
+            if (writeBehind != null) {
+                writeBehind.close();
+            }
+        } finally {
+            cache.clear();
+            absenceFilter.clear();
+            repository.close();
+        }
     }
     
     /**
      * Get the ID from an entity
      */
-    @SuppressWarnings("unchecked")
     private String getEntityId(T entity) {
-        // Use reflection to call the appropriate getter method
-        try {
-            if (entityClass.getSimpleName().equals("Appointment")) {
-                return (String) entityClass.getMethod("getAppointmentId").invoke(entity);
-            } else if (entityClass.getSimpleName().equals("Contact")) {
-                return (String) entityClass.getMethod("getContactId").invoke(entity);
-            } else if (entityClass.getSimpleName().equals("Task")) {
-                return (String) entityClass.getMethod("getTaskId").invoke(entity);
-            } else {
-                throw new IllegalArgumentException("Unknown entity type: " + entityClass.getSimpleName());
-            }
-        } catch (Exception e) {
-            throw new RuntimeException("Error getting entity ID: " + e.getMessage(), e);
-        }
+        return metadata.getId(entity);
     }
 }
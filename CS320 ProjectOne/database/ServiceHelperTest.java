@@ -0,0 +1,204 @@
+package database;
+
+import contact.Contact;
+import database.cache.CacheConfig;
+import database.cache.LruPolicy;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import database.RepositoryMetrics.Operation;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ServiceHelperTest {
+
+    private final DatabaseManager dbManager = DatabaseManager.getInstance();
+    private final List<ServiceHelper<Contact>> helpers = new ArrayList<>();
+    private String testDbUrl;
+
+    @BeforeEach
+    void createDatabase() throws SQLException {
+        testDbUrl = dbManager.createTestDatabase("service_helper");
+    }
+
+    @AfterEach
+    void deleteDatabase() throws SQLException {
+        for (ServiceHelper<Contact> helper : helpers) {
+            helper.close();
+        }
+        RepositoryFactory.getInstance().closeAll();
+        dbManager.deleteTestDatabase(testDbUrl);
+    }
+
+    private ServiceHelper<Contact> createHelper(CacheConfig<Contact> cacheConfig) {
+        return createHelper(null, cacheConfig);
+    }
+
+    private ServiceHelper<Contact> createHelper(WriteBehindConfig writeBehindConfig, CacheConfig<Contact> cacheConfig) {
+        ServiceHelper<Contact> helper = new ServiceHelper<>(Contact.class, writeBehindConfig, cacheConfig);
+        helpers.add(helper);
+        return helper;
+    }
+
+    private void closeHelper(ServiceHelper<Contact> helper) throws SQLException {
+        helpers.remove(helper);
+        helper.close();
+    }
+
+    private static Contact contact(String id) {
+        return new Contact(id, "First", "Last", "0123456789", "Address");
+    }
+
+    @Test
+    void testRowInsertedByAnotherHelperIsFound() throws SQLException {
+        ServiceHelper<Contact> reader = createHelper(new CacheConfig<Contact>().setPreload(false));
+        ServiceHelper<Contact> writer = createHelper(new CacheConfig<>());
+
+        assertFalse(reader.exists("1"));
+        assertNull(reader.getById("1"));
+        writer.save(contact("1"));
+
+        // The absence filter is off by default, so both misses went to the database
+        assertTrue(reader.exists("1"));
+        assertNotNull(reader.getById("1"));
+        assertEquals(0, reader.getAbsenceStats().getLookupsAvoided());
+    }
+
+    @Test
+    void testOptInAbsenceFilterSkipsQueriesForNewIds() throws SQLException {
+        ServiceHelper<Contact> helper = createHelper(new CacheConfig<Contact>()
+                .setPreload(false)
+                .setBloomFilterFalsePositiveRate(0.01));
+        helper.save(contact("1"));
+
+        assertTrue(helper.exists("1"));
+        assertFalse(helper.exists("2"));
+        assertEquals(1, helper.getAbsenceStats().getBloomRejections());
+    }
+
+    @Test
+    void testGetAllByIdReturnsQueuedWriteOfEvictedEntity() throws SQLException {
+        createHelper(new CacheConfig<Contact>().setPreload(false)).saveAll(List.of(contact("1"), contact("2")));
+        ServiceHelper<Contact> helper = createHelper(new WriteBehindConfig().setMaxDelayMillis(60_000),
+                new CacheConfig<Contact>().setPreload(false).setMaximumSize(1).setEvictionPolicy(LruPolicy::new));
+
+        Contact changed = contact("1");
+        changed.setFirstName("Queued");
+        helper.update(changed);
+        // Loading the other contact evicts the one whose update is still queued
+        assertNotNull(helper.getById("2"));
+
+        List<Contact> found = helper.getAllById(List.of("1", "2"));
+        assertEquals(2, found.size());
+        assertEquals("Queued", found.stream().filter(c -> c.getContactId().equals("1")).findFirst().orElseThrow().getFirstName());
+        assertEquals("Queued", helper.getById("1").getFirstName());
+    }
+
+    @Test
+    void testPurgeActsOnTheDatabaseOfEachHelper() throws SQLException {
+        ServiceHelper<Contact> helper = createHelper(new CacheConfig<Contact>().setPreload(false));
+        helper.saveAll(List.of(contact("1"), contact("2")));
+        helper.delete("1");
+        helper.syncChanges();
+
+        String otherDbUrl = dbManager.createTestDatabase("service_helper_other");
+        try {
+            // The helper's database is purged even though another one is current
+            assertEquals(1, ServiceHelper.purgeTombstones());
+            assertEquals(0, ServiceHelper.compactChangeLog(testDbUrl));
+        } finally {
+            dbManager.deleteTestDatabase(otherDbUrl);
+            dbManager.initialize(testDbUrl);
+        }
+    }
+
+    @Test
+    void testGetAllServesCompleteCacheWithoutQueries() throws SQLException {
+        ServiceHelper<Contact> helper = createHelper(new CacheConfig<>());
+        helper.saveAll(List.of(contact("1"), contact("2"), contact("3")));
+        helper.syncChanges();
+        RepositoryMetrics metrics = RepositoryFactory.getInstance().getMetrics(Contact.class);
+        metrics.reset();
+
+        // Nothing committed since the sync: only the change version is read
+        List<Contact> all = helper.getAll();
+        assertEquals(3, all.size());
+        assertSame(all, helper.getAll());
+        assertEquals(0, metrics.getStats(Operation.FOR_EACH_CHANGE).getCalls());
+        assertEquals(0, metrics.getStats(Operation.FIND_ALL).getCalls());
+
+        // This helper's own writes move the version, so the next call syncs once
+        helper.delete("2");
+        helper.save(contact("4"));
+        assertEquals(List.of("1", "3", "4"), helper.getAll().stream().map(Contact::getContactId).sorted().toList());
+        helper.getAll();
+        assertEquals(1, metrics.getStats(Operation.FOR_EACH_CHANGE).getCalls());
+        assertEquals(0, metrics.getStats(Operation.FIND_ALL).getCalls());
+    }
+
+    @Test
+    void testCompleteCacheFollowsAnotherHelper() throws SQLException {
+        // No change monitor: getAll sees the insert by checking the change version
+        ServiceHelper<Contact> reader = createHelper(new CacheConfig<>());
+        assertEquals(-1, dbManager.getChangeMonitor(testDbUrl).getPollIntervalMillis());
+        ServiceHelper<Contact> writer = createHelper(new CacheConfig<Contact>().setPreload(false));
+        assertEquals(0, reader.getAll().size());
+
+        writer.save(contact("1"));
+        assertEquals(List.of("1"), reader.getAll().stream().map(Contact::getContactId).toList());
+        assertNotNull(reader.getSnapshot().get("1"));
+
+        writer.delete("1");
+        assertTrue(reader.getAll().isEmpty());
+    }
+
+    @Test
+    void testSnapshotLoadReplaysChangesSinceItWasWritten(@TempDir Path directory) throws SQLException {
+        Path snapshotFile = directory.resolve("contacts.snap");
+        ServiceHelper<Contact> first = createHelper(new CacheConfig<Contact>().setSnapshotFile(snapshotFile));
+        first.saveAll(List.of(contact("1"), contact("2"), contact("3")));
+        closeHelper(first);
+        assertTrue(Files.exists(snapshotFile));
+
+        // Changed while no cache was open, so only the replay can pick them up
+        ServiceHelper<Contact> writer = createHelper(new CacheConfig<Contact>().setPreload(false));
+        Contact changed = contact("1");
+        changed.setFirstName("Changed");
+        writer.update(changed);
+        writer.delete("2");
+        writer.save(contact("4"));
+
+        ServiceHelper<Contact> restarted = createHelper(new CacheConfig<Contact>().setSnapshotFile(snapshotFile));
+        assertTrue(restarted.isStartedFromSnapshot());
+        assertEquals(3, restarted.getSnapshotReplayedChanges());
+        assertEquals(List.of("1", "3", "4"), restarted.getAll().stream().map(Contact::getContactId).sorted().toList());
+        assertEquals("Changed", restarted.getById("1").getFirstName());
+    }
+
+    @Test
+    void testSnapshotOfRecreatedDatabaseIsIgnored(@TempDir Path directory) throws SQLException {
+        Path snapshotFile = directory.resolve("contacts.snap");
+        ServiceHelper<Contact> first = createHelper(new CacheConfig<Contact>().setSnapshotFile(snapshotFile));
+        first.save(contact("1"));
+        closeHelper(first);
+        RepositoryFactory.getInstance().closeAll();
+
+        // Same path, new database, already past the snapshot's version
+        dbManager.deleteTestDatabase(testDbUrl);
+        assertEquals(testDbUrl, dbManager.createTestDatabase("service_helper"));
+        ServiceHelper<Contact> writer = createHelper(new CacheConfig<Contact>().setPreload(false));
+        writer.saveAll(List.of(contact("2"), contact("3")));
+
+        ServiceHelper<Contact> restarted = createHelper(new CacheConfig<Contact>().setSnapshotFile(snapshotFile));
+        assertFalse(restarted.isStartedFromSnapshot());
+        assertEquals(List.of("2", "3"), restarted.getAll().stream().map(Contact::getContactId).sorted().toList());
+    }
+}
@@ -0,0 +1,451 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import database.jfr.SqlStatementEvent;
+import jdk.jfr.EventType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs statements that take longer than a threshold, together with the shapes of their bound
+ * parameters and SQLite's EXPLAIN QUERY PLAN output.
+ * Plans are cached per SQL text, so a statement is explained at most once.
+ *
+ * Pooled connections wrap the statements they prepare with {@link #wrap(Connection, String, PreparedStatement, boolean)}
+ * while the log is enabled. It is off by default ({@code -Ddatabase.slowQuery.enabled=true} turns it
+ * on for every pool) and on for pools of TEST profile databases, see {@link PoolConfig#setSlowQueryLogged(boolean)}.
+ * Only execution is timed; reading rows from a returned result set is not.
+ *
+ * For tests, {@link #setFailOnFullScan(boolean)} (or {@code -Ddatabase.slowQuery.failOnFullScan=true})
+ * makes preparing a hot query registered with {@link #registerHotQuery(String)} throw
+ * IllegalStateException if its plan contains a full-table SCAN.
+ */
+public class SlowQueryLog {
+
+    /**
+     * One slow statement execution
+     */
+    public static class Entry {
+        private final String sql;
+        private final String parameterShapes;
+        private final long elapsedNanos;
+        private final List<String> plan;
+
+        Entry(String sql, String parameterShapes, long elapsedNanos, List<String> plan) {
+            this.sql = sql;
+            this.parameterShapes = parameterShapes;
+            this.elapsedNanos = elapsedNanos;
+            this.plan = plan;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         * Types of the bound parameters, for example {@code [1:String(8), 2:long]}; values are never logged
+         */
+        public String getParameterShapes() {
+            return parameterShapes;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * The detail lines of EXPLAIN QUERY PLAN, empty if the plan could not be captured
+         */
+        public List<String> getPlan() {
+            return plan;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("slow-query elapsedMs=%.3f sql=\"%s\" params=%s plan=\"%s\"",
+                    elapsedNanos / 1_000_000.0, sql, parameterShapes, String.join("; ", plan));
+        }
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(SlowQueryLog.class);
+    private static final SlowQueryLog INSTANCE = new SlowQueryLog();
+    private static final EventType STATEMENT_EVENT_TYPE = EventType.getEventType(SqlStatementEvent.class);
+
+    private volatile long thresholdNanos = TimeUnit.MILLISECONDS.toNanos(100);
+    private volatile boolean enabled = Boolean.getBoolean("database.slowQuery.enabled");
+    private volatile boolean failOnFullScan = Boolean.getBoolean("database.slowQuery.failOnFullScan");
+    private volatile Consumer<Entry> sink = entry -> LOG.warn("{}", entry);
+
+    private final Map<String, List<String>> plans = new ConcurrentHashMap<>();
+    private final Set<String> hotQueries = ConcurrentHashMap.newKeySet();
+
+    private SlowQueryLog() {
+    }
+
+    /**
+     * Get the slow query log
+     */
+    public static SlowQueryLog getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Log statements that run for at least this long
+     */
+    public SlowQueryLog setThresholdMillis(long thresholdMillis) {
+        if (thresholdMillis < 0) {
+            throw new IllegalArgumentException("Invalid threshold");
+        }
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        return this;
+    }
+
+    /**
+     * Turn statement timing on or off for every pool; when off, only the statements of pools
+     * configured with {@link PoolConfig#setSlowQueryLogged(boolean)} are wrapped
+     */
+    public SlowQueryLog setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        return this;
+    }
+
+    /**
+     * Fail when a registered hot query plans a full-table SCAN (for test suites)
+     */
+    public SlowQueryLog setFailOnFullScan(boolean failOnFullScan) {
+        this.failOnFullScan = failOnFullScan;
+        return this;
+    }
+
+    /**
+     * Send entries somewhere other than the {@code database.SlowQueryLog} logger
+     */
+    public SlowQueryLog setSink(Consumer<Entry> sink) {
+        this.sink = sink;
+        return this;
+    }
+
+    /**
+     * Mark SQL as a hot query that must be served by an index
+     */
+    public void registerHotQuery(String sql) {
+        hotQueries.add(sql);
+    }
+
+    public long getThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(thresholdNanos);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isFailOnFullScan() {
+        return failOnFullScan;
+    }
+
+    /**
+     * Get the cached plan of a statement, or null if it has not been explained
+     */
+    public List<String> getCachedPlan(String sql) {
+        return plans.get(sql);
+    }
+
+    /**
+     * Wrap a prepared statement so its executions are timed and, while a flight recording
+     * includes {@link SqlStatementEvent}, recorded as JFR events.
+     * Checks the plan of hot queries first when failing on full scans.
+     *
+     * @param physical The connection used to run EXPLAIN QUERY PLAN
+     * @param sql The statement's SQL
+     * @param statement The statement to wrap
+     * @param poolLogged Whether the statement's pool is slow-query logged while the log is disabled
+     */
+    PreparedStatement wrap(Connection physical, String sql, PreparedStatement statement, boolean poolLogged) {
+        if (failOnFullScan && hotQueries.contains(sql)) {
+            checkUsesIndex(physical, sql);
+        }
+        if (!enabled && !poolLogged && !STATEMENT_EVENT_TYPE.isEnabled()) {
+            return statement;
+        }
+        return new TimedStatement(physical, sql, statement, poolLogged);
+    }
+
+    private void checkUsesIndex(Connection physical, String sql) {
+        for (String step : explain(physical, sql)) {
+            if (step.startsWith("SCAN ")) {
+                throw new IllegalStateException("Hot query plans a full scan (" + step + "): " + sql);
+            }
+        }
+    }
+
+    /**
+     * Get the plan of a statement, running EXPLAIN QUERY PLAN the first time
+     */
+    private List<String> explain(Connection physical, String sql) {
+        List<String> plan = plans.get(sql);
+        if (plan != null) {
+            return plan;
+        }
+
+        List<String> steps = new ArrayList<>();
+        // Unbound parameters are treated as NULL, which does not change the plan
+        try (PreparedStatement pstmt = physical.prepareStatement("EXPLAIN QUERY PLAN " + sql);
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                steps.add(rs.getString("detail"));
+            }
+        } catch (SQLException e) {
+            LOG.warn("Could not explain query plan for {}: {}", sql, e.getMessage());
+            return Collections.emptyList();
+        }
+
+        plan = Collections.unmodifiableList(steps);
+        plans.putIfAbsent(sql, plan);
+        return plan;
+    }
+
+    private void record(Connection physical, String sql, String parameterShapes, long elapsedNanos) {
+        if (elapsedNanos < thresholdNanos) {
+            return;
+        }
+        try {
+            sink.accept(new Entry(sql, parameterShapes, elapsedNanos, explain(physical, sql)));
+        } catch (RuntimeException e) {
+            LOG.warn("Error writing slow query log entry: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * A statement execution, for timing
+     */
+    @FunctionalInterface
+    private interface Execution<R> {
+        R run() throws SQLException;
+    }
+
+    /**
+     * Statement wrapper that remembers parameter shapes and times executions
+     */
+    private final class TimedStatement extends DelegatingPreparedStatement {
+        private final Connection physical;
+        private final String sql;
+        private final PreparedStatement statement;
+        private final boolean poolLogged;
+        private final Map<Integer, String> parameterShapes = new TreeMap<>();
+        private int batchedRows = 0;
+
+        private TimedStatement(Connection physical, String sql, PreparedStatement statement, boolean poolLogged) {
+            this.physical = physical;
+            this.sql = sql;
+            this.statement = statement;
+            this.poolLogged = poolLogged;
+        }
+
+        @Override
+        protected PreparedStatement delegate() {
+            return statement;
+        }
+
+        @Override
+        protected void parameterSet(int parameterIndex, String setter, Object value) {
+            parameterShapes.put(parameterIndex, shapeOf(setter, value));
+        }
+
+        @Override
+        public void clearParameters() throws SQLException {
+            parameterShapes.clear();
+            statement.clearParameters();
+        }
+
+        @Override
+        public void addBatch() throws SQLException {
+            batchedRows++;
+            statement.addBatch();
+        }
+
+        @Override
+        public void clearBatch() throws SQLException {
+            batchedRows = 0;
+            statement.clearBatch();
+        }
+
+        @Override
+        public ResultSet executeQuery() throws SQLException {
+            return timed(false, statement::executeQuery);
+        }
+
+        @Override
+        public int executeUpdate() throws SQLException {
+            return timed(false, statement::executeUpdate);
+        }
+
+        @Override
+        public long executeLargeUpdate() throws SQLException {
+            return timed(false, statement::executeLargeUpdate);
+        }
+
+        @Override
+        public boolean execute() throws SQLException {
+            return timed(false, statement::execute);
+        }
+
+        @Override
+        public int[] executeBatch() throws SQLException {
+            return timed(true, statement::executeBatch);
+        }
+
+        @Override
+        public long[] executeLargeBatch() throws SQLException {
+            return timed(true, statement::executeLargeBatch);
+        }
+
+        @Override
+        public ResultSet executeQuery(String sql) throws SQLException {
+            return timed(false, () -> statement.executeQuery(sql));
+        }
+
+        @Override
+        public int executeUpdate(String sql) throws SQLException {
+            return timed(false, () -> statement.executeUpdate(sql));
+        }
+
+        @Override
+        public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+            return timed(false, () -> statement.executeUpdate(sql, autoGeneratedKeys));
+        }
+
+        @Override
+        public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+            return timed(false, () -> statement.executeUpdate(sql, columnIndexes));
+        }
+
+        @Override
+        public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+            return timed(false, () -> statement.executeUpdate(sql, columnNames));
+        }
+
+        @Override
+        public boolean execute(String sql) throws SQLException {
+            return timed(false, () -> statement.execute(sql));
+        }
+
+        @Override
+        public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+            return timed(false, () -> statement.execute(sql, autoGeneratedKeys));
+        }
+
+        @Override
+        public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+            return timed(false, () -> statement.execute(sql, columnIndexes));
+        }
+
+        @Override
+        public boolean execute(String sql, String[] columnNames) throws SQLException {
+            return timed(false, () -> statement.execute(sql, columnNames));
+        }
+
+        @Override
+        public long executeLargeUpdate(String sql) throws SQLException {
+            return timed(false, () -> statement.executeLargeUpdate(sql));
+        }
+
+        @Override
+        public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+            return timed(false, () -> statement.executeLargeUpdate(sql, autoGeneratedKeys));
+        }
+
+        @Override
+        public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
+            return timed(false, () -> statement.executeLargeUpdate(sql, columnIndexes));
+        }
+
+        @Override
+        public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
+            return timed(false, () -> statement.executeLargeUpdate(sql, columnNames));
+        }
+
+        private <R> R timed(boolean batch, Execution<R> execution) throws SQLException {
+            SqlStatementEvent event = new SqlStatementEvent();
+            event.begin();
+            long start = System.nanoTime();
+            R result = null;
+            try {
+                result = execution.run();
+                return result;
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                event.end();
+                String shapes = formatShapes();
+                if (batch) {
+                    shapes = batchedRows + " x " + shapes;
+                    batchedRows = 0;
+                }
+                if (enabled || poolLogged) {
+                    record(physical, sql, shapes, elapsed);
+                }
+                if (event.shouldCommit()) {
+                    event.sql = sql;
+                    event.parameters = shapes;
+                    event.updateCount = updateCount(result);
+                    event.commit();
+                }
+            }
+        }
+
+        private long updateCount(Object result) {
+            if (result instanceof Integer || result instanceof Long) {
+                return ((Number) result).longValue();
+            }
+            if (result instanceof int[]) {
+                long total = 0;
+                for (int count : (int[]) result) {
+                    total += Math.max(count, 0);
+                }
+                return total;
+            }
+            if (result instanceof long[]) {
+                long total = 0;
+                for (long count : (long[]) result) {
+                    total += Math.max(count, 0);
+                }
+                return total;
+            }
+            return -1;
+        }
+
+        private String formatShapes() {
+            StringBuilder sb = new StringBuilder("[");
+            for (Map.Entry<Integer, String> entry : parameterShapes.entrySet()) {
+                if (sb.length() > 1) {
+                    sb.append(", ");
+                }
+                sb.append(entry.getKey()).append(':').append(entry.getValue());
+            }
+            return sb.append(']').toString();
+        }
+
+        private String shapeOf(String setter, Object value) {
+            if (value == null || setter.equals("setNull")) {
+                return "NULL";
+            }
+            if (value instanceof String) {
+                return "String(" + ((String) value).length() + ")";
+            }
+            return setter.substring(3).toLowerCase();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SlowQueryLogTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final SlowQueryLog log = SlowQueryLog.getInstance();
+    private final List<SlowQueryLog.Entry> entries = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeEach
+    void captureEntries() {
+        log.setSink(entries::add);
+    }
+
+    @AfterEach
+    void resetSlowQueryLog() {
+        log.setFailOnFullScan(false)
+                .setThresholdMillis(100)
+                .setSink(entry -> System.err.println(entry));
+    }
+
+    private ConnectionPool createPool(PoolConfig config) throws SQLException {
+        String url = "jdbc:sqlite:" + tempDir.resolve("slow.db");
+        ConnectionPool pool = new ConnectionPool("test", config, () -> DriverManager.getConnection(url));
+        try (Connection connection = pool.borrow();
+             Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS items (id TEXT PRIMARY KEY, name TEXT)");
+        }
+        return pool;
+    }
+
+    @Test
+    void testHotQueryWithFullScanFails() throws SQLException {
+        String fullScan = "SELECT id FROM items WHERE name = ?";
+        String covered = "SELECT name FROM items WHERE id = ?";
+        log.registerHotQuery(fullScan);
+        log.registerHotQuery(covered);
+        log.setFailOnFullScan(true);
+
+        ConnectionPool pool = createPool(new PoolConfig());
+        try (Connection connection = pool.borrow()) {
+            IllegalStateException failure = assertThrows(IllegalStateException.class,
+                    () -> connection.prepareStatement(fullScan));
+            assertTrue(failure.getMessage().contains("SCAN items"));
+
+            try (PreparedStatement pstmt = connection.prepareStatement(covered)) {
+                pstmt.setString(1, "1");
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    assertFalse(rs.next());
+                }
+            }
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    void testOnlyLoggedPoolsAreTimedWhileDisabled() throws SQLException {
+        assertFalse(log.isEnabled());
+        log.setThresholdMillis(0);
+        String sql = "SELECT COUNT(*) FROM items";
+
+        ConnectionPool plain = createPool(new PoolConfig());
+        try (Connection connection = plain.borrow();
+             PreparedStatement pstmt = connection.prepareStatement(sql);
+             ResultSet rs = pstmt.executeQuery()) {
+            assertTrue(rs.next());
+        } finally {
+            plain.close();
+        }
+        assertEquals(0, entries.size());
+
+        ConnectionPool logged = createPool(new PoolConfig().setSlowQueryLogged(true));
+        try (Connection connection = logged.borrow();
+             PreparedStatement pstmt = connection.prepareStatement(sql);
+             ResultSet rs = pstmt.executeQuery()) {
+            assertTrue(rs.next());
+        } finally {
+            logged.close();
+        }
+        assertEquals(1, entries.size());
+        assertEquals(sql, entries.get(0).getSql());
+    }
+
+    @Test
+    void testTestDatabasesAreSlowQueryLogged() throws SQLException {
+        DatabaseManager dbManager = DatabaseManager.getInstance();
+        String testDbUrl = dbManager.createTestDatabase("slow_query_log");
+        try {
+            log.setThresholdMillis(0);
+            try (Connection connection = dbManager.getReadConnection();
+                 PreparedStatement pstmt = connection.prepareStatement("SELECT 1");
+                 ResultSet rs = pstmt.executeQuery()) {
+                assertTrue(rs.next());
+            }
+
+            assertEquals(1, entries.size());
+        } finally {
+            dbManager.deleteTestDatabase(testDbUrl);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Named SQLite tuning profiles applied by {@link DatabaseManager} to every new connection.
+ * All profiles use WAL journaling so readers do not block the writer; they differ in how
+ * much durability they trade for speed and how much memory they use.
+ */
+public enum SqliteProfile {
+
+    /**
+     * Every commit is fsynced to the WAL. Survives power loss without losing committed data.
+     */
+    DURABLE("durable", "FULL", 0L, -2_000, "DEFAULT", 10_000, 1_000),
+
+    /**
+     * WAL is fsynced at checkpoints only. A power loss may roll back the last few commits
+     * but never corrupts the database. This is the default.
+     */
+    BALANCED("balanced", "NORMAL", 64L * 1024 * 1024, -16_000, "MEMORY", 5_000, 1_000),
+
+    /**
+     * No fsyncs and larger checkpoints. An application crash is safe, but an OS crash or
+     * power loss can lose recent commits or corrupt the file. Use for bulk loads and rebuildable data.
+     */
+    THROUGHPUT("throughput", "OFF", 256L * 1024 * 1024, -64_000, "MEMORY", 5_000, 10_000),
+
+    /**
+     * For throwaway test databases: no fsyncs, small memory footprint, short busy timeout.
+     */
+    TEST("test", "OFF", 0L, -2_000, "MEMORY", 1_000, 1_000);
+
+    // Pragmas included in the startup report, in display order
+    private static final String[] REPORTED_PRAGMAS = {
+        "journal_mode", "synchronous", "mmap_size", "cache_size", "temp_store", "busy_timeout", "wal_autocheckpoint"
+    };
+
+    private final String profileName;
+    private final String synchronous;
+    private final long mmapSize;
+    private final int cacheSize;
+    private final String tempStore;
+    private final int busyTimeoutMillis;
+    private final int walAutocheckpointPages;
+
+    SqliteProfile(String profileName, String synchronous, long mmapSize, int cacheSize,
+                  String tempStore, int busyTimeoutMillis, int walAutocheckpointPages) {
+        this.profileName = profileName;
+        this.synchronous = synchronous;
+        this.mmapSize = mmapSize;
+        this.cacheSize = cacheSize;
+        this.tempStore = tempStore;
+        this.busyTimeoutMillis = busyTimeoutMillis;
+        this.walAutocheckpointPages = walAutocheckpointPages;
+    }
+
+    /**
+     * Look up a profile by its name ("durable", "balanced", "throughput" or "test")
+     */
+    public static SqliteProfile fromName(String name) {
+        for (SqliteProfile profile : values()) {
+            if (profile.profileName.equalsIgnoreCase(name)) {
+                return profile;
+            }
+        }
+        throw new IllegalArgumentException("Unknown SQLite profile: " + name);
+    }
+
+    /**
+     * Apply this profile's settings to a connection
+     */
+    public void apply(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            // busy_timeout first so switching the journal mode waits for other connections
+            stmt.execute("PRAGMA busy_timeout = " + busyTimeoutMillis);
+            stmt.execute("PRAGMA journal_mode = WAL");
+            stmt.execute("PRAGMA synchronous = " + synchronous);
+            stmt.execute("PRAGMA mmap_size = " + mmapSize);
+            stmt.execute("PRAGMA cache_size = " + cacheSize);
+            stmt.execute("PRAGMA temp_store = " + tempStore);
+            stmt.execute("PRAGMA wal_autocheckpoint = " + walAutocheckpointPages);
+        }
+    }
+
+    /**
+     * Read back the effective values of the pragmas this profile sets
+     */
+    public static Map<String, String> readEffectiveSettings(Connection connection) throws SQLException {
+        Map<String, String> settings = new LinkedHashMap<>();
+        try (Statement stmt = connection.createStatement()) {
+            for (String pragma : REPORTED_PRAGMAS) {
+                try (ResultSet rs = stmt.executeQuery("PRAGMA " + pragma)) {
+                    settings.put(pragma, rs.next() ? rs.getString(1) : "");
+                }
+            }
+        }
+        return settings;
+    }
+
+    public String getProfileName() {
+        return profileName;
+    }
+
+    public String getSynchronous() {
+        return synchronous;
+    }
+
+    public long getMmapSize() {
+        return mmapSize;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public String getTempStore() {
+        return tempStore;
+    }
+
+    public int getBusyTimeoutMillis() {
+        return busyTimeoutMillis;
+    }
+
+    public int getWalAutocheckpointPages() {
+        return walAutocheckpointPages;
+    }
+
+    @Override
+    public String toString() {
+        return profileName;
+    }
+}
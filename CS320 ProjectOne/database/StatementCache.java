@@ -0,0 +1,229 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of prepared statements for one physical connection, keyed by SQL text.
+ * Statements handed out by {@link #prepare(String)} are wrappers whose close() puts the
+ * statement back in the cache, so callers keep using try-with-resources as usual and
+ * SQLite does not re-parse and re-plan the same statement on every call.
+ *
+ * A connection is only used by one thread at a time, so this class is not thread safe.
+ *
+ * The cache never holds more than its maximum size. Evicting a statement that is checked out
+ * removes it from the cache at once and closes it when its caller closes it. Returning a
+ * statement closes the result set it last produced, so a cached statement never keeps one open.
+ */
+public class StatementCache {
+
+    /**
+     * Hit, miss and eviction counters, shared by all caches of a pool
+     */
+    public static class Stats {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+
+        public long getHits() {
+            return hits.sum();
+        }
+
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        public long getEvictions() {
+            return evictions.sum();
+        }
+
+        /**
+         * Fraction of prepares served from the cache, or 0 if nothing was prepared yet
+         */
+        public double getHitRatio() {
+            long hitCount = getHits();
+            long total = hitCount + getMisses();
+            return total == 0 ? 0.0 : (double) hitCount / total;
+        }
+
+        /**
+         * Add another set of counters into this one
+         */
+        public Stats add(Stats other) {
+            hits.add(other.getHits());
+            misses.add(other.getMisses());
+            evictions.add(other.getEvictions());
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + getHits() + " misses=" + getMisses() + " evictions=" + getEvictions()
+                    + String.format(" hitRatio=%.3f", getHitRatio());
+        }
+    }
+
+    private final Connection physical;
+    private final int maxSize;
+    private final Stats stats;
+    private final LinkedHashMap<String, CachedStatement> statements;
+
+    /**
+     * Create a statement cache for a connection
+     *
+     * @param physical The physical connection statements are prepared on
+     * @param maxSize The maximum number of cached statements
+     * @param stats Counters to record hits, misses and evictions in
+     */
+    public StatementCache(Connection physical, int maxSize, Stats stats) {
+        this.physical = physical;
+        this.maxSize = maxSize;
+        this.stats = stats;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Get a prepared statement for the SQL, reusing a cached one when possible
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        CachedStatement cached = statements.get(sql);
+
+        if (cached != null) {
+            if (cached.checkedOut) {
+                // Same SQL already in use on this connection (nested call): hand out a plain statement
+                stats.misses.increment();
+                return physical.prepareStatement(sql);
+            }
+            stats.hits.increment();
+        } else {
+            stats.misses.increment();
+            cached = new CachedStatement(physical.prepareStatement(sql));
+            statements.put(sql, cached);
+            evictToMaximum();
+        }
+
+        cached.checkedOut = true;
+        return cached.newHandle();
+    }
+
+    /**
+     * Evict least recently used statements until the cache is within its maximum size
+     */
+    private void evictToMaximum() {
+        Iterator<CachedStatement> iterator = statements.values().iterator();
+        while (statements.size() > maxSize && iterator.hasNext()) {
+            CachedStatement eldest = iterator.next();
+            iterator.remove();
+            stats.evictions.increment();
+            if (eldest.checkedOut) {
+                // Still in use: closed by its handle instead of being returned
+                eldest.evicted = true;
+            } else {
+                eldest.closeQuietly();
+            }
+        }
+    }
+
+    /**
+     * Get the number of cached statements
+     */
+    public int size() {
+        return statements.size();
+    }
+
+    /**
+     * Close every cached statement
+     */
+    public void closeAll() {
+        Iterator<CachedStatement> iterator = statements.values().iterator();
+        while (iterator.hasNext()) {
+            iterator.next().closeQuietly();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * A cached statement and whether a caller is currently using it
+     */
+    private static final class CachedStatement {
+        private final PreparedStatement statement;
+        private boolean checkedOut;
+        private boolean evicted;
+
+        private CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        private PreparedStatement newHandle() {
+            return new StatementHandle(this);
+        }
+
+        private void closeQuietly() {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                System.err.println("Error closing cached statement: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * One checkout of a cached statement
+     */
+    private static final class StatementHandle extends DelegatingPreparedStatement {
+        private final CachedStatement cached;
+        private boolean handleClosed = false;
+        private ResultSet resultSet;
+
+        private StatementHandle(CachedStatement cached) {
+            this.cached = cached;
+        }
+
+        @Override
+        protected PreparedStatement delegate() throws SQLException {
+            if (handleClosed) {
+                throw new SQLException("Statement has already been closed");
+            }
+            return cached.statement;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            if (handleClosed) {
+                return;
+            }
+            handleClosed = true;
+            if (cached.evicted) {
+                cached.checkedOut = false;
+                cached.statement.close();
+                return;
+            }
+            try {
+                if (resultSet != null && !resultSet.isClosed()) {
+                    resultSet.close();
+                }
+                cached.statement.clearParameters();
+                cached.statement.clearBatch();
+            } finally {
+                resultSet = null;
+                cached.checkedOut = false;
+            }
+        }
+
+        @Override
+        public ResultSet executeQuery() throws SQLException {
+            resultSet = delegate().executeQuery();
+            return resultSet;
+        }
+
+        @Override
+        public boolean isClosed() throws SQLException {
+            return handleClosed || cached.statement.isClosed();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StatementCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Connection connection;
+    private StatementCache.Stats stats;
+    private StatementCache cache;
+
+    @BeforeEach
+    void openConnection() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:sqlite:" + tempDir.resolve("statements.db"));
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE items (id TEXT PRIMARY KEY, name TEXT)");
+            stmt.execute("INSERT INTO items (id, name) VALUES ('1', 'one'), ('2', 'two')");
+        }
+        stats = new StatementCache.Stats();
+        cache = new StatementCache(connection, 2, stats);
+    }
+
+    @AfterEach
+    void closeConnection() throws SQLException {
+        cache.closeAll();
+        connection.close();
+    }
+
+    @Test
+    void testReturnedStatementIsReused() throws SQLException {
+        String sql = "SELECT name FROM items WHERE id = ?";
+        cache.prepare(sql).close();
+        cache.prepare(sql).close();
+
+        assertEquals(1, stats.getMisses());
+        assertEquals(1, stats.getHits());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void testEvictingCheckedOutStatementStaysWithinMaximum() throws SQLException {
+        PreparedStatement inUse = cache.prepare("SELECT name FROM items WHERE id = ?");
+        cache.prepare("SELECT id FROM items").close();
+        cache.prepare("SELECT COUNT(*) FROM items").close();
+
+        assertEquals(2, cache.size());
+        assertEquals(1, stats.getEvictions());
+
+        // The evicted statement keeps working for its caller and is closed when returned
+        inUse.setString(1, "2");
+        try (ResultSet rs = inUse.executeQuery()) {
+            assertTrue(rs.next());
+            assertEquals("two", rs.getString(1));
+        }
+        inUse.close();
+        assertTrue(inUse.isClosed());
+
+        cache.prepare("SELECT name FROM items WHERE id = ?").close();
+        assertEquals(4, stats.getMisses());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void testReturningStatementClosesItsResultSet() throws SQLException {
+        PreparedStatement pstmt = cache.prepare("SELECT id FROM items");
+        ResultSet rs = pstmt.executeQuery();
+        assertTrue(rs.next());
+
+        pstmt.close();
+
+        assertTrue(rs.isClosed());
+        try (PreparedStatement again = cache.prepare("SELECT id FROM items");
+             ResultSet rows = again.executeQuery()) {
+            assertTrue(rows.next());
+        }
+        assertEquals(1, stats.getHits());
+    }
+}
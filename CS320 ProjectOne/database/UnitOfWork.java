@@ -0,0 +1,130 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+
+/**
+ * One connection and one transaction bound to the current thread by
+ * {@link DatabaseManager#inTransaction(DatabaseManager.TransactionWork)}.
+ * While a unit of work is active, every connection the DatabaseManager hands out on that thread
+ * is this unit's connection, so repositories take part in the transaction without being told.
+ * Nested scopes run inside savepoints of the outer transaction.
+ */
+public class UnitOfWork {
+
+    private final String dbUrl;
+    private final Connection connection;
+    private final Connection sharedView;
+    private int depth = 0;
+    private boolean rollbackOnly = false;
+
+    /**
+     * Wrap a borrowed writer connection; the caller starts and ends the transaction
+     */
+    UnitOfWork(String dbUrl, Connection connection) {
+        this.dbUrl = dbUrl;
+        this.connection = connection;
+        this.sharedView = createSharedView(connection);
+    }
+
+    /**
+     * Get the connection of this unit of work.
+     * Closing it is a no-op; the transaction scope releases it.
+     */
+    public Connection getConnection() {
+        return sharedView;
+    }
+
+    /**
+     * Mark the whole transaction for rollback even if the work completes normally
+     */
+    public void setRollbackOnly() {
+        this.rollbackOnly = true;
+    }
+
+    public boolean isRollbackOnly() {
+        return rollbackOnly;
+    }
+
+    /**
+     * Get how many scopes are currently open (1 for the outermost transaction)
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    String getDbUrl() {
+        return dbUrl;
+    }
+
+    /**
+     * Run work in the outermost scope: begin, then commit or roll back
+     */
+    <R> R runOutermost(DatabaseManager.TransactionWork<R> work) throws SQLException {
+        connection.setAutoCommit(false);
+        depth = 1;
+        try {
+            R result = work.execute(this);
+            if (rollbackOnly) {
+                connection.rollback();
+            } else {
+                connection.commit();
+            }
+            return result;
+        } catch (SQLException | RuntimeException | Error e) {
+            rollbackQuietly(e);
+            throw e;
+        } finally {
+            depth = 0;
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Run work in a nested scope backed by a savepoint
+     */
+    <R> R runNested(DatabaseManager.TransactionWork<R> work) throws SQLException {
+        Savepoint savepoint = connection.setSavepoint();
+        depth++;
+        try {
+            R result = work.execute(this);
+            connection.releaseSavepoint(savepoint);
+            return result;
+        } catch (SQLException | RuntimeException | Error e) {
+            try {
+                connection.rollback(savepoint);
+                connection.releaseSavepoint(savepoint);
+            } catch (SQLException rollbackError) {
+                e.addSuppressed(rollbackError);
+            }
+            throw e;
+        } finally {
+            depth--;
+        }
+    }
+
+    private void rollbackQuietly(Throwable cause) {
+        try {
+            connection.rollback();
+        } catch (SQLException rollbackError) {
+            cause.addSuppressed(rollbackError);
+        }
+    }
+
+    /**
+     * A view of the connection whose close() does nothing, for code that closes what it borrows
+     */
+    private static Connection createSharedView(Connection connection) {
+        return new DelegatingConnection() {
+            @Override
+            protected Connection delegate() {
+                return connection;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
@@ -0,0 +1,90 @@
+package database;
+
+/**
+ * Configuration for the write-behind mode of {@link ServiceHelper}.
+ * Setters return this config so settings can be chained.
+ */
+public class WriteBehindConfig {
+
+    private int maxBatchSize = 500;
+    private long maxDelayMillis = 50;
+    private int queueCapacity = 10_000;
+    private int maxRetries = 3;
+    private long retryDelayMillis = 100;
+
+    /**
+     * Maximum number of writes committed in one transaction
+     */
+    public WriteBehindConfig setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Invalid batch size");
+        }
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    /**
+     * Longest time a write waits in the queue before a partial batch is committed
+     */
+    public WriteBehindConfig setMaxDelayMillis(long maxDelayMillis) {
+        if (maxDelayMillis < 0) {
+            throw new IllegalArgumentException("Invalid delay");
+        }
+        this.maxDelayMillis = maxDelayMillis;
+        return this;
+    }
+
+    /**
+     * Maximum number of distinct IDs waiting to be written; callers block when it is reached
+     */
+    public WriteBehindConfig setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Invalid queue capacity");
+        }
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    /**
+     * Number of times a failed write is retried before it is dropped
+     */
+    public WriteBehindConfig setMaxRetries(int maxRetries) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("Invalid retry count");
+        }
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    /**
+     * Time to wait before retrying failed writes
+     */
+    public WriteBehindConfig setRetryDelayMillis(long retryDelayMillis) {
+        if (retryDelayMillis < 0) {
+            throw new IllegalArgumentException("Invalid retry delay");
+        }
+        this.retryDelayMillis = retryDelayMillis;
+        return this;
+    }
+
+    // Getters
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public long getRetryDelayMillis() {
+        return retryDelayMillis;
+    }
+}
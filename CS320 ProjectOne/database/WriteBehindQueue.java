@@ -0,0 +1,506 @@
+package database;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Queue of pending writes drained into the database by a single background thread.
+ * Writes to the same ID are merged while they wait, so only the latest state of an entity is
+ * written. Each drained batch is committed in one transaction.
+ *
+ * Crash behaviour: a write is durable only once the batch containing it has been committed.
+ * If the JVM exits, crashes or is killed before that, every queued write is lost; at most
+ * {@link WriteBehindConfig#getQueueCapacity()} IDs (and normally no more than
+ * {@link WriteBehindConfig#getMaxDelayMillis()} worth of writes) can be lost this way.
+ * Batches are all-or-nothing, so the database never holds part of a batch.
+ * Call {@link #flush()} before anything that must be durable and {@link #close()} on shutdown.
+ *
+ * When a batch fails, its writes are retried one per transaction, so a single bad write cannot
+ * hold back the rest. A write that keeps failing is retried up to
+ * {@link WriteBehindConfig#getMaxRetries()} times and then dropped: the failure is reported by
+ * {@link #flush()} and the dropped IDs are passed to the listener given to the constructor,
+ * which brings the cache back in line with the database.
+ *
+ * Each write goes to the database that was current when it was queued, even if the current
+ * database changes before it is written.
+ *
+ * Queued writes are committed later by the writer thread, outside any transaction of the caller,
+ * and flushing waits for that thread, which needs the database's writer connection. Queueing a
+ * write or calling {@link #flush()} on a thread inside a transaction therefore throws
+ * IllegalStateException, instead of silently escaping the transaction or deadlocking.
+ *
+ * @param <T> The entity type being written
+ */
+public class WriteBehindQueue<T> {
+
+    /**
+     * Kind of pending write
+     */
+    enum Operation { SAVE, UPDATE, DELETE }
+
+    /**
+     * The latest pending write for one ID
+     */
+    static final class PendingWrite<T> {
+        final String dbUrl;
+        final String id;
+        final Operation operation;
+        final T entity;
+        final long sequence;
+        final int attempts;
+
+        PendingWrite(String dbUrl, String id, Operation operation, T entity, long sequence) {
+            this(dbUrl, id, operation, entity, sequence, 0);
+        }
+
+        private PendingWrite(String dbUrl, String id, Operation operation, T entity, long sequence, int attempts) {
+            this.dbUrl = dbUrl;
+            this.id = id;
+            this.operation = operation;
+            this.entity = entity;
+            this.sequence = sequence;
+            this.attempts = attempts;
+        }
+
+        String key() {
+            return WriteBehindQueue.key(dbUrl, id);
+        }
+
+        PendingWrite<T> withOperation(Operation newOperation) {
+            return new PendingWrite<>(dbUrl, id, newOperation, entity, sequence, attempts);
+        }
+
+        PendingWrite<T> nextAttempt() {
+            return new PendingWrite<>(dbUrl, id, operation, entity, sequence, attempts + 1);
+        }
+    }
+
+    private final DatabaseRepository<T> repository;
+    private final WriteBehindConfig config;
+    private final Consumer<List<String>> droppedWritesListener;
+    private final Thread writerThread;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition workAvailable = lock.newCondition();
+    private final Condition spaceAvailable = lock.newCondition();
+    private final Condition progress = lock.newCondition();
+
+    // Pending writes in sequence order, keyed by database URL and ID: a merged write moves to the end
+    private final LinkedHashMap<String, PendingWrite<T>> pending = new LinkedHashMap<>();
+    // Writes taken by the writer thread but not committed yet
+    private final Map<String, PendingWrite<T>> inFlight = new LinkedHashMap<>();
+
+    private long nextSequence = 1;
+    private long committedSequence = 0;
+    private long oldestPendingSince = 0;
+    private long retryNotBefore = 0;
+    private int flushRequests = 0;
+    private SQLException lastFailure;
+    private boolean closed = false;
+
+    /**
+     * Create a queue and start its writer thread
+     *
+     * @param name Name used for the writer thread
+     * @param repository The repository writes are applied to
+     * @param config Batch size, delay and capacity settings
+     */
+    public WriteBehindQueue(String name, DatabaseRepository<T> repository, WriteBehindConfig config) {
+        this(name, repository, config, ids -> { });
+    }
+
+    /**
+     * Create a queue and start its writer thread
+     *
+     * @param name Name used for the writer thread
+     * @param repository The repository writes are applied to
+     * @param config Batch size, delay, capacity and retry settings
+     * @param droppedWritesListener Called with the IDs whose writes were given up after their
+     *        last retry. It runs while no write can be queued, so it can reload those IDs from
+     *        the database without racing a newer write.
+     */
+    public WriteBehindQueue(String name, DatabaseRepository<T> repository, WriteBehindConfig config,
+            Consumer<List<String>> droppedWritesListener) {
+        this.repository = repository;
+        this.config = config;
+        this.droppedWritesListener = droppedWritesListener;
+        this.writerThread = new Thread(this::runWriter, "write-behind-" + name);
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Queue a save (insert or update) of an entity
+     */
+    public void enqueueSave(String id, T entity) throws SQLException {
+        enqueue(id, Operation.SAVE, entity);
+    }
+
+    /**
+     * Queue an update of an existing entity
+     */
+    public void enqueueUpdate(String id, T entity) throws SQLException {
+        enqueue(id, Operation.UPDATE, entity);
+    }
+
+    /**
+     * Queue a delete
+     */
+    public void enqueueDelete(String id) throws SQLException {
+        enqueue(id, Operation.DELETE, null);
+    }
+
+    /**
+     * Check whether the latest queued or in-flight write for an ID is a delete,
+     * meaning the database may still hold a row that no longer exists for callers
+     */
+    public boolean isPendingDelete(String id) {
+        lock.lock();
+        try {
+            PendingWrite<T> write = findWrite(id);
+            return write != null && write.operation == Operation.DELETE;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the entity of the latest queued or in-flight save or update for an ID,
+     * or null if there is none or the latest write is a delete
+     */
+    public T getPendingEntity(String id) {
+        lock.lock();
+        try {
+            PendingWrite<T> write = findWrite(id);
+            return write != null ? write.entity : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of IDs waiting to be written
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return pending.size() + inFlight.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until every write queued before this call has been committed.
+     * Throws the failure of any batch that failed since the previous flush.
+     */
+    public void flush() throws SQLException {
+        checkNotInTransaction("flush the write-behind queue");
+        lock.lock();
+        try {
+            long target = nextSequence - 1;
+            flushRequests++;
+            workAvailable.signal();
+            try {
+                while (committedSequence < target && lastFailure == null && writerThread.isAlive()) {
+                    progress.await();
+                }
+            } finally {
+                flushRequests--;
+            }
+
+            if (lastFailure != null) {
+                SQLException failure = lastFailure;
+                lastFailure = null;
+                throw failure;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while flushing write-behind queue", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flush outstanding writes and stop the writer thread
+     */
+    public void close() throws SQLException {
+        try {
+            flush();
+        } finally {
+            lock.lock();
+            try {
+                closed = true;
+                workAvailable.signal();
+                spaceAvailable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void enqueue(String id, Operation operation, T entity) throws SQLException {
+        checkNotInTransaction("queue a write-behind write");
+        String dbUrl = DatabaseManager.getInstance().getCurrentDbUrl();
+        String key = key(dbUrl, id);
+        lock.lock();
+        try {
+            if (closed) {
+                throw new SQLException("Write-behind queue is closed");
+            }
+
+            PendingWrite<T> previous = pending.get(key);
+
+            // Backpressure: a new ID needs a free slot, merging into a pending one does not.
+            // Writes being committed still hold their slot.
+            while (previous == null && pending.size() + inFlight.size() >= config.getQueueCapacity()) {
+                spaceAvailable.await();
+                if (closed) {
+                    throw new SQLException("Write-behind queue is closed");
+                }
+                previous = pending.get(key);
+            }
+
+            // An update of an entity that is not written yet must still insert it
+            if (operation == Operation.UPDATE && previous != null && previous.operation == Operation.SAVE) {
+                operation = Operation.SAVE;
+            }
+
+            if (previous != null) {
+                pending.remove(key);
+            }
+            if (pending.isEmpty()) {
+                oldestPendingSince = System.nanoTime();
+            }
+            pending.put(key, new PendingWrite<>(dbUrl, id, operation, entity, nextSequence++));
+
+            if (pending.size() >= config.getMaxBatchSize() || pending.size() == 1) {
+                workAvailable.signal();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for space in write-behind queue", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writer thread: wait for a full batch, the delay to expire or a flush, then commit a batch
+     */
+    private void runWriter() {
+        while (true) {
+            List<PendingWrite<T>> batch;
+            long batchSequence;
+
+            lock.lock();
+            try {
+                while (!readyToWrite()) {
+                    if (closed && pending.isEmpty()) {
+                        progress.signalAll();
+                        return;
+                    }
+                    if (pending.isEmpty()) {
+                        workAvailable.await();
+                    } else {
+                        long now = System.nanoTime();
+                        long waitNanos = TimeUnit.MILLISECONDS.toNanos(config.getMaxDelayMillis())
+                                - (now - oldestPendingSince);
+                        workAvailable.awaitNanos(Math.max(Math.max(waitNanos, retryNotBefore - now), 1));
+                    }
+                }
+
+                batch = takeBatch();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            List<PendingWrite<T>> failed = new ArrayList<>();
+            SQLException failure = null;
+            try {
+                writeBatch(batch);
+            } catch (SQLException | RuntimeException e) {
+                failure = asSqlException(e);
+                if (batch.size() == 1) {
+                    failed.addAll(batch);
+                } else {
+                    // Find the writes that fail on their own; the others commit now
+                    for (PendingWrite<T> write : batch) {
+                        try {
+                            writeBatch(List.of(write));
+                        } catch (SQLException | RuntimeException writeFailure) {
+                            failure = asSqlException(writeFailure);
+                            failed.add(write);
+                        }
+                    }
+                }
+                System.err.println("Write-behind batch of " + batch.size() + " writes failed, "
+                        + failed.size() + " will be retried or dropped: " + failure.getMessage());
+            }
+
+            lock.lock();
+            try {
+                for (PendingWrite<T> write : batch) {
+                    inFlight.remove(write.key());
+                }
+                if (!failed.isEmpty()) {
+                    handleFailedWrites(failed, failure);
+                }
+                committedSequence = pending.isEmpty() ? nextSequence - 1 : pending.values().iterator().next().sequence - 1;
+                progress.signalAll();
+                spaceAvailable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Queue failed writes again, or give up on the ones out of retries.
+     * A write superseded by a newer one for the same ID is not retried; the newer write carries
+     * the latest state, but must now insert the entity if the failed write was its insert.
+     */
+    private void handleFailedWrites(List<PendingWrite<T>> failed, SQLException failure) {
+        List<PendingWrite<T>> retries = new ArrayList<>();
+        List<String> dropped = new ArrayList<>();
+        for (PendingWrite<T> write : failed) {
+            PendingWrite<T> newer = pending.get(write.key());
+            if (newer != null) {
+                if (write.operation == Operation.SAVE && newer.operation == Operation.UPDATE) {
+                    pending.put(write.key(), newer.withOperation(Operation.SAVE));
+                }
+            } else if (write.attempts < config.getMaxRetries()) {
+                retries.add(write.nextAttempt());
+            } else {
+                dropped.add(write.id);
+            }
+        }
+
+        if (!retries.isEmpty()) {
+            // Retries keep their sequence and go first, so pending stays in sequence order
+            LinkedHashMap<String, PendingWrite<T>> reordered = new LinkedHashMap<>();
+            for (PendingWrite<T> write : retries) {
+                reordered.put(write.key(), write);
+            }
+            reordered.putAll(pending);
+            pending.clear();
+            pending.putAll(reordered);
+            retryNotBefore = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getRetryDelayMillis());
+        }
+
+        if (!dropped.isEmpty()) {
+            System.err.println("Dropping " + dropped.size() + " write-behind writes after "
+                    + config.getMaxRetries() + " retries: " + failure.getMessage());
+            lastFailure = failure;
+            try {
+                droppedWritesListener.accept(dropped);
+            } catch (RuntimeException e) {
+                System.err.println("Error handling dropped write-behind writes: " + e.getMessage());
+            }
+        }
+    }
+
+    private static SQLException asSqlException(Exception e) {
+        if (e instanceof SQLException) {
+            return (SQLException) e;
+        }
+        return new SQLException("Write-behind batch failed: " + e.getMessage(), e);
+    }
+
+    private static String key(String dbUrl, String id) {
+        return dbUrl + '\n' + id;
+    }
+
+    /**
+     * Find the latest queued or in-flight write for an ID in the current database
+     */
+    private PendingWrite<T> findWrite(String id) {
+        String key = key(DatabaseManager.getInstance().getCurrentDbUrl(), id);
+        PendingWrite<T> write = pending.get(key);
+        return write != null ? write : inFlight.get(key);
+    }
+
+    /**
+     * Refuse to queue or flush on a thread in a transaction: a queued write would be committed
+     * outside it, and a flush would wait for the writer connection this thread holds
+     */
+    private void checkNotInTransaction(String action) {
+        if (DatabaseManager.getInstance().getCurrentUnitOfWork() != null) {
+            throw new IllegalStateException("Cannot " + action + " inside a transaction: queued writes "
+                    + "are committed by the writer thread, outside this transaction");
+        }
+    }
+
+    private boolean readyToWrite() {
+        if (pending.isEmpty() || System.nanoTime() - retryNotBefore < 0) {
+            return false;
+        }
+        if (closed || flushRequests > 0 || pending.size() >= config.getMaxBatchSize()) {
+            return true;
+        }
+        long waitedNanos = System.nanoTime() - oldestPendingSince;
+        return waitedNanos >= TimeUnit.MILLISECONDS.toNanos(config.getMaxDelayMillis());
+    }
+
+    /**
+     * Move up to one batch of the oldest pending writes into the in-flight set.
+     * A batch stops at the first write for another database, so writes keep their order.
+     */
+    private List<PendingWrite<T>> takeBatch() {
+        List<PendingWrite<T>> batch = new ArrayList<>(Math.min(pending.size(), config.getMaxBatchSize()));
+        Iterator<PendingWrite<T>> iterator = pending.values().iterator();
+        while (iterator.hasNext() && batch.size() < config.getMaxBatchSize()) {
+            PendingWrite<T> write = iterator.next();
+            if (!batch.isEmpty() && !write.dbUrl.equals(batch.get(0).dbUrl)) {
+                break;
+            }
+            iterator.remove();
+            inFlight.put(write.key(), write);
+            batch.add(write);
+        }
+        oldestPendingSince = System.nanoTime();
+        return batch;
+    }
+
+    /**
+     * Commit one batch in a single transaction on its database using the repository's bulk
+     * operations. A batch holds at most one write per ID, so grouping by operation keeps the
+     * result the same.
+     */
+    private void writeBatch(List<PendingWrite<T>> batch) throws SQLException {
+        List<T> saves = new ArrayList<>();
+        List<T> updates = new ArrayList<>();
+        List<String> deletes = new ArrayList<>();
+        for (PendingWrite<T> write : batch) {
+            switch (write.operation) {
+                case SAVE:
+                    saves.add(write.entity);
+                    break;
+                case UPDATE:
+                    updates.add(write.entity);
+                    break;
+                case DELETE:
+                    deletes.add(write.id);
+                    break;
+            }
+        }
+
+        DatabaseManager.getInstance().runInTransaction(batch.get(0).dbUrl, unitOfWork -> {
+            repository.deleteAll(deletes);
+            repository.saveAll(saves);
+            repository.updateAll(updates);
+        });
+    }
+}
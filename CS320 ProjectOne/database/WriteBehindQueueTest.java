@@ -0,0 +1,304 @@
+package database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WriteBehindQueueTest {
+
+    private final DatabaseManager dbManager = DatabaseManager.getInstance();
+    private String testDbUrl;
+    private RecordingRepository repository;
+    private final List<String> dropped = Collections.synchronizedList(new ArrayList<>());
+    private WriteBehindQueue<String> queue;
+
+    @BeforeEach
+    void createDatabase() throws SQLException {
+        testDbUrl = dbManager.createTestDatabase("write_behind");
+        repository = new RecordingRepository();
+    }
+
+    @AfterEach
+    void deleteDatabase() throws SQLException {
+        repository.release.countDown();
+        if (queue != null) {
+            try {
+                queue.close();
+            } catch (SQLException e) {
+                // Failures are asserted by the tests themselves
+            }
+        }
+        dbManager.deleteTestDatabase(testDbUrl);
+    }
+
+    private WriteBehindQueue<String> createQueue(WriteBehindConfig config) {
+        queue = new WriteBehindQueue<>("test", repository, config, dropped::addAll);
+        return queue;
+    }
+
+    @Test
+    void testWritesToSameIdAreMerged() throws SQLException {
+        createQueue(new WriteBehindConfig().setMaxDelayMillis(60_000));
+
+        queue.enqueueSave("a", "a:1");
+        queue.enqueueUpdate("a", "a:2");
+        queue.enqueueSave("b", "b:1");
+        queue.enqueueSave("c", "c:1");
+        queue.enqueueDelete("c");
+        queue.flush();
+
+        // The update of an unwritten entity still inserts it, with its latest state
+        assertEquals(List.of("a:2", "b:1"), repository.saved);
+        assertEquals(List.of(), repository.updated);
+        assertEquals(List.of("c"), repository.deleted);
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void testWritesInFlightCountTowardsCapacity() throws Exception {
+        createQueue(new WriteBehindConfig().setMaxBatchSize(1).setMaxDelayMillis(0).setQueueCapacity(2));
+        repository.blockWrites = true;
+
+        queue.enqueueSave("a", "a:1");
+        assertTrue(repository.writing.await(5, TimeUnit.SECONDS));
+        queue.enqueueSave("b", "b:1");
+
+        Thread blocked = new Thread(() -> {
+            try {
+                queue.enqueueSave("c", "c:1");
+            } catch (SQLException e) {
+                fail(e);
+            }
+        });
+        blocked.start();
+        blocked.join(300);
+        assertTrue(blocked.isAlive(), "A third ID must wait while one write is in flight and one is pending");
+
+        repository.release.countDown();
+        blocked.join(5_000);
+        assertFalse(blocked.isAlive());
+        queue.flush();
+        assertEquals(List.of("a:1", "b:1", "c:1"), repository.saved);
+    }
+
+    @Test
+    void testFailingWriteIsDroppedWithoutLosingTheRestOfItsBatch() throws SQLException {
+        createQueue(new WriteBehindConfig().setMaxDelayMillis(60_000).setMaxRetries(2).setRetryDelayMillis(0));
+        repository.poison = "bad";
+
+        queue.enqueueSave("good1", "good1:1");
+        queue.enqueueSave("bad", "bad:1");
+        queue.enqueueSave("good2", "good2:1");
+
+        assertThrows(SQLException.class, queue::flush);
+        assertEquals(List.of("good1:1", "good2:1"), repository.saved);
+        assertEquals(List.of("bad"), dropped);
+        // One batch, one write on its own, then two retries
+        assertEquals(4, repository.poisonAttempts.get());
+
+        // The failure is reported once
+        queue.flush();
+    }
+
+    @Test
+    void testTransientFailureIsRetried() throws SQLException {
+        createQueue(new WriteBehindConfig().setMaxDelayMillis(0).setMaxRetries(3).setRetryDelayMillis(10));
+        repository.failuresLeft.set(2);
+
+        queue.enqueueSave("a", "a:1");
+        queue.flush();
+
+        assertEquals(List.of("a:1"), repository.saved);
+        assertEquals(List.of(), dropped);
+    }
+
+    @Test
+    void testFlushInsideTransactionIsRefused() throws SQLException {
+        createQueue(new WriteBehindConfig().setMaxDelayMillis(60_000));
+        queue.enqueueSave("a", "a:1");
+
+        dbManager.runInTransaction(unitOfWork ->
+                assertThrows(IllegalStateException.class, queue::flush));
+
+        queue.flush();
+        assertEquals(List.of("a:1"), repository.saved);
+    }
+
+    @Test
+    void testWriteInsideTransactionIsRefused() throws SQLException {
+        createQueue(new WriteBehindConfig().setMaxDelayMillis(60_000));
+
+        // Committed later by the writer thread, the write would escape the transaction
+        dbManager.runInTransaction(unitOfWork ->
+                assertThrows(IllegalStateException.class, () -> queue.enqueueSave("a", "a:1")));
+
+        queue.flush();
+        assertEquals(List.of(), repository.saved);
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void testWriteGoesToTheDatabaseCurrentWhenQueued() throws SQLException {
+        createQueue(new WriteBehindConfig().setMaxDelayMillis(60_000));
+        queue.enqueueSave("a", "a:1");
+        assertEquals("a:1", queue.getPendingEntity("a"));
+
+        String otherDbUrl = dbManager.createTestDatabase("write_behind_other");
+        try {
+            // Pending writes belong to the database they were queued for
+            assertNull(queue.getPendingEntity("a"));
+            queue.enqueueSave("b", "b:1");
+            queue.flush();
+        } finally {
+            dbManager.deleteTestDatabase(otherDbUrl);
+            dbManager.initialize(testDbUrl);
+        }
+
+        assertEquals(List.of("a:1", "b:1"), repository.saved);
+        assertEquals(List.of(testDbUrl, otherDbUrl), repository.savedToUrls);
+    }
+
+    /**
+     * Records the bulk writes made by the queue and fails or blocks them on request
+     */
+    private static final class RecordingRepository implements DatabaseRepository<String> {
+        final List<String> saved = Collections.synchronizedList(new ArrayList<>());
+        final List<String> updated = Collections.synchronizedList(new ArrayList<>());
+        final List<String> deleted = Collections.synchronizedList(new ArrayList<>());
+        final List<String> savedToUrls = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger failuresLeft = new AtomicInteger();
+        final AtomicInteger poisonAttempts = new AtomicInteger();
+        volatile boolean blockWrites = false;
+        volatile String poison;
+
+        @Override
+        public void saveAll(Collection<String> entities) throws SQLException {
+            writing.countDown();
+            if (blockWrites) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (failuresLeft.getAndUpdate(n -> Math.max(n - 1, 0)) > 0) {
+                throw new SQLException("Database is locked");
+            }
+            for (String entity : entities) {
+                if (poison != null && entity.startsWith(poison + ":")) {
+                    poisonAttempts.incrementAndGet();
+                    throw new SQLException("Constraint failed for " + entity);
+                }
+            }
+            saved.addAll(entities);
+            savedToUrls.add(DatabaseManager.getInstance().getCurrentDbUrl());
+        }
+
+        @Override
+        public void updateAll(Collection<String> entities) {
+            updated.addAll(entities);
+        }
+
+        @Override
+        public void deleteAll(Collection<String> ids) {
+            deleted.addAll(ids);
+        }
+
+        @Override
+        public void initialize() {
+        }
+
+        @Override
+        public void save(String entity) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void update(String entity) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void delete(String id) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String findById(String id) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<String> findAll() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<String> findPage(String afterId, int limit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Stream<String> streamAll() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void forEach(Consumer<String> action) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void forEachId(Consumer<String> action) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long[] getRowIdBounds() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void forEachInRowIdRange(long fromRowId, long toRowId, Consumer<String> action) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long forEachChangeSince(long sinceVersion, Consumer<String> changed, Consumer<String> deleted) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean exists(String id) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<String> findAllById(Collection<String> ids) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<String> listIndexes() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package database.cache;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Answers "does this ID exist?" with "definitely not" where it can, so lookups of new IDs do
+ * not need a query.
+ *
+ * Two sources are consulted. A {@link BloomFilter} of every stored ID is built from a scan of
+ * the IDs and then kept current by {@link #recordPresent(String)}; once built, an ID it has
+ * never seen definitely does not exist. Stored IDs are never removed from it, so a deleted ID
+ * only costs a query. A small negative-result cache remembers IDs that a query or a delete
+ * found missing, for a short time.
+ *
+ * The filter only knows about writes reported to it. Rows inserted by another process are
+ * reported when a change sync or a lookup reads them, so until then they can be answered as
+ * absent; the negative cache's TTL bounds the same staleness for IDs looked up before.
+ */
+public class AbsenceFilter {
+
+    /**
+     * Passes every stored ID to an action
+     */
+    public interface IdSource {
+        void forEachId(Consumer<String> action) throws SQLException;
+    }
+
+    // Smallest number of IDs a Bloom filter is sized for
+    private static final long MINIMUM_EXPECTED_IDS = 1024;
+
+    private final double falsePositiveRate;
+    private final EntityCache<Boolean> negatives;
+    private final AbsenceStats stats = new AbsenceStats(this);
+
+    // Null until the first rebuild has finished
+    private volatile BloomFilter bloom;
+    // The filter being filled by a rebuild, or null
+    private volatile BloomFilter building;
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    // Incremented by every recordPresent, so a slow lookup can tell a write overtook it
+    private final AtomicLong presentCount = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param falsePositiveRate Target false positive rate of the Bloom filter, or 0 for no Bloom filter
+     * @param negativeTtlMillis How long a missing ID is remembered, or 0 for no negative cache
+     * @param negativeMaximumSize The most missing IDs remembered at once
+     */
+    public AbsenceFilter(double falsePositiveRate, long negativeTtlMillis, long negativeMaximumSize) {
+        if (falsePositiveRate < 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Invalid false positive rate");
+        }
+        this.falsePositiveRate = falsePositiveRate;
+        this.negatives = negativeTtlMillis > 0
+                ? EntityCache.create(new CacheConfig<Boolean>()
+                        .setMaximumSize(negativeMaximumSize)
+                        .setExpireAfterWriteMillis(negativeTtlMillis)
+                        .setEvictionPolicy(LruPolicy::new))
+                : null;
+    }
+
+    /**
+     * Create a filter with the Bloom filter and negative cache settings of a cache config
+     */
+    public static AbsenceFilter create(CacheConfig<?> config) {
+        return new AbsenceFilter(config.getBloomFilterFalsePositiveRate(),
+                config.getNegativeCacheTtlMillis(), config.getNegativeCacheMaximumSize());
+    }
+
+    /**
+     * Check whether an ID is known not to exist, so a query for it can be skipped
+     */
+    public boolean isDefinitelyAbsent(String id) {
+        BloomFilter current = bloom;
+        boolean bloomPassed = current != null && current.mightContain(id);
+        if (current != null && !bloomPassed) {
+            stats.bloomRejections.increment();
+            return true;
+        }
+
+        if (negatives != null && negatives.containsKey(id)) {
+            stats.negativeHits.increment();
+            if (bloomPassed) {
+                stats.falsePositives.increment();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get a ticket to pass to {@link #recordLookup(String, boolean, long)}, taken before querying
+     */
+    public long beginLookup() {
+        return presentCount.get();
+    }
+
+    /**
+     * Report the result of a query made after {@link #isDefinitelyAbsent(String)} returned false
+     *
+     * @param id The ID looked up
+     * @param found Whether the query found it
+     * @param ticket The value of {@link #beginLookup()} taken before the query
+     */
+    public void recordLookup(String id, boolean found, long ticket) {
+        if (bloom != null) {
+            if (found) {
+                stats.truePositives.increment();
+            } else {
+                stats.falsePositives.increment();
+            }
+        }
+
+        if (found) {
+            // Possibly written by another process since the filter was built
+            recordPresent(id);
+        } else if (negatives != null) {
+            negatives.put(id, Boolean.TRUE);
+            // A write that ran during the query may have been missed by it; recordPresent
+            // increments before it removes, so checking after the put cannot miss a write
+            if (presentCount.get() != ticket) {
+                negatives.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Report that an ID has been stored. Call after the write is committed or queued.
+     */
+    public void recordPresent(String id) {
+        presentCount.incrementAndGet();
+        if (negatives != null) {
+            negatives.remove(id);
+        }
+
+        // Read the rebuild target first: if it is already gone, bloom is the rebuilt filter
+        BloomFilter next = building;
+        BloomFilter current = bloom;
+        if (current != null) {
+            current.put(id);
+        }
+        if (next != null) {
+            next.put(id);
+        }
+    }
+
+    /**
+     * Report that an ID has been deleted
+     */
+    public void recordAbsent(String id) {
+        if (negatives != null) {
+            negatives.put(id, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Build a new Bloom filter from every stored ID and swap it in.
+     * IDs reported to {@link #recordPresent(String)} while the source runs are added too, so
+     * the source only has to see writes committed before it starts. Does nothing if another
+     * rebuild is running or the Bloom filter is disabled.
+     *
+     * @param expectedIds Estimated number of stored IDs
+     * @param source Reads the stored IDs
+     */
+    public void rebuild(long expectedIds, IdSource source) throws SQLException {
+        if (falsePositiveRate == 0 || !rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            // Leave room to grow, and never size below the last filter's contents
+            BloomFilter current = bloom;
+            long previous = current != null ? current.getInsertions() : 0;
+            long expected = Math.max(MINIMUM_EXPECTED_IDS, 2 * Math.max(expectedIds, previous));
+
+            BloomFilter next = new BloomFilter(expected, falsePositiveRate);
+            building = next;
+            source.forEachId(next::put);
+            bloom = next;
+        } finally {
+            building = null;
+            rebuilding.set(false);
+        }
+    }
+
+    /**
+     * Check whether the Bloom filter holds more IDs than it was sized for and should be rebuilt
+     */
+    public boolean needsRebuild() {
+        BloomFilter current = bloom;
+        return current != null && !rebuilding.get()
+                && current.getInsertions() > current.getExpectedInsertions();
+    }
+
+    /**
+     * Check whether the Bloom filter has been built and is answering lookups
+     */
+    public boolean isBloomFilterReady() {
+        return bloom != null;
+    }
+
+    /**
+     * Get the lookup and false positive counters
+     */
+    public AbsenceStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Forget every ID; lookups go to the database until the next rebuild
+     */
+    public void clear() {
+        bloom = null;
+        if (negatives != null) {
+            negatives.clear();
+        }
+    }
+
+    double getExpectedFalsePositiveRate() {
+        BloomFilter current = bloom;
+        return current != null ? current.getExpectedFalsePositiveRate() : 0.0;
+    }
+}
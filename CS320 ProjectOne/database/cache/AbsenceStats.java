@@ -0,0 +1,80 @@
+package database.cache;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of an {@link AbsenceFilter}: lookups it answered without SQL, and how often
+ * its Bloom filter let through an ID that turned out not to exist
+ */
+public class AbsenceStats {
+
+    final LongAdder bloomRejections = new LongAdder();
+    final LongAdder negativeHits = new LongAdder();
+    final LongAdder falsePositives = new LongAdder();
+    final LongAdder truePositives = new LongAdder();
+
+    private final AbsenceFilter filter;
+
+    AbsenceStats(AbsenceFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Lookups the Bloom filter answered as definitely absent
+     */
+    public long getBloomRejections() {
+        return bloomRejections.sum();
+    }
+
+    /**
+     * Lookups answered as absent from the negative-result cache
+     */
+    public long getNegativeHits() {
+        return negativeHits.sum();
+    }
+
+    /**
+     * Lookups the Bloom filter passed on for IDs that did not exist
+     */
+    public long getFalsePositives() {
+        return falsePositives.sum();
+    }
+
+    /**
+     * Lookups the Bloom filter passed on for IDs that did exist
+     */
+    public long getTruePositives() {
+        return truePositives.sum();
+    }
+
+    /**
+     * Get the number of lookups that did not need SQL
+     */
+    public long getLookupsAvoided() {
+        return getBloomRejections() + getNegativeHits();
+    }
+
+    /**
+     * Fraction of lookups of missing IDs the Bloom filter failed to reject, or 0 if there were none
+     */
+    public double getFalsePositiveRate() {
+        long falsePositiveCount = getFalsePositives();
+        long total = falsePositiveCount + getBloomRejections();
+        return total == 0 ? 0.0 : (double) falsePositiveCount / total;
+    }
+
+    /**
+     * False positive rate the Bloom filter should have at its current fill, or 0 if there is no filter yet
+     */
+    public double getExpectedFalsePositiveRate() {
+        return filter.getExpectedFalsePositiveRate();
+    }
+
+    @Override
+    public String toString() {
+        return "bloomRejections=" + getBloomRejections() + " negativeHits=" + getNegativeHits()
+                + " falsePositives=" + getFalsePositives() + " truePositives=" + getTruePositives()
+                + String.format(" falsePositiveRate=%.4f expectedFalsePositiveRate=%.4f",
+                        getFalsePositiveRate(), getExpectedFalsePositiveRate());
+    }
+}
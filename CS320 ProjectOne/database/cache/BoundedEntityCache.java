@@ -0,0 +1,294 @@
+package database.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+/**
+ * A cache with a maximum total weight and optional expiry after write.
+ *
+ * Values live in a ConcurrentHashMap, so reads never block. The eviction policy and the total
+ * weight are guarded by a lock that writes always take. A read only reports its access to the
+ * policy when the lock is free; under contention some accesses go unrecorded, which makes the
+ * policy slightly less accurate but keeps readers from queueing behind writers.
+ */
+class BoundedEntityCache<V> implements EntityCache<V> {
+
+    /**
+     * A cached value with its weight and write time
+     */
+    private static final class Node<V> {
+        final V value;
+        final long weight;
+        final long writtenAt;
+
+        Node(V value, long weight, long writtenAt) {
+            this.value = value;
+            this.weight = weight;
+            this.writtenAt = writtenAt;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Node<V>> entries = new ConcurrentHashMap<>();
+    private final CacheStats stats = new CacheStats();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final EvictionPolicy policy;
+    private final ToLongFunction<? super V> weigher;
+    private final long maximumWeight;
+    private final long expireAfterWriteNanos;
+
+    // Guarded by lock
+    private long totalWeight = 0;
+    private long modifications = 0;
+    private long lastExpirySweep = System.nanoTime();
+
+    BoundedEntityCache(CacheConfig<V> config) {
+        this.maximumWeight = config.getMaximumWeight() > 0 ? config.getMaximumWeight() : Long.MAX_VALUE;
+        this.weigher = config.getWeigher();
+        this.expireAfterWriteNanos = config.getExpireAfterWriteMillis() > 0
+                ? TimeUnit.MILLISECONDS.toNanos(config.getExpireAfterWriteMillis()) : -1;
+        this.policy = config.getEvictionPolicy().create(maximumWeight);
+    }
+
+    @Override
+    public V get(String id) {
+        Node<V> node = entries.get(id);
+        if (node == null) {
+            stats.misses.increment();
+            return null;
+        }
+        if (isExpired(node, System.nanoTime())) {
+            removeNode(id, node);
+            stats.expirations.increment();
+            stats.misses.increment();
+            return null;
+        }
+
+        stats.hits.increment();
+        if (lock.tryLock()) {
+            try {
+                if (entries.get(id) == node) {
+                    policy.onAccess(id);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return node.value;
+    }
+
+    @Override
+    public boolean containsKey(String id) {
+        Node<V> node = entries.get(id);
+        return node != null && !isExpired(node, System.nanoTime());
+    }
+
+    @Override
+    public void put(String id, V value) {
+        long weight = weigher.applyAsLong(value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("Negative weight for " + id);
+        }
+
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            Node<V> old = entries.get(id);
+
+            // An entity heavier than the whole cache is not kept
+            if (weight > maximumWeight) {
+                if (old != null) {
+                    removeLocked(id);
+                }
+                return;
+            }
+
+            entries.put(id, new Node<>(value, weight, now));
+            modifications++;
+            if (old == null) {
+                policy.onInsert(id, weight);
+            } else {
+                totalWeight -= old.weight;
+                policy.onUpdate(id, old.weight, weight);
+            }
+            totalWeight += weight;
+
+            expireIfDue(now);
+            evictToMaximum();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void replaceIfPresent(String id, V value) {
+        lock.lock();
+        try {
+            if (entries.containsKey(id)) {
+                put(id, value);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(String id) {
+        lock.lock();
+        try {
+            removeLocked(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void retainAll(Set<String> ids) {
+        lock.lock();
+        try {
+            for (String id : new ArrayList<>(entries.keySet())) {
+                if (!ids.contains(id)) {
+                    removeLocked(id);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<V> values() {
+        long now = System.nanoTime();
+        List<V> values = new ArrayList<>(entries.size());
+        for (Node<V> node : entries.values()) {
+            if (!isExpired(node, now)) {
+                values.add(node.value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Build a new snapshot on every call; entries expire without a write, so one cannot be reused
+     */
+    @Override
+    public CacheSnapshot<V> snapshot() {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            Map<String, V> live = new HashMap<>();
+            for (Map.Entry<String, Node<V>> entry : entries.entrySet()) {
+                if (!isExpired(entry.getValue(), now)) {
+                    live.put(entry.getKey(), entry.getValue().value);
+                }
+            }
+            return new CacheSnapshot<>(modifications, live);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+            policy.clear();
+            totalWeight = 0;
+            modifications++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Get the total weight of the cached entities
+     */
+    long getTotalWeight() {
+        lock.lock();
+        try {
+            return totalWeight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isExpired(Node<V> node, long now) {
+        return expireAfterWriteNanos > 0 && now - node.writtenAt >= expireAfterWriteNanos;
+    }
+
+    private void removeNode(String id, Node<V> node) {
+        lock.lock();
+        try {
+            if (entries.get(id) == node) {
+                removeLocked(id);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void removeLocked(String id) {
+        Node<V> node = entries.remove(id);
+        if (node != null) {
+            totalWeight -= node.weight;
+            policy.onRemove(id);
+            modifications++;
+        }
+    }
+
+    private void evictToMaximum() {
+        while (totalWeight > maximumWeight) {
+            String victim = policy.nextVictim();
+            if (victim == null) {
+                break;
+            }
+            Node<V> node = entries.remove(victim);
+            if (node != null) {
+                totalWeight -= node.weight;
+                stats.evictions.increment();
+                modifications++;
+            }
+            policy.onRemove(victim);
+        }
+    }
+
+    /**
+     * Expired entries that are never read again are dropped by a sweep at most once per expiry period
+     */
+    private void expireIfDue(long now) {
+        if (expireAfterWriteNanos <= 0 || now - lastExpirySweep < expireAfterWriteNanos) {
+            return;
+        }
+        lastExpirySweep = now;
+
+        Iterator<Map.Entry<String, Node<V>>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Node<V>> entry = iterator.next();
+            if (isExpired(entry.getValue(), now)) {
+                iterator.remove();
+                totalWeight -= entry.getValue().weight;
+                policy.onRemove(entry.getKey());
+                stats.expirations.increment();
+                modifications++;
+            }
+        }
+    }
+}
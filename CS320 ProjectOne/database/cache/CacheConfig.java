@@ -0,0 +1,246 @@
+package database.cache;
+
+import java.nio.file.Path;
+import java.util.function.ToLongFunction;
+
+import database.ConnectionTopology;
+
+/**
+ * Configuration for the entity cache of a {@link database.ServiceHelper}.
+ * The default is the original behaviour: every row is loaded at startup and nothing is evicted.
+ * Setters return this config so settings can be chained.
+ *
+ * @param <T> The cached entity type
+ */
+public class CacheConfig<T> {
+
+    private long maximumWeight = -1;
+    private ToLongFunction<? super T> weigher = entity -> 1;
+    private long expireAfterWriteMillis = -1;
+    private EvictionPolicy.Factory evictionPolicy = TinyLfuPolicy::new;
+    private boolean preload = true;
+    private boolean warmUpInBackground = false;
+    private int warmUpParallelism = ConnectionTopology.defaultReaderCount();
+    private double bloomFilterFalsePositiveRate = 0;
+    private long negativeCacheTtlMillis = 0;
+    private long negativeCacheMaximumSize = 10_000;
+    private long changePollMillis = -1;
+    private Path snapshotFile;
+    private long snapshotIntervalMillis = -1;
+
+    /**
+     * Keep at most this many entities
+     */
+    public CacheConfig<T> setMaximumSize(long maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Invalid maximum size");
+        }
+        this.maximumWeight = maximumSize;
+        this.weigher = entity -> 1;
+        return this;
+    }
+
+    /**
+     * Keep entities up to a total weight, for example an estimate of their size in bytes
+     *
+     * @param maximumWeight The maximum total weight
+     * @param weigher Computes the weight of one entity; must not change while it is cached
+     */
+    public CacheConfig<T> setMaximumWeight(long maximumWeight, ToLongFunction<? super T> weigher) {
+        if (maximumWeight < 1) {
+            throw new IllegalArgumentException("Invalid maximum weight");
+        }
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+        return this;
+    }
+
+    /**
+     * Drop entities this long after they were loaded or written
+     */
+    public CacheConfig<T> setExpireAfterWriteMillis(long expireAfterWriteMillis) {
+        if (expireAfterWriteMillis < 1) {
+            throw new IllegalArgumentException("Invalid expiry");
+        }
+        this.expireAfterWriteMillis = expireAfterWriteMillis;
+        return this;
+    }
+
+    /**
+     * Choose which entities are evicted when the cache is full (W-TinyLFU by default)
+     */
+    public CacheConfig<T> setEvictionPolicy(EvictionPolicy.Factory evictionPolicy) {
+        this.evictionPolicy = evictionPolicy;
+        return this;
+    }
+
+    /**
+     * Whether to load every row into the cache at startup. Without a preload, entities are
+     * loaded on first use by getById.
+     */
+    public CacheConfig<T> setPreload(boolean preload) {
+        this.preload = preload;
+        return this;
+    }
+
+    /**
+     * Preload in the background instead of in the constructor. Until the load finishes,
+     * reads that miss the cache go to the database.
+     */
+    public CacheConfig<T> setWarmUpInBackground(boolean warmUpInBackground) {
+        this.warmUpInBackground = warmUpInBackground;
+        return this;
+    }
+
+    /**
+     * Number of table chunks loaded at the same time during a background warm-up
+     */
+    public CacheConfig<T> setWarmUpParallelism(int warmUpParallelism) {
+        if (warmUpParallelism < 1) {
+            throw new IllegalArgumentException("Invalid warm-up parallelism");
+        }
+        this.warmUpParallelism = warmUpParallelism;
+        return this;
+    }
+
+    /**
+     * Target false positive rate of the ID Bloom filter that lets lookups of new IDs skip the
+     * database, or 0 (the default) to turn it off. The filter only learns of rows inserted
+     * elsewhere through change sync or lookups, so enable it only when this helper makes every
+     * insert or polls for changes with {@link #setChangePollMillis(long)}.
+     */
+    public CacheConfig<T> setBloomFilterFalsePositiveRate(double bloomFilterFalsePositiveRate) {
+        if (bloomFilterFalsePositiveRate < 0 || bloomFilterFalsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Invalid false positive rate");
+        }
+        this.bloomFilterFalsePositiveRate = bloomFilterFalsePositiveRate;
+        return this;
+    }
+
+    /**
+     * How long an ID found missing is remembered as missing, or 0 (the default) to not remember it.
+     * An insert made elsewhere in that time is not seen by lookups of the ID.
+     */
+    public CacheConfig<T> setNegativeCacheTtlMillis(long negativeCacheTtlMillis) {
+        if (negativeCacheTtlMillis < 0) {
+            throw new IllegalArgumentException("Invalid negative cache TTL");
+        }
+        this.negativeCacheTtlMillis = negativeCacheTtlMillis;
+        return this;
+    }
+
+    /**
+     * The most missing IDs remembered at once
+     */
+    public CacheConfig<T> setNegativeCacheMaximumSize(long negativeCacheMaximumSize) {
+        if (negativeCacheMaximumSize < 1) {
+            throw new IllegalArgumentException("Invalid negative cache size");
+        }
+        this.negativeCacheMaximumSize = negativeCacheMaximumSize;
+        return this;
+    }
+
+    /**
+     * Watch the database for commits by other processes and apply their changes to the cache,
+     * so it is at most about this many milliseconds behind them (see {@link database.ChangeMonitor}).
+     * Not set by default: getAll() on a cache that holds every row checks the change version
+     * itself, so polling is only needed for lookups by ID to follow other writers.
+     */
+    public CacheConfig<T> setChangePollMillis(long changePollMillis) {
+        if (changePollMillis < 1) {
+            throw new IllegalArgumentException("Invalid change poll interval");
+        }
+        this.changePollMillis = changePollMillis;
+        return this;
+    }
+
+    /**
+     * Load the cache from this snapshot file at startup when it exists, and write it on close.
+     * Only used when every row is cached (a preload without size limit or expiry).
+     * See {@link CacheSnapshotFile}.
+     */
+    public CacheConfig<T> setSnapshotFile(Path snapshotFile) {
+        this.snapshotFile = snapshotFile;
+        return this;
+    }
+
+    /**
+     * Also write the snapshot file at this interval, so a crash loses at most this much of it
+     */
+    public CacheConfig<T> setSnapshotIntervalMillis(long snapshotIntervalMillis) {
+        if (snapshotIntervalMillis < 1) {
+            throw new IllegalArgumentException("Invalid snapshot interval");
+        }
+        this.snapshotIntervalMillis = snapshotIntervalMillis;
+        return this;
+    }
+
+    /**
+     * Check whether entities can leave the cache through eviction or expiry
+     */
+    public boolean isBounded() {
+        return maximumWeight > 0 || expireAfterWriteMillis > 0;
+    }
+
+    // Getters
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    public ToLongFunction<? super T> getWeigher() {
+        return weigher;
+    }
+
+    public long getExpireAfterWriteMillis() {
+        return expireAfterWriteMillis;
+    }
+
+    public EvictionPolicy.Factory getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    public boolean isPreload() {
+        return preload;
+    }
+
+    public boolean isWarmUpInBackground() {
+        return warmUpInBackground;
+    }
+
+    public int getWarmUpParallelism() {
+        return warmUpParallelism;
+    }
+
+    public double getBloomFilterFalsePositiveRate() {
+        return bloomFilterFalsePositiveRate;
+    }
+
+    public long getNegativeCacheTtlMillis() {
+        return negativeCacheTtlMillis;
+    }
+
+    public long getNegativeCacheMaximumSize() {
+        return negativeCacheMaximumSize;
+    }
+
+    /**
+     * Get the change poll interval, or -1 if other processes are not watched
+     */
+    public long getChangePollMillis() {
+        return changePollMillis;
+    }
+
+    /**
+     * Get the snapshot file, or null if snapshots are not used
+     */
+    public Path getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    /**
+     * Get the snapshot interval, or -1 if snapshots are only written on close
+     */
+    public long getSnapshotIntervalMillis() {
+        return snapshotIntervalMillis;
+    }
+}
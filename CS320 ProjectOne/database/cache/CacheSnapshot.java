@@ -0,0 +1,153 @@
+package database.cache;
+
+import java.util.AbstractCollection;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * An immutable point-in-time copy of a cache's entities.
+ * Reads from one snapshot are consistent with each other no matter what changes in the cache
+ * afterwards. The version identifies the cache state the snapshot was taken from: two
+ * snapshots of the same cache with the same version hold the same entities.
+ *
+ * The entities are held in segments chosen by ID hash. A cache that keeps its entries in the
+ * same segments can build the next snapshot by copying only the segments that changed and
+ * sharing the rest with the previous one.
+ *
+ * @param <V> The cached entity type
+ */
+public final class CacheSnapshot<V> {
+
+    /**
+     * An immutable copy of the entities of one segment
+     */
+    static final class Segment<V> {
+        final Map<String, V> entries;
+        final List<V> values;
+
+        Segment(Map<String, V> entries) {
+            this.entries = Map.copyOf(entries);
+            this.values = List.copyOf(this.entries.values());
+        }
+    }
+
+    private final long version;
+    private final List<Segment<V>> segments;
+    // offsets[i] is the index in values of the first entity of segment i
+    private final int[] offsets;
+    private final List<V> values;
+
+    CacheSnapshot(long version, Map<String, V> entries) {
+        this(version, List.of(new Segment<>(entries)));
+    }
+
+    CacheSnapshot(long version, List<Segment<V>> segments) {
+        this.version = version;
+        this.segments = List.copyOf(segments);
+        this.offsets = new int[segments.size() + 1];
+        for (int i = 0; i < segments.size(); i++) {
+            offsets[i + 1] = offsets[i] + segments.get(i).values.size();
+        }
+        this.values = segments.size() == 1 ? segments.get(0).values : new Values();
+    }
+
+    /**
+     * Create a snapshot of entities that were not read from a cache
+     */
+    public static <V> CacheSnapshot<V> of(long version, Map<String, V> entries) {
+        return new CacheSnapshot<>(version, entries);
+    }
+
+    /**
+     * Get the segment an ID belongs to when entities are split into this many segments,
+     * which must be a power of two
+     */
+    static int segmentOf(String id, int segmentCount) {
+        int hash = id.hashCode();
+        return (hash ^ (hash >>> 16)) & (segmentCount - 1);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Get an entity of the snapshot, or null if it was not in it
+     */
+    public V get(String id) {
+        return segments.get(segmentOf(id, segments.size())).entries.get(id);
+    }
+
+    public boolean containsKey(String id) {
+        return segments.get(segmentOf(id, segments.size())).entries.containsKey(id);
+    }
+
+    /**
+     * Get the entities as an unmodifiable list; the same list on every call
+     */
+    public List<V> getValues() {
+        return values;
+    }
+
+    public Collection<String> getIds() {
+        if (segments.size() == 1) {
+            return segments.get(0).entries.keySet();
+        }
+        return new AbstractCollection<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return segments.stream().flatMap(segment -> segment.entries.keySet().stream()).iterator();
+            }
+
+            @Override
+            public int size() {
+                return values.size();
+            }
+        };
+    }
+
+    public int size() {
+        return offsets[segments.size()];
+    }
+
+    List<Segment<V>> getSegments() {
+        return segments;
+    }
+
+    /**
+     * The values of every segment, in segment order, as one list
+     */
+    private final class Values extends AbstractList<V> implements RandomAccess {
+        @Override
+        public V get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size());
+            }
+            // Find the last segment starting at or before the index; empty segments are skipped
+            int segment = Arrays.binarySearch(offsets, index);
+            if (segment < 0) {
+                segment = -segment - 2;
+            } else {
+                while (offsets[segment + 1] == index) {
+                    segment++;
+                }
+            }
+            return segments.get(segment).values.get(index - offsets[segment]);
+        }
+
+        @Override
+        public int size() {
+            return offsets[segments.size()];
+        }
+
+        @Override
+        public Iterator<V> iterator() {
+            return segments.stream().flatMap(segment -> segment.values.stream()).iterator();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package database.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A binary file holding every entity of a cache and the change version it is complete up to.
+ *
+ * Layout: a header (magic, format version, source, high-water mark, write time, entity count),
+ * the entities as written by an {@link EntityCodec}, and a CRC32 of everything before it.
+ * The file is written to a temporary file and moved into place, so a crash while writing
+ * leaves the previous snapshot intact. It is read through a memory mapping and checked
+ * against its checksum before any entity is decoded.
+ *
+ * The source string ties a snapshot to the database and entity it was taken from; a snapshot
+ * from a different source is rejected rather than loaded.
+ */
+public final class CacheSnapshotFile {
+
+    /**
+     * The contents of a snapshot file
+     */
+    public static final class Contents<T> {
+        private final long highWaterMark;
+        private final long writtenAtMillis;
+        private final List<T> entities;
+
+        Contents(long highWaterMark, long writtenAtMillis, List<T> entities) {
+            this.highWaterMark = highWaterMark;
+            this.writtenAtMillis = writtenAtMillis;
+            this.entities = entities;
+        }
+
+        /**
+         * Get the change version the entities are complete up to
+         */
+        public long getHighWaterMark() {
+            return highWaterMark;
+        }
+
+        public long getWrittenAtMillis() {
+            return writtenAtMillis;
+        }
+
+        public List<T> getEntities() {
+            return entities;
+        }
+    }
+
+    private static final int MAGIC = 0x45435346; // "ECSF"
+    private static final int FORMAT_VERSION = 1;
+    private static final int CHECKSUM_BYTES = Long.BYTES;
+
+    private CacheSnapshotFile() {
+    }
+
+    /**
+     * Write a snapshot, replacing any previous one at the same path
+     *
+     * @param path The snapshot file
+     * @param source Identifies the database and entity, checked again on read
+     * @param highWaterMark The change version the entities are complete up to
+     * @param entities The entities to write
+     * @param codec Writes one entity
+     */
+    public static <T> void write(Path path, String source, long highWaterMark, Collection<T> entities,
+            EntityCodec<T> codec) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            OutputStream fileOut = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(fileOut, crc));
+            SnapshotWriter writer = new SnapshotWriter(out);
+
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            writer.writeString(source);
+            out.writeLong(highWaterMark);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(entities.size());
+            for (T entity : entities) {
+                codec.writeEntity(writer, entity);
+            }
+            out.flush();
+
+            // The checksum itself is written past the checked stream
+            new DataOutputStream(fileOut).writeLong(crc.getValue());
+            fileOut.flush();
+            channel.force(true);
+        }
+
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a snapshot
+     *
+     * @param path The snapshot file
+     * @param source The source the snapshot must have been written for
+     * @param codec Reads one entity
+     * @return The snapshot, or null if there is no file
+     * @throws IOException if the file is damaged, has another format or comes from another source
+     */
+    public static <T> Contents<T> read(Path path, String source, EntityCodec<T> codec) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < CHECKSUM_BYTES || size > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot " + path + " has an invalid size of " + size + " bytes");
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        int bodyLength = mapped.capacity() - CHECKSUM_BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(mapped.duplicate().limit(bodyLength));
+        if (crc.getValue() != mapped.getLong(bodyLength)) {
+            throw new IOException("Snapshot " + path + " failed its checksum");
+        }
+
+        ByteBuffer body = mapped.duplicate().limit(bodyLength);
+        try {
+            SnapshotReader reader = new SnapshotReader(body);
+            if (body.getInt() != MAGIC || body.getInt() != FORMAT_VERSION) {
+                throw new IOException("Snapshot " + path + " has an unknown format");
+            }
+            String writtenFor = reader.readString();
+            if (!source.equals(writtenFor)) {
+                throw new IOException("Snapshot " + path + " was written for " + writtenFor + ", not " + source);
+            }
+            long highWaterMark = body.getLong();
+            long writtenAt = body.getLong();
+            int count = body.getInt();
+
+            List<T> entities = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                entities.add(codec.readEntity(reader));
+            }
+            if (body.hasRemaining()) {
+                throw new IOException("Snapshot " + path + " has " + body.remaining() + " unread bytes");
+            }
+            return new Contents<>(highWaterMark, writtenAt, entities);
+        } catch (RuntimeException e) {
+            // A buffer underflow or a bad value means the file does not match the codec
+            throw new IOException("Snapshot " + path + " could not be decoded: " + e, e);
+        }
+    }
+}
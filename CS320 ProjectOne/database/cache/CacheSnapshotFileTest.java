@@ -0,0 +1,86 @@
+package database.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CacheSnapshotFileTest {
+
+    private static final String SOURCE = "jdbc:sqlite:test.db#0123abcd#entities";
+
+    private static final EntityCodec<String> CODEC = new EntityCodec<String>() {
+        @Override
+        public void writeEntity(SnapshotWriter out, String entity) throws IOException {
+            out.writeString(entity);
+        }
+
+        @Override
+        public String readEntity(SnapshotReader in) {
+            return in.readString();
+        }
+    };
+
+    @TempDir
+    Path directory;
+
+    private Path writeSnapshot(List<String> entities) throws IOException {
+        Path path = directory.resolve("entities.snap");
+        CacheSnapshotFile.write(path, SOURCE, 42, entities, CODEC);
+        return path;
+    }
+
+    @Test
+    void testSnapshotRoundTrips() throws IOException {
+        Path path = writeSnapshot(List.of("a", "b", "c"));
+
+        CacheSnapshotFile.Contents<String> contents = CacheSnapshotFile.read(path, SOURCE, CODEC);
+        assertEquals(42, contents.getHighWaterMark());
+        assertEquals(List.of("a", "b", "c"), contents.getEntities());
+        assertTrue(contents.getWrittenAtMillis() > 0);
+        assertFalse(Files.exists(path.resolveSibling("entities.snap.tmp")));
+    }
+
+    @Test
+    void testMissingFileReadsAsNull() throws IOException {
+        assertNull(CacheSnapshotFile.read(directory.resolve("missing.snap"), SOURCE, CODEC));
+    }
+
+    @Test
+    void testChangedByteFailsTheChecksum() throws IOException {
+        Path path = writeSnapshot(List.of("a", "b", "c"));
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(path, bytes);
+
+        IOException e = assertThrows(IOException.class, () -> CacheSnapshotFile.read(path, SOURCE, CODEC));
+        assertTrue(e.getMessage().contains("checksum"), e.getMessage());
+    }
+
+    @Test
+    void testTruncatedFileIsRejected() throws IOException {
+        Path path = writeSnapshot(List.of("a", "b", "c"));
+        byte[] bytes = Files.readAllBytes(path);
+
+        // Cut anywhere, the trailer no longer matches; cut below the trailer size, the size is invalid
+        Files.write(path, Arrays.copyOf(bytes, bytes.length - 3));
+        assertThrows(IOException.class, () -> CacheSnapshotFile.read(path, SOURCE, CODEC));
+        Files.write(path, Arrays.copyOf(bytes, 4));
+        IOException e = assertThrows(IOException.class, () -> CacheSnapshotFile.read(path, SOURCE, CODEC));
+        assertTrue(e.getMessage().contains("invalid size"), e.getMessage());
+    }
+
+    @Test
+    void testSnapshotFromAnotherSourceIsRejected() throws IOException {
+        Path path = writeSnapshot(List.of("a"));
+
+        IOException e = assertThrows(IOException.class,
+                () -> CacheSnapshotFile.read(path, "jdbc:sqlite:test.db#4567ef00#entities", CODEC));
+        assertTrue(e.getMessage().contains("was written for"), e.getMessage());
+    }
+}
@@ -0,0 +1,78 @@
+package database.cache;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The in-memory entity cache of a {@link database.ServiceHelper}, keyed by entity ID
+ *
+ * @param <V> The cached entity type
+ */
+public interface EntityCache<V> {
+
+    /**
+     * Create the cache described by a config: a plain map when nothing is bounded,
+     * otherwise a cache with eviction and expiry
+     */
+    static <V> EntityCache<V> create(CacheConfig<V> config) {
+        if (!config.isBounded()) {
+            return new UnboundedEntityCache<>();
+        }
+        return new BoundedEntityCache<>(config);
+    }
+
+    /**
+     * Get a cached entity, or null on a miss
+     */
+    V get(String id);
+
+    /**
+     * Check whether an entity is cached, without counting a hit or miss
+     */
+    boolean containsKey(String id);
+
+    /**
+     * Add or replace an entity
+     */
+    void put(String id, V value);
+
+    /**
+     * Replace an entity only if it is already cached
+     */
+    void replaceIfPresent(String id, V value);
+
+    /**
+     * Remove an entity
+     */
+    void remove(String id);
+
+    /**
+     * Remove every entity whose ID is not in the given set
+     */
+    void retainAll(Set<String> ids);
+
+    /**
+     * Get a copy of the cached entities
+     */
+    List<V> values();
+
+    /**
+     * Get an immutable snapshot of the cached entities and the version of the cache it shows
+     */
+    CacheSnapshot<V> snapshot();
+
+    /**
+     * Get the number of cached entities
+     */
+    int size();
+
+    /**
+     * Remove every entity
+     */
+    void clear();
+
+    /**
+     * Get the hit, miss and eviction counters
+     */
+    CacheStats getStats();
+}
@@ -0,0 +1,22 @@
+package database.cache;
+
+import java.io.IOException;
+
+/**
+ * Writes entities to and reads them from a {@link CacheSnapshotFile}.
+ * Generated repository base classes implement it for their entity.
+ *
+ * @param <T> The entity type
+ */
+public interface EntityCodec<T> {
+
+    /**
+     * Write every column of an entity
+     */
+    void writeEntity(SnapshotWriter out, T entity) throws IOException;
+
+    /**
+     * Read an entity written by {@link #writeEntity(SnapshotWriter, Object)}
+     */
+    T readEntity(SnapshotReader in);
+}
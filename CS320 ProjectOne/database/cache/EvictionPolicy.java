@@ -0,0 +1,49 @@
+package database.cache;
+
+/**
+ * Decides which entry a bounded {@link EntityCache} evicts when it is over its maximum.
+ * A policy only sees keys and weights; the cache keeps the values.
+ * Calls are made while the cache holds its lock, so implementations need no synchronization.
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Creates a policy for a cache with the given maximum total weight
+     */
+    @FunctionalInterface
+    interface Factory {
+        EvictionPolicy create(long maximumWeight);
+    }
+
+    /**
+     * A new key was added
+     */
+    void onInsert(String key, long weight);
+
+    /**
+     * An existing key was read. Reads may be skipped when the cache is busy.
+     */
+    void onAccess(String key);
+
+    /**
+     * An existing key was given a new value
+     */
+    void onUpdate(String key, long oldWeight, long newWeight);
+
+    /**
+     * A key was removed, evicted or expired
+     */
+    void onRemove(String key);
+
+    /**
+     * Choose the next key to evict
+     *
+     * @return The key to evict, or null if the policy tracks no keys
+     */
+    String nextVictim();
+
+    /**
+     * Forget every key
+     */
+    void clear();
+}
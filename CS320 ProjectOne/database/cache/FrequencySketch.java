@@ -0,0 +1,119 @@
+package database.cache;
+
+import java.util.Arrays;
+
+/**
+ * Count-min sketch of how often keys were seen, with periodic aging.
+ * Each key maps to one counter in each of four rows; its frequency is the smallest of them.
+ * Counters saturate at 15, and all counters are halved once the sample size is reached, so
+ * keys that were popular long ago lose their advantage.
+ *
+ * The table starts small and grows with {@link #ensureCapacity} as more keys are cached, up to
+ * one byte per counter for about a million keys. Growing drops the counts collected so far.
+ */
+final class FrequencySketch {
+
+    private static final long[] SEEDS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final int MAX_COUNT = 15;
+    private static final int MIN_WIDTH = 64;
+    private static final int MAX_WIDTH = 1 << 20;
+
+    private byte[] table;
+    private int mask;
+    private int sampleSize;
+    private int additions = 0;
+
+    /**
+     * Create a sketch sized for about this many distinct keys
+     */
+    FrequencySketch(long expectedKeys) {
+        resize(widthFor(expectedKeys));
+    }
+
+    /**
+     * Grow the table if it is too small for this many distinct keys
+     */
+    void ensureCapacity(long expectedKeys) {
+        if (expectedKeys <= table.length) {
+            return;
+        }
+        int width = widthFor(expectedKeys);
+        if (width > table.length) {
+            resize(width);
+        }
+    }
+
+    /**
+     * Get the number of counters in each row
+     */
+    int width() {
+        return table.length;
+    }
+
+    /**
+     * Count one occurrence of a key
+     */
+    void increment(String key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int row = 0; row < SEEDS.length; row++) {
+            int index = indexOf(hash, row);
+            if (table[index] < MAX_COUNT) {
+                table[index]++;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            age();
+        }
+    }
+
+    /**
+     * Get the estimated number of occurrences of a key, at most 15
+     */
+    int frequency(String key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < SEEDS.length; row++) {
+            frequency = Math.min(frequency, table[indexOf(hash, row)]);
+        }
+        return frequency;
+    }
+
+    void clear() {
+        Arrays.fill(table, (byte) 0);
+        additions = 0;
+    }
+
+    private void resize(int width) {
+        table = new byte[width];
+        mask = width - 1;
+        sampleSize = width * 10;
+        additions = 0;
+    }
+
+    private static int widthFor(long expectedKeys) {
+        long keys = Math.min(Math.max(expectedKeys, MIN_WIDTH), MAX_WIDTH);
+        return Integer.highestOneBit((int) keys - 1) << 1;
+    }
+
+    private void age() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] >>>= 1;
+        }
+        additions /= 2;
+    }
+
+    private int indexOf(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return (int) h & mask;
+    }
+
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+}
@@ -0,0 +1,50 @@
+package database.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Evicts the least recently used key
+ */
+public class LruPolicy implements EvictionPolicy {
+
+    // Access-ordered: the first key is the least recently used
+    private final LinkedHashMap<String, Boolean> order = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Create an LRU policy; the maximum weight is not needed
+     */
+    public LruPolicy(long maximumWeight) {
+    }
+
+    @Override
+    public void onInsert(String key, long weight) {
+        order.put(key, Boolean.TRUE);
+    }
+
+    @Override
+    public void onAccess(String key) {
+        order.get(key);
+    }
+
+    @Override
+    public void onUpdate(String key, long oldWeight, long newWeight) {
+        order.get(key);
+    }
+
+    @Override
+    public void onRemove(String key) {
+        order.remove(key);
+    }
+
+    @Override
+    public String nextVictim() {
+        Iterator<String> iterator = order.keySet().iterator();
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    @Override
+    public void clear() {
+        order.clear();
+    }
+}
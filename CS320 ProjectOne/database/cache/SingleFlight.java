@@ -0,0 +1,94 @@
+package database.cache;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces concurrent loads of the same key into one.
+ * The first caller for a key runs the loader; callers that arrive while it is running wait for
+ * it and receive the same result, or the same failure. A load that has finished is forgotten,
+ * so the next caller loads again.
+ *
+ * @param <V> The loaded value type
+ */
+public class SingleFlight<V> {
+
+    /**
+     * Loads the value of one key
+     */
+    public interface Loader<V> {
+        V load() throws SQLException;
+    }
+
+    private final ConcurrentHashMap<String, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Load a key, or wait for a load of it that is already running
+     */
+    public V load(String key, Loader<V> loader) throws SQLException {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, flight);
+        if (running != null) {
+            coalesced.increment();
+            return await(key, running);
+        }
+
+        loads.increment();
+        try {
+            V value = loader.load();
+            flight.complete(value);
+            return value;
+        } catch (SQLException | RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * Get the number of loads that ran
+     */
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    /**
+     * Get the number of callers that shared another caller's load instead of running their own
+     */
+    public long getCoalescedLoads() {
+        return coalesced.sum();
+    }
+
+    /**
+     * Get the number of loads running now
+     */
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    private V await(String key, CompletableFuture<V> flight) throws SQLException {
+        try {
+            return flight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for load of " + key, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                // A new exception per waiter, so each one gets its own stack trace
+                SQLException failure = (SQLException) cause;
+                throw new SQLException(failure.getMessage(), failure.getSQLState(), failure.getErrorCode(), failure);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+}
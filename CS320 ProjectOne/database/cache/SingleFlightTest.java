@@ -0,0 +1,95 @@
+package database.cache;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SingleFlightTest {
+
+    private static final int CALLERS = 8;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+    private final SingleFlight<String> flights = new SingleFlight<>();
+
+    @AfterEach
+    void stopExecutor() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Start every caller, and return once all but the first are waiting on its load
+     */
+    private List<Future<String>> startCallers(SingleFlight.Loader<String> loader) throws InterruptedException {
+        List<Future<String>> callers = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            callers.add(executor.submit(() -> flights.load("key", loader)));
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (flights.getCoalescedLoads() < CALLERS - 1) {
+            assertTrue(System.nanoTime() < deadline, "Callers did not coalesce");
+            Thread.sleep(1);
+        }
+        return callers;
+    }
+
+    @Test
+    void testConcurrentCallersShareOneLoad() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        List<Future<String>> callers = startCallers(() -> {
+            runs.incrementAndGet();
+            awaitQuietly(release);
+            return "value";
+        });
+        assertEquals(1, flights.getInFlight());
+
+        release.countDown();
+        for (Future<String> caller : callers) {
+            assertEquals("value", caller.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, runs.get());
+        assertEquals(1, flights.getLoads());
+        assertEquals(0, flights.getInFlight());
+
+        // A finished load is forgotten, so the next caller loads again
+        assertEquals("again", flights.load("key", () -> "again"));
+        assertEquals(2, flights.getLoads());
+    }
+
+    @Test
+    void testFailureIsSharedByEveryWaiter() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<String>> callers = startCallers(() -> {
+            awaitQuietly(release);
+            throw new SQLException("database is locked");
+        });
+
+        release.countDown();
+        for (Future<String> caller : callers) {
+            ExecutionException failure = assertThrows(ExecutionException.class, () -> caller.get(10, TimeUnit.SECONDS));
+            assertInstanceOf(SQLException.class, failure.getCause());
+            assertEquals("database is locked", failure.getCause().getMessage());
+        }
+        assertEquals(1, flights.getLoads());
+        assertEquals(0, flights.getInFlight());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
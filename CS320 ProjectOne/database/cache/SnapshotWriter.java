@@ -0,0 +1,57 @@
+package database.cache;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * Writes column values to a snapshot file in a fixed binary layout
+ */
+public final class SnapshotWriter {
+
+    private final DataOutputStream out;
+
+    SnapshotWriter(DataOutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Write a string as its UTF-8 length and bytes; null is written as length -1
+     */
+    public void writeString(String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Write a date as a presence flag and its milliseconds since the epoch
+     */
+    public void writeDate(Date value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value.getTime());
+        }
+    }
+
+    public void writeInt(int value) throws IOException {
+        out.writeInt(value);
+    }
+
+    public void writeLong(long value) throws IOException {
+        out.writeLong(value);
+    }
+
+    public void writeDouble(double value) throws IOException {
+        out.writeDouble(value);
+    }
+
+    public void writeBoolean(boolean value) throws IOException {
+        out.writeBoolean(value);
+    }
+}
@@ -0,0 +1,177 @@
+package database.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A W-TinyLFU style policy: recency for new keys, frequency for admission to the main space.
+ *
+ * New keys enter a small LRU window (1% of the maximum weight). Keys pushed out of the window
+ * move to the probation segment of the main space, and a key read while on probation is
+ * promoted to the protected segment (80% of the main space). When the cache is over its
+ * maximum, the key most recently admitted from the window competes with the least recently
+ * used key on probation, and the one seen less often according to a {@link FrequencySketch}
+ * is evicted. A one-off scan therefore cannot flush out keys that are read repeatedly.
+ *
+ * The maximum is a weight, not an entry count, so the sketch is not sized from it. It starts
+ * sized for a few hundred keys and grows with the number of keys the policy tracks.
+ */
+public class TinyLfuPolicy implements EvictionPolicy {
+
+    private static final double WINDOW_FRACTION = 0.01;
+    private static final double PROTECTED_FRACTION = 0.8;
+    private static final long INITIAL_SKETCH_KEYS = 256;
+
+    private final long windowMaximum;
+    private final long protectedMaximum;
+    private final FrequencySketch sketch;
+
+    // Each segment is kept in LRU order: the first key is the least recently used
+    private final LinkedHashMap<String, Long> window = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Long> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Long> protectedSegment = new LinkedHashMap<>();
+    private long windowWeight = 0;
+    private long protectedWeight = 0;
+
+    // The key most recently moved from the window to probation, still waiting to be judged
+    private String candidate;
+
+    /**
+     * Create a policy for a cache with the given maximum total weight
+     */
+    public TinyLfuPolicy(long maximumWeight) {
+        this.windowMaximum = Math.max(1, (long) (maximumWeight * WINDOW_FRACTION));
+        this.protectedMaximum = (long) ((maximumWeight - windowMaximum) * PROTECTED_FRACTION);
+        this.sketch = new FrequencySketch(Math.min(maximumWeight, INITIAL_SKETCH_KEYS));
+    }
+
+    @Override
+    public void onInsert(String key, long weight) {
+        window.put(key, weight);
+        sketch.ensureCapacity(window.size() + probation.size() + protectedSegment.size());
+        sketch.increment(key);
+        windowWeight += weight;
+
+        // Move overflow out of the window; the last key moved is the admission candidate
+        while (windowWeight > windowMaximum && window.size() > 1) {
+            Map.Entry<String, Long> eldest = removeEldest(window);
+            windowWeight -= eldest.getValue();
+            probation.put(eldest.getKey(), eldest.getValue());
+            candidate = eldest.getKey();
+        }
+    }
+
+    @Override
+    public void onAccess(String key) {
+        sketch.increment(key);
+
+        Long weight = window.remove(key);
+        if (weight != null) {
+            window.put(key, weight);
+            return;
+        }
+
+        weight = probation.remove(key);
+        if (weight != null) {
+            if (key.equals(candidate)) {
+                candidate = null;
+            }
+            protectedSegment.put(key, weight);
+            protectedWeight += weight;
+            demoteProtectedOverflow();
+            return;
+        }
+
+        weight = protectedSegment.remove(key);
+        if (weight != null) {
+            protectedSegment.put(key, weight);
+        }
+    }
+
+    @Override
+    public void onUpdate(String key, long oldWeight, long newWeight) {
+        long delta = newWeight - oldWeight;
+        if (window.containsKey(key)) {
+            window.put(key, newWeight);
+            windowWeight += delta;
+        } else if (probation.containsKey(key)) {
+            probation.put(key, newWeight);
+        } else if (protectedSegment.containsKey(key)) {
+            protectedSegment.put(key, newWeight);
+            protectedWeight += delta;
+        }
+        onAccess(key);
+    }
+
+    @Override
+    public void onRemove(String key) {
+        if (key.equals(candidate)) {
+            candidate = null;
+        }
+
+        Long weight = window.remove(key);
+        if (weight != null) {
+            windowWeight -= weight;
+            return;
+        }
+        if (probation.remove(key) != null) {
+            return;
+        }
+        weight = protectedSegment.remove(key);
+        if (weight != null) {
+            protectedWeight -= weight;
+        }
+    }
+
+    @Override
+    public String nextVictim() {
+        String victim = firstKey(probation);
+
+        if (candidate != null && victim != null && !victim.equals(candidate)) {
+            // Admit the candidate only if it is seen more often than the key it would replace
+            String loser = sketch.frequency(candidate) > sketch.frequency(victim) ? victim : candidate;
+            candidate = null;
+            return loser;
+        }
+        candidate = null;
+
+        if (victim != null) {
+            return victim;
+        }
+        victim = firstKey(protectedSegment);
+        return victim != null ? victim : firstKey(window);
+    }
+
+    @Override
+    public void clear() {
+        window.clear();
+        probation.clear();
+        protectedSegment.clear();
+        windowWeight = 0;
+        protectedWeight = 0;
+        candidate = null;
+        sketch.clear();
+    }
+
+    private void demoteProtectedOverflow() {
+        while (protectedWeight > protectedMaximum && protectedSegment.size() > 1) {
+            Map.Entry<String, Long> eldest = removeEldest(protectedSegment);
+            protectedWeight -= eldest.getValue();
+            probation.put(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    private static Map.Entry<String, Long> removeEldest(LinkedHashMap<String, Long> segment) {
+        Iterator<Map.Entry<String, Long>> iterator = segment.entrySet().iterator();
+        Map.Entry<String, Long> next = iterator.next();
+        Map.Entry<String, Long> eldest = Map.entry(next.getKey(), next.getValue());
+        iterator.remove();
+        return eldest;
+    }
+
+    private static String firstKey(LinkedHashMap<String, Long> segment) {
+        Iterator<String> iterator = segment.keySet().iterator();
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+}
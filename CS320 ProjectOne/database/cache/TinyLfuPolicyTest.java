@@ -0,0 +1,105 @@
+package database.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TinyLfuPolicyTest {
+
+    private static final int MAXIMUM_SIZE = 100;
+
+    private static EntityCache<String> createCache(EvictionPolicy.Factory policy) {
+        return EntityCache.create(new CacheConfig<String>()
+                .setMaximumSize(MAXIMUM_SIZE)
+                .setEvictionPolicy(policy));
+    }
+
+    private static void loadHotKeys(EntityCache<String> cache) {
+        for (int i = 0; i < MAXIMUM_SIZE; i++) {
+            cache.put("hot" + i, "value");
+        }
+        for (int read = 0; read < 3; read++) {
+            for (int i = 0; i < MAXIMUM_SIZE; i++) {
+                cache.get("hot" + i);
+            }
+        }
+    }
+
+    private static void scan(EntityCache<String> cache, int keys) {
+        for (int i = 0; i < keys; i++) {
+            cache.put("scan" + i, "value");
+        }
+    }
+
+    private static int countHotKeys(EntityCache<String> cache) {
+        int hot = 0;
+        for (int i = 0; i < MAXIMUM_SIZE; i++) {
+            if (cache.containsKey("hot" + i)) {
+                hot++;
+            }
+        }
+        return hot;
+    }
+
+    @Test
+    void testScanDoesNotEvictFrequentKeys() {
+        EntityCache<String> cache = createCache(TinyLfuPolicy::new);
+        loadHotKeys(cache);
+
+        scan(cache, 1_000);
+
+        // A few scanned keys collide with hot keys in the sketch, but most hot keys are kept
+        assertTrue(countHotKeys(cache) >= MAXIMUM_SIZE * 8 / 10);
+        assertEquals(MAXIMUM_SIZE, cache.values().size());
+    }
+
+    @Test
+    void testScanEvictsFrequentKeysUnderLru() {
+        EntityCache<String> cache = createCache(LruPolicy::new);
+        loadHotKeys(cache);
+
+        scan(cache, 1_000);
+
+        assertEquals(0, countHotKeys(cache));
+    }
+
+    @Test
+    void testFrequentNewKeyIsAdmitted() {
+        EntityCache<String> cache = createCache(TinyLfuPolicy::new);
+        loadHotKeys(cache);
+
+        cache.put("new", "value");
+        for (int read = 0; read < 10; read++) {
+            cache.get("new");
+        }
+        // Pushes "new" out of the window; it is read more often than any key on probation
+        cache.put("next", "value");
+
+        // One hot key lost to an equally frequent hot key, and one to "new"
+        assertTrue(cache.containsKey("new"));
+        assertEquals(MAXIMUM_SIZE - 2, countHotKeys(cache));
+    }
+
+    @Test
+    void testSketchIsSizedByKeysNotWeight() {
+        FrequencySketch sketch = new FrequencySketch(256);
+        assertEquals(256, sketch.width());
+
+        sketch.increment("key");
+        sketch.ensureCapacity(200);
+        assertEquals(256, sketch.width());
+        assertEquals(1, sketch.frequency("key"));
+
+        sketch.ensureCapacity(10_000);
+        assertEquals(16_384, sketch.width());
+        assertEquals(0, sketch.frequency("key"));
+
+        sketch.ensureCapacity(Long.MAX_VALUE);
+        assertEquals(1 << 20, sketch.width());
+
+        // A weight-bounded cache with a huge maximum still starts with a small sketch
+        EvictionPolicy policy = new TinyLfuPolicy(Long.MAX_VALUE);
+        policy.onInsert("key", 1);
+        assertEquals("key", policy.nextVictim());
+    }
+}
@@ -0,0 +1,158 @@
+package database.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A cache that keeps every entity until it is removed.
+ *
+ * The last snapshot is kept and handed out again until the cache changes. Entries are split
+ * into segments by ID hash, each with its own version, so the next snapshot copies only the
+ * segments that changed and shares the others with the last one. Every change bumps its
+ * segment's version and then the cache's version after it is applied, and a snapshot or
+ * segment is only reused while its version is current, so one built while a change was being
+ * applied is rebuilt by the next caller.
+ */
+class UnboundedEntityCache<V> implements EntityCache<V> {
+
+    // A power of two; a single change costs a copy of about 1/64 of the entries
+    private static final int SEGMENTS = 64;
+
+    private final List<ConcurrentHashMap<String, V>> segments = new ArrayList<>(SEGMENTS);
+    private final CacheStats stats = new CacheStats();
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicLongArray segmentVersions = new AtomicLongArray(SEGMENTS);
+    private volatile CacheSnapshot<V> snapshot;
+    // The segment versions the last snapshot was built from; guarded by this
+    private final long[] snapshotSegmentVersions = new long[SEGMENTS];
+
+    UnboundedEntityCache() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments.add(new ConcurrentHashMap<>());
+        }
+    }
+
+    @Override
+    public V get(String id) {
+        V value = segmentFor(id).get(id);
+        (value != null ? stats.hits : stats.misses).increment();
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(String id) {
+        return segmentFor(id).containsKey(id);
+    }
+
+    @Override
+    public void put(String id, V value) {
+        if (segmentFor(id).put(id, value) != value) {
+            changed(id);
+        }
+    }
+
+    @Override
+    public void replaceIfPresent(String id, V value) {
+        V old = segmentFor(id).replace(id, value);
+        if (old != null && old != value) {
+            changed(id);
+        }
+    }
+
+    @Override
+    public void remove(String id) {
+        if (segmentFor(id).remove(id) != null) {
+            changed(id);
+        }
+    }
+
+    @Override
+    public void retainAll(Set<String> ids) {
+        boolean removed = false;
+        for (int i = 0; i < SEGMENTS; i++) {
+            if (segments.get(i).keySet().retainAll(ids)) {
+                segmentVersions.incrementAndGet(i);
+                removed = true;
+            }
+        }
+        if (removed) {
+            version.incrementAndGet();
+        }
+    }
+
+    @Override
+    public List<V> values() {
+        List<V> values = new ArrayList<>(size());
+        for (ConcurrentHashMap<String, V> segment : segments) {
+            values.addAll(segment.values());
+        }
+        return List.copyOf(values);
+    }
+
+    @Override
+    public CacheSnapshot<V> snapshot() {
+        long current = version.get();
+        CacheSnapshot<V> last = snapshot;
+        if (last != null && last.getVersion() == current) {
+            return last;
+        }
+
+        synchronized (this) {
+            current = version.get();
+            last = snapshot;
+            if (last != null && last.getVersion() == current) {
+                return last;
+            }
+
+            List<CacheSnapshot.Segment<V>> copies = new ArrayList<>(SEGMENTS);
+            for (int i = 0; i < SEGMENTS; i++) {
+                long segmentVersion = segmentVersions.get(i);
+                if (last != null && snapshotSegmentVersions[i] == segmentVersion) {
+                    copies.add(last.getSegments().get(i));
+                } else {
+                    copies.add(new CacheSnapshot.Segment<>(segments.get(i)));
+                    snapshotSegmentVersions[i] = segmentVersion;
+                }
+            }
+            last = new CacheSnapshot<>(current, copies);
+            snapshot = last;
+            return last;
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (ConcurrentHashMap<String, V> segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments.get(i).clear();
+            segmentVersions.incrementAndGet(i);
+        }
+        version.incrementAndGet();
+    }
+
+    @Override
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    private ConcurrentHashMap<String, V> segmentFor(String id) {
+        return segments.get(CacheSnapshot.segmentOf(id, SEGMENTS));
+    }
+
+    private void changed(String id) {
+        segmentVersions.incrementAndGet(CacheSnapshot.segmentOf(id, SEGMENTS));
+        version.incrementAndGet();
+    }
+}
@@ -0,0 +1,75 @@
+package database.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UnboundedEntityCacheTest {
+
+    private static UnboundedEntityCache<String> createCache(int entries) {
+        UnboundedEntityCache<String> cache = new UnboundedEntityCache<>();
+        for (int i = 0; i < entries; i++) {
+            cache.put("id" + i, "value" + i);
+        }
+        return cache;
+    }
+
+    @Test
+    void testSnapshotIsReusedUntilTheCacheChanges() {
+        UnboundedEntityCache<String> cache = createCache(1_000);
+        CacheSnapshot<String> first = cache.snapshot();
+
+        assertSame(first, cache.snapshot());
+        // Putting back the same object is not a change
+        cache.put("id1", cache.get("id1"));
+        assertSame(first, cache.snapshot());
+    }
+
+    @Test
+    void testChangeCopiesOnlyItsSegment() {
+        UnboundedEntityCache<String> cache = createCache(1_000);
+        CacheSnapshot<String> first = cache.snapshot();
+
+        cache.put("id1", "changed");
+        CacheSnapshot<String> second = cache.snapshot();
+
+        int changedSegment = CacheSnapshot.segmentOf("id1", first.getSegments().size());
+        for (int i = 0; i < first.getSegments().size(); i++) {
+            if (i == changedSegment) {
+                assertNotSame(first.getSegments().get(i), second.getSegments().get(i));
+            } else {
+                assertSame(first.getSegments().get(i), second.getSegments().get(i));
+            }
+        }
+        assertEquals("value1", first.get("id1"));
+        assertEquals("changed", second.get("id1"));
+    }
+
+    @Test
+    void testSnapshotHoldsEveryEntity() {
+        UnboundedEntityCache<String> cache = createCache(1_000);
+        cache.remove("id0");
+        cache.put("new", "value");
+        CacheSnapshot<String> snapshot = cache.snapshot();
+
+        List<String> values = snapshot.getValues();
+        assertEquals(1_000, values.size());
+        assertEquals(1_000, snapshot.size());
+        assertEquals(1_000, snapshot.getIds().size());
+        assertFalse(snapshot.containsKey("id0"));
+        assertTrue(snapshot.containsKey("new"));
+
+        // Indexed reads and iteration see the same entities once each
+        Set<String> indexed = new HashSet<>();
+        for (int i = 0; i < values.size(); i++) {
+            indexed.add(values.get(i));
+        }
+        assertEquals(1_000, indexed.size());
+        assertEquals(indexed, new HashSet<>(values));
+        assertThrows(IndexOutOfBoundsException.class, () -> values.get(1_000));
+        assertThrows(UnsupportedOperationException.class, () -> values.add("value"));
+    }
+}
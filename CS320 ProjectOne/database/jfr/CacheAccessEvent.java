@@ -0,0 +1,27 @@
+package database.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A ServiceHelper cache lookup by ID
+ */
+@Name("database.CacheAccess")
+@Label("Cache Access")
+@Category({ "Database", "Cache" })
+@Enabled(false)
+@StackTrace(false)
+public class CacheAccessEvent extends jdk.jfr.Event {
+
+    @Label("Entity")
+    public String entity;
+
+    @Label("ID")
+    public String id;
+
+    @Label("Hit")
+    public boolean hit;
+}
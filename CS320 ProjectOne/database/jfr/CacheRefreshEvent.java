@@ -0,0 +1,30 @@
+package database.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * A ServiceHelper cache refresh from the database
+ */
+@Name("database.CacheRefresh")
+@Label("Cache Refresh")
+@Category({ "Database", "Cache" })
+@Enabled(false)
+@Threshold("0 ms")
+public class CacheRefreshEvent extends jdk.jfr.Event {
+
+    @Label("Entity")
+    public String entity;
+
+    @Label("Rows")
+    @Description("Entities loaded, or changed and deleted entities applied by an incremental refresh")
+    public long rows;
+
+    @Label("Incremental")
+    @Description("Whether only changes since the previous refresh were read")
+    public boolean incremental;
+}
@@ -0,0 +1,31 @@
+package database.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * Getting a connection from DatabaseManager; the event duration is the time spent waiting
+ */
+@Name("database.ConnectionAcquire")
+@Label("Connection Acquire")
+@Category({ "Database", "JDBC" })
+@Description("Wait for a pooled connection")
+@Enabled(false)
+@Threshold("0 ms")
+public class ConnectionAcquireEvent extends jdk.jfr.Event {
+
+    @Label("Database URL")
+    public String url;
+
+    @Label("Role")
+    @Description("writer or reader")
+    public String role;
+
+    @Label("In Transaction")
+    @Description("Whether the connection of the current unit of work was reused")
+    public boolean inTransaction;
+}
@@ -0,0 +1,78 @@
+package database.jfr;
+
+import contact.Contact;
+import database.DatabaseManager;
+import database.DatabaseRepository;
+import database.RepositoryFactory;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DatabaseEventsTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final DatabaseManager dbManager = DatabaseManager.getInstance();
+    private String testDbUrl;
+    private DatabaseRepository<Contact> repository;
+
+    @BeforeEach
+    void createDatabase() throws Exception {
+        testDbUrl = dbManager.createTestDatabase("database_events");
+        repository = RepositoryFactory.getInstance().getRepository(Contact.class);
+        repository.save(new Contact("1", "First", "Last", "0123456789", "Address"));
+    }
+
+    @AfterEach
+    void deleteDatabase() throws Exception {
+        RepositoryFactory.getInstance().closeAll();
+        dbManager.deleteTestDatabase(testDbUrl);
+    }
+
+    @Test
+    void testRepositoryCallRecordsOperationAndStatementEvents() throws Exception {
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable("database.RepositoryOperation");
+            recording.enable("database.SqlStatement");
+            recording.start();
+
+            assertNotNull(repository.findById("1"));
+
+            recording.stop();
+            Path file = tempDir.resolve("events.jfr");
+            recording.dump(file);
+            events = RecordingFile.readAllEvents(file);
+        }
+
+        List<RecordedEvent> operations = events.stream()
+                .filter(event -> event.getEventType().getName().equals("database.RepositoryOperation"))
+                .collect(Collectors.toList());
+        assertEquals(1, operations.size());
+        assertEquals("Contact", operations.get(0).getString("entity"));
+        assertEquals("FIND_BY_ID", operations.get(0).getString("operation"));
+        assertEquals(1, operations.get(0).getLong("rows"));
+        assertFalse(operations.get(0).getBoolean("failed"));
+
+        // The SQL ran inside the repository call, on the same thread
+        RecordedEvent statement = events.stream()
+                .filter(event -> event.getEventType().getName().equals("database.SqlStatement"))
+                .filter(event -> event.getString("sql").contains("FROM contacts"))
+                .findFirst()
+                .orElseThrow();
+        assertFalse(statement.getStartTime().isBefore(operations.get(0).getStartTime()));
+        assertFalse(statement.getEndTime().isAfter(operations.get(0).getEndTime()));
+        assertEquals(operations.get(0).getThread().getJavaThreadId(), statement.getThread().getJavaThreadId());
+    }
+}
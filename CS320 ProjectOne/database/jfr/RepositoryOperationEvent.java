@@ -0,0 +1,34 @@
+package database.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * One call of a repository operation, recorded by {@link database.InstrumentedRepository}.
+ * The SQL it ran is recorded by nested {@link SqlStatementEvent}s on the same thread.
+ */
+@Name("database.RepositoryOperation")
+@Label("Repository Operation")
+@Category({ "Database", "Repository" })
+@Description("A DatabaseRepository call")
+@Enabled(false)
+@Threshold("0 ms")
+public class RepositoryOperationEvent extends jdk.jfr.Event {
+
+    @Label("Entity")
+    public String entity;
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Rows")
+    @Description("Rows returned or written")
+    public long rows;
+
+    @Label("Failed")
+    public boolean failed;
+}
@@ -0,0 +1,31 @@
+package database.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * One execution of a prepared statement on a pooled connection
+ */
+@Name("database.SqlStatement")
+@Label("SQL Statement")
+@Category({ "Database", "JDBC" })
+@Description("Execution of a prepared statement; result set reads are not included")
+@Enabled(false)
+@Threshold("0 ms")
+public class SqlStatementEvent extends jdk.jfr.Event {
+
+    @Label("SQL")
+    public String sql;
+
+    @Label("Parameters")
+    @Description("Types of the bound parameters")
+    public String parameters;
+
+    @Label("Update Count")
+    @Description("Rows changed by an update or batch, -1 for queries")
+    public long updateCount;
+}
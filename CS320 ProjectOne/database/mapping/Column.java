@@ -0,0 +1,36 @@
+package database.mapping;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Maps a field of a {@link MappedEntity} to a table column.
+ * Columns are mapped in field declaration order. Supported field types are String,
+ * java.util.Date (stored as epoch milliseconds), int, long, double and boolean.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface Column {
+
+    /**
+     * The column name
+     */
+    String name();
+
+    /**
+     * The SQL type used in CREATE TABLE, for example "VARCHAR(10)"; derived from the field type if empty
+     */
+    String type() default "";
+
+    /**
+     * Whether this column is the primary key; exactly one column must be
+     */
+    boolean id() default false;
+
+    /**
+     * Whether the column may hold NULL
+     */
+    boolean nullable() default false;
+}
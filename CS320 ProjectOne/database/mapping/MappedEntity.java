@@ -0,0 +1,37 @@
+package database.mapping;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an entity class whose repository base class is generated at compile time by
+ * {@link database.mapping.processor.RepositoryProcessor}.
+ *
+ * The generated class is named {@code <Entity>RepositoryBase}, extends
+ * {@link database.BaseRepository} and contains the table SQL, index-based row mapping and
+ * parameter binding for every field annotated with {@link Column}. The entity needs a getter
+ * for each column and a constructor taking the columns in declaration order.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface MappedEntity {
+
+    /**
+     * The table the entity is stored in
+     */
+    String table();
+
+    /**
+     * The package the repository base class is generated in
+     */
+    String repositoryPackage() default "database.repositories";
+
+    /**
+     * Whether the repository installs triggers that record every change in the
+     * {@link database.ChangeLog}. Turn it on only for tables a {@link database.ChangeFeed}
+     * consumer reads, since every write then adds a log row.
+     */
+    boolean changeLog() default false;
+}
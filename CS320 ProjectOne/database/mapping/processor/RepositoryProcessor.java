@@ -0,0 +1,600 @@
+package database.mapping.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+
+import database.mapping.Column;
+import database.mapping.MappedEntity;
+
+/**
+ * Compile-time generator of repository base classes for {@link MappedEntity} types.
+ *
+ * For each annotated entity it writes {@code <Entity>RepositoryBase}, an abstract subclass of
+ * {@link database.BaseRepository} with the CREATE TABLE, INSERT, upsert and UPDATE SQL, a row
+ * mapper that reads columns by index from an explicit select list, and parameter binders that
+ * call the entity's getters directly. Inserts and updates stamp the row version used by
+ * {@link database.ChangeTracking}. The generated code uses no reflection and no per-row
+ * column name lookups; dates are read and bound as epoch milliseconds without an intermediate
+ * Timestamp.
+ *
+ * It also writes {@code <Entity>Codec}, a standalone {@link database.cache.EntityCodec} for cache
+ * snapshot files, and {@code <Entity>Metadata}, the entity's {@link database.EntityMetadata} built
+ * from the same table, ID column and codec, and lists every such metadata class in
+ * {@code META-INF/services/database.EntityMetadata} so {@link database.EntityRegistry} finds them
+ * without naming the entity types.
+ */
+@SupportedAnnotationTypes("database.mapping.MappedEntity")
+public class RepositoryProcessor extends AbstractProcessor {
+
+    private static final String PERSISTABLE_ENTITY = "database.PersistableEntity";
+    private static final String VERSION_COLUMN = "database.ChangeTracking.VERSION_COLUMN";
+    private static final String NEXT_ROW_VERSION = "database.ChangeTracking.NEXT_ROW_VERSION";
+    private static final String METADATA_SERVICE = "META-INF/services/database.EntityMetadata";
+
+    // Generated metadata classes of every round, registered once processing is over
+    private final Set<String> metadataClasses = new TreeSet<>();
+
+    /**
+     * One mapped column and how to read, bind and declare it
+     */
+    private static final class ColumnModel {
+        String name;
+        String sqlType;
+        boolean id;
+        boolean nullable;
+        String javaType;
+        ColumnKind kind;
+        String getter;
+    }
+
+    /**
+     * The field types the generator can map
+     */
+    private enum ColumnKind {
+        STRING("TEXT", "String", "String"),
+        DATE("TIMESTAMP", "java.util.Date", "Date"),
+        INT("INTEGER", "int", "Int"),
+        LONG("INTEGER", "long", "Long"),
+        DOUBLE("REAL", "double", "Double"),
+        BOOLEAN("INTEGER", "boolean", "Boolean");
+
+        final String defaultSqlType;
+        // Variable type and SnapshotWriter/SnapshotReader method suffix
+        final String javaType;
+        final String snapshotType;
+
+        ColumnKind(String defaultSqlType, String javaType, String snapshotType) {
+            this.defaultSqlType = defaultSqlType;
+            this.javaType = javaType;
+            this.snapshotType = snapshotType;
+        }
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            writeMetadataService();
+            return true;
+        }
+
+        for (Element element : roundEnv.getElementsAnnotatedWith(MappedEntity.class)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                error(element, "@MappedEntity can only be used on classes");
+                continue;
+            }
+
+            TypeElement entity = (TypeElement) element;
+            List<ColumnModel> columns = readColumns(entity);
+            if (columns == null) {
+                continue;
+            }
+
+            try {
+                writeRepositoryBase(entity, columns);
+                writeCodec(entity, columns);
+                writeMetadata(entity, columns);
+            } catch (IOException e) {
+                error(entity, "Could not write repository classes: " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Collect the @Column fields of an entity and check it has matching getters and a constructor
+     *
+     * @return The columns in declaration order, or null if an error was reported
+     */
+    private List<ColumnModel> readColumns(TypeElement entity) {
+        List<ColumnModel> columns = new ArrayList<>();
+        List<TypeMirror> fieldTypes = new ArrayList<>();
+        boolean valid = true;
+        int idCount = 0;
+
+        for (VariableElement field : ElementFilter.fieldsIn(entity.getEnclosedElements())) {
+            Column column = field.getAnnotation(Column.class);
+            if (column == null) {
+                continue;
+            }
+
+            ColumnModel model = new ColumnModel();
+            model.name = column.name();
+            model.id = column.id();
+            model.nullable = column.nullable() && !field.asType().getKind().isPrimitive();
+            model.javaType = field.asType().toString();
+            model.kind = kindOf(field.asType());
+
+            if (model.kind == null) {
+                error(field, "Unsupported column type " + model.javaType);
+                valid = false;
+                continue;
+            }
+
+            model.sqlType = column.type().isEmpty() ? model.kind.defaultSqlType : column.type();
+            model.getter = findGetter(entity, field, model.kind);
+            if (model.getter == null) {
+                error(field, "No public getter found for column field " + field.getSimpleName());
+                valid = false;
+            }
+
+            if (model.id) {
+                idCount++;
+            }
+            columns.add(model);
+            fieldTypes.add(field.asType());
+        }
+
+        if (columns.isEmpty()) {
+            error(entity, "@MappedEntity class has no @Column fields");
+            return null;
+        }
+        if (idCount != 1) {
+            error(entity, "@MappedEntity class needs exactly one @Column(id = true) field");
+            valid = false;
+        }
+        if (!hasConstructor(entity, fieldTypes)) {
+            error(entity, "@MappedEntity class needs a public constructor taking the @Column fields in declaration order");
+            valid = false;
+        }
+
+        return valid ? columns : null;
+    }
+
+    private ColumnKind kindOf(TypeMirror type) {
+        switch (type.getKind()) {
+            case INT:
+                return ColumnKind.INT;
+            case LONG:
+                return ColumnKind.LONG;
+            case DOUBLE:
+                return ColumnKind.DOUBLE;
+            case BOOLEAN:
+                return ColumnKind.BOOLEAN;
+            case DECLARED:
+                String name = type.toString();
+                if (name.equals("java.lang.String")) {
+                    return ColumnKind.STRING;
+                }
+                if (name.equals("java.util.Date")) {
+                    return ColumnKind.DATE;
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    private String findGetter(TypeElement entity, VariableElement field, ColumnKind kind) {
+        String fieldName = field.getSimpleName().toString();
+        String suffix = Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
+        List<String> candidates = new ArrayList<>();
+        candidates.add("get" + suffix);
+        if (kind == ColumnKind.BOOLEAN) {
+            candidates.add("is" + suffix);
+        }
+
+        for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(entity))) {
+            if (method.getModifiers().contains(Modifier.PUBLIC)
+                    && method.getParameters().isEmpty()
+                    && candidates.contains(method.getSimpleName().toString())
+                    && processingEnv.getTypeUtils().isSameType(method.getReturnType(), field.asType())) {
+                return method.getSimpleName().toString();
+            }
+        }
+        return null;
+    }
+
+    private boolean hasConstructor(TypeElement entity, List<TypeMirror> fieldTypes) {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(entity.getEnclosedElements())) {
+            if (!constructor.getModifiers().contains(Modifier.PUBLIC)
+                    || constructor.getParameters().size() != fieldTypes.size()) {
+                continue;
+            }
+            boolean matches = true;
+            for (int i = 0; i < fieldTypes.size() && matches; i++) {
+                matches = processingEnv.getTypeUtils().isSameType(constructor.getParameters().get(i).asType(), fieldTypes.get(i));
+            }
+            if (matches) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean implementsPersistableEntity(TypeElement entity) {
+        TypeElement persistable = processingEnv.getElementUtils().getTypeElement(PERSISTABLE_ENTITY);
+        return persistable != null
+                && processingEnv.getTypeUtils().isAssignable(entity.asType(), persistable.asType());
+    }
+
+    /**
+     * Write the generated repository base class
+     */
+    private void writeRepositoryBase(TypeElement entity, List<ColumnModel> columns) throws IOException {
+        MappedEntity mapping = entity.getAnnotation(MappedEntity.class);
+        String table = mapping.table();
+        String packageName = mapping.repositoryPackage();
+        String entityType = entity.getQualifiedName().toString();
+        String className = entity.getSimpleName() + "RepositoryBase";
+
+        ColumnModel idColumn = null;
+        List<ColumnModel> dataColumns = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<String> definitions = new ArrayList<>();
+        List<String> assignments = new ArrayList<>();
+        List<String> excluded = new ArrayList<>();
+        for (ColumnModel column : columns) {
+            names.add(column.name);
+            definitions.add(column.name + " " + column.sqlType + (column.id ? " PRIMARY KEY" : column.nullable ? "" : " NOT NULL"));
+            if (column.id) {
+                idColumn = column;
+            } else {
+                dataColumns.add(column);
+                assignments.add(column.name + " = ?");
+                excluded.add(column.name + " = excluded." + column.name);
+            }
+        }
+
+        String selectColumns = String.join(", ", names);
+        String createTableSql = "CREATE TABLE IF NOT EXISTS " + table + " (" + String.join(", ", definitions) + ")";
+
+        // Statements stamp the row version themselves, as Java expressions over the ChangeTracking
+        // constants so the generated SQL stays a compile-time constant
+        String insertSql = literal("INSERT INTO " + table + " (" + selectColumns + ", ") + " + " + VERSION_COLUMN
+                + " + " + literal(") VALUES (" + placeholders(columns.size()) + ", ") + " + " + NEXT_ROW_VERSION + " + \")\"";
+        String upsertSql = excluded.isEmpty()
+                ? "INSERT_SQL + " + literal(" ON CONFLICT(" + idColumn.name + ") DO NOTHING")
+                : "INSERT_SQL + " + literal(" ON CONFLICT(" + idColumn.name + ") DO UPDATE SET " + String.join(", ", excluded) + ", ")
+                        + " + " + VERSION_COLUMN + " + \" = excluded.\" + " + VERSION_COLUMN;
+        String updateSql = literal("UPDATE " + table + " SET " + String.join(", ", assignments) + ", ") + " + " + VERSION_COLUMN
+                + " + \" = \" + " + NEXT_ROW_VERSION + " + " + literal(" WHERE " + idColumn.name + " = ?");
+
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(packageName + "." + className, entity);
+        try (PrintWriter out = new PrintWriter(file.openWriter())) {
+            out.println("package " + packageName + ";");
+            out.println();
+            out.println("import java.sql.PreparedStatement;");
+            out.println("import java.sql.ResultSet;");
+            out.println("import java.sql.SQLException;");
+            out.println("import java.sql.Types;");
+            out.println();
+            out.println("import javax.annotation.processing.Generated;");
+            out.println();
+            out.println("import database.BaseRepository;");
+            out.println();
+            out.println("/**");
+            out.println(" * Generated repository base for " + entity.getSimpleName() + " entities. Do not edit;");
+            out.println(" * change the @Column annotations on " + entity.getSimpleName() + " instead.");
+            out.println(" */");
+            out.println("@Generated(\"" + RepositoryProcessor.class.getName() + "\")");
+            out.println("public abstract class " + className + " extends BaseRepository<" + entityType + "> {");
+            out.println();
+            out.println("    protected static final String TABLE_NAME = " + literal(table) + ";");
+            out.println("    protected static final String ID_COLUMN = " + literal(idColumn.name) + ";");
+            out.println("    protected static final String SELECT_COLUMNS = " + literal(selectColumns) + ";");
+            out.println("    protected static final String CREATE_TABLE_SQL = " + literal(createTableSql) + ";");
+            out.println("    protected static final String INSERT_SQL = " + insertSql + ";");
+            out.println("    protected static final String UPSERT_SQL = " + upsertSql + ";");
+            out.println("    protected static final String UPDATE_SQL = " + updateSql + ";");
+            out.println();
+            out.println("    protected " + className + "() {");
+            out.println("        super(TABLE_NAME, ID_COLUMN, SELECT_COLUMNS);");
+            out.println("    }");
+            out.println();
+            writeReturn(out, "getCreateTableSql", "CREATE_TABLE_SQL");
+            writeReturn(out, "getInsertSql", "INSERT_SQL");
+            writeReturn(out, "getUpsertSql", "UPSERT_SQL");
+            writeReturn(out, "getUpdateSql", "UPDATE_SQL");
+            if (mapping.changeLog()) {
+                out.println("    @Override");
+                out.println("    protected boolean isChangeLogged() {");
+                out.println("        return true;");
+                out.println("    }");
+                out.println();
+            }
+
+            // Row mapper: columns are read by position from SELECT_COLUMNS
+            out.println("    @Override");
+            out.println("    protected " + entityType + " mapResultSetToEntity(ResultSet rs) throws SQLException {");
+            List<String> arguments = new ArrayList<>();
+            for (int i = 0; i < columns.size(); i++) {
+                String variable = "c" + (i + 1);
+                writeRead(out, columns.get(i), i + 1, variable);
+                arguments.add(variable);
+            }
+            out.println("        " + entityType + " entity = new " + entityType + "(" + String.join(", ", arguments) + ");");
+            if (implementsPersistableEntity(entity)) {
+                out.println("        entity.setPersisted(true);");
+            }
+            out.println("        return entity;");
+            out.println("    }");
+            out.println();
+
+            // Insert binder: every column in declaration order
+            out.println("    @Override");
+            out.println("    protected void setInsertParameters(PreparedStatement pstmt, " + entityType + " entity) throws SQLException {");
+            for (int i = 0; i < columns.size(); i++) {
+                writeBind(out, columns.get(i), i + 1);
+            }
+            out.println("    }");
+            out.println();
+
+            // Update binder: data columns, then the ID for the WHERE clause
+            out.println("    @Override");
+            out.println("    protected void setUpdateParameters(PreparedStatement pstmt, " + entityType + " entity) throws SQLException {");
+            for (int i = 0; i < dataColumns.size(); i++) {
+                writeBind(out, dataColumns.get(i), i + 1);
+            }
+            writeBind(out, idColumn, dataColumns.size() + 1);
+            out.println("    }");
+            out.println();
+
+            out.println("    @Override");
+            out.println("    protected String getEntityId(" + entityType + " entity) {");
+            out.println("        return " + (idColumn.kind == ColumnKind.STRING
+                    ? "entity." + idColumn.getter + "()"
+                    : "String.valueOf(entity." + idColumn.getter + "())") + ";");
+            out.println("    }");
+
+            out.println("}");
+        }
+    }
+
+    /**
+     * Write the entity's snapshot codec, which reads and writes every column in declaration
+     * order. It needs no repository or database, so services can hold it in a static field.
+     */
+    private void writeCodec(TypeElement entity, List<ColumnModel> columns) throws IOException {
+        MappedEntity mapping = entity.getAnnotation(MappedEntity.class);
+        String packageName = mapping.repositoryPackage();
+        String entityType = entity.getQualifiedName().toString();
+        String className = entity.getSimpleName() + "Codec";
+
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(packageName + "." + className, entity);
+        try (PrintWriter out = new PrintWriter(file.openWriter())) {
+            out.println("package " + packageName + ";");
+            out.println();
+            out.println("import java.io.IOException;");
+            out.println();
+            out.println("import javax.annotation.processing.Generated;");
+            out.println();
+            out.println("import database.cache.EntityCodec;");
+            out.println("import database.cache.SnapshotReader;");
+            out.println("import database.cache.SnapshotWriter;");
+            out.println();
+            out.println("/**");
+            out.println(" * Generated snapshot codec for " + entity.getSimpleName() + " entities. Do not edit;");
+            out.println(" * change the @Column annotations on " + entity.getSimpleName() + " instead.");
+            out.println(" */");
+            out.println("@Generated(\"" + RepositoryProcessor.class.getName() + "\")");
+            out.println("public final class " + className + " implements EntityCodec<" + entityType + "> {");
+            out.println();
+            out.println("    public static final " + className + " INSTANCE = new " + className + "();");
+            out.println();
+            out.println("    private " + className + "() {");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public void writeEntity(SnapshotWriter out, " + entityType + " entity) throws IOException {");
+            for (ColumnModel column : columns) {
+                out.println("        out.write" + column.kind.snapshotType + "(entity." + column.getter + "());");
+            }
+            out.println("    }");
+            out.println();
+
+            out.println("    @Override");
+            out.println("    public " + entityType + " readEntity(SnapshotReader in) {");
+            List<String> arguments = new ArrayList<>();
+            for (int i = 0; i < columns.size(); i++) {
+                ColumnModel column = columns.get(i);
+                String variable = "c" + (i + 1);
+                out.println("        " + column.kind.javaType + " " + variable + " = in.read" + column.kind.snapshotType + "();");
+                arguments.add(variable);
+            }
+            out.println("        " + entityType + " entity = new " + entityType + "(" + String.join(", ", arguments) + ");");
+            if (implementsPersistableEntity(entity)) {
+                out.println("        entity.setPersisted(true);");
+            }
+            out.println("        return entity;");
+            out.println("    }");
+            out.println("}");
+        }
+    }
+
+    /**
+     * Write the entity's metadata class. The repository is the hand-written
+     * {@code <Entity>Repository} next to the generated base.
+     */
+    private void writeMetadata(TypeElement entity, List<ColumnModel> columns) throws IOException {
+        MappedEntity mapping = entity.getAnnotation(MappedEntity.class);
+        String packageName = mapping.repositoryPackage();
+        String entityType = entity.getQualifiedName().toString();
+        String className = entity.getSimpleName() + "Metadata";
+        String baseName = entity.getSimpleName() + "RepositoryBase";
+        String repositoryName = entity.getSimpleName() + "Repository";
+        String codecName = entity.getSimpleName() + "Codec";
+
+        ColumnModel idColumn = null;
+        for (ColumnModel column : columns) {
+            if (column.id) {
+                idColumn = column;
+            }
+        }
+        String idExtractor = idColumn.kind == ColumnKind.STRING
+                ? entityType + "::" + idColumn.getter
+                : "entity -> String.valueOf(entity." + idColumn.getter + "())";
+
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(packageName + "." + className, entity);
+        try (PrintWriter out = new PrintWriter(file.openWriter())) {
+            out.println("package " + packageName + ";");
+            out.println();
+            out.println("import javax.annotation.processing.Generated;");
+            out.println();
+            out.println("import database.EntityMetadata;");
+            out.println();
+            out.println("/**");
+            out.println(" * Generated metadata for " + entity.getSimpleName() + " entities, loaded by EntityRegistry. Do not edit.");
+            out.println(" */");
+            out.println("@Generated(\"" + RepositoryProcessor.class.getName() + "\")");
+            out.println("public final class " + className + " extends EntityMetadata<" + entityType + "> {");
+            out.println();
+            out.println("    public " + className + "() {");
+            out.println("        super(" + entityType + ".class, " + baseName + ".TABLE_NAME, " + baseName + ".ID_COLUMN,");
+            out.println("                " + idExtractor + ", " + repositoryName + "::new, " + codecName + ".INSTANCE);");
+            out.println("    }");
+            out.println("}");
+        }
+        metadataClasses.add(packageName + "." + className);
+    }
+
+    /**
+     * List the generated metadata classes as EntityMetadata service providers
+     */
+    private void writeMetadataService() {
+        if (metadataClasses.isEmpty()) {
+            return;
+        }
+        try {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", METADATA_SERVICE);
+            try (PrintWriter out = new PrintWriter(file.openWriter())) {
+                for (String className : metadataClasses) {
+                    out.println(className);
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Could not write " + METADATA_SERVICE + ": " + e.getMessage());
+        }
+    }
+
+    private void writeReturn(PrintWriter out, String method, String constant) {
+        out.println("    @Override");
+        out.println("    protected String " + method + "() {");
+        out.println("        return " + constant + ";");
+        out.println("    }");
+        out.println();
+    }
+
+    private void writeRead(PrintWriter out, ColumnModel column, int index, String variable) {
+        switch (column.kind) {
+            case STRING:
+                out.println("        String " + variable + " = rs.getString(" + index + ");");
+                break;
+            case DATE:
+                out.println("        long " + variable + "Millis = rs.getLong(" + index + ");");
+                if (column.nullable) {
+                    out.println("        java.util.Date " + variable + " = rs.wasNull() ? null : new java.util.Date(" + variable + "Millis);");
+                } else {
+                    out.println("        java.util.Date " + variable + " = new java.util.Date(" + variable + "Millis);");
+                }
+                break;
+            case INT:
+                out.println("        int " + variable + " = rs.getInt(" + index + ");");
+                break;
+            case LONG:
+                out.println("        long " + variable + " = rs.getLong(" + index + ");");
+                break;
+            case DOUBLE:
+                out.println("        double " + variable + " = rs.getDouble(" + index + ");");
+                break;
+            case BOOLEAN:
+                out.println("        boolean " + variable + " = rs.getBoolean(" + index + ");");
+                break;
+        }
+    }
+
+    private void writeBind(PrintWriter out, ColumnModel column, int index) {
+        String value = "entity." + column.getter + "()";
+        switch (column.kind) {
+            case STRING:
+                out.println("        pstmt.setString(" + index + ", " + value + ");");
+                break;
+            case DATE:
+                if (column.nullable) {
+                    out.println("        java.util.Date v" + index + " = " + value + ";");
+                    out.println("        if (v" + index + " == null) {");
+                    out.println("            pstmt.setNull(" + index + ", Types.BIGINT);");
+                    out.println("        } else {");
+                    out.println("            pstmt.setLong(" + index + ", v" + index + ".getTime());");
+                    out.println("        }");
+                } else {
+                    out.println("        pstmt.setLong(" + index + ", " + value + ".getTime());");
+                }
+                break;
+            case INT:
+                out.println("        pstmt.setInt(" + index + ", " + value + ");");
+                break;
+            case LONG:
+                out.println("        pstmt.setLong(" + index + ", " + value + ");");
+                break;
+            case DOUBLE:
+                out.println("        pstmt.setDouble(" + index + ", " + value + ");");
+                break;
+            case BOOLEAN:
+                out.println("        pstmt.setBoolean(" + index + ", " + value + ");");
+                break;
+        }
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "?" : ", ?");
+        }
+        return sb.toString();
+    }
+
+    private static String literal(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
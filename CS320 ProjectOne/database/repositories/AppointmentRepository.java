@@ -1,100 +1,82 @@
 package database.repositories;
 
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Timestamp;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.List;
 
 import appointment.Appointment;
-import database.BaseRepository;
+import database.IndexDefinition;
+import database.SlowQueryLog;
 
 /**
- * Repository for Appointment entities
+ * Repository for Appointment entities.
+ * Table SQL, row mapping and parameter binding are generated into {@link AppointmentRepositoryBase}
+ * from the annotations on {@link Appointment}.
  */
-public class AppointmentRepository extends BaseRepository<Appointment> {
+public class AppointmentRepository extends AppointmentRepositoryBase {
+    
+    // Covers date-range queries and the (appointment_date, appointment_id) keyset pages
+    private static final List<IndexDefinition> INDEXES = List.of(
+            IndexDefinition.on("idx_appointments_date", "appointment_date", "appointment_id"));
+    
+    private static final String FIRST_PAGE_BY_DATE_SQL =
+            "SELECT " + SELECT_COLUMNS + " FROM " + TABLE_NAME + " " +
+            "ORDER BY appointment_date, appointment_id LIMIT ?";
+    
+    private static final String NEXT_PAGE_BY_DATE_SQL =
+            "SELECT " + SELECT_COLUMNS + " FROM " + TABLE_NAME + " " +
+            "WHERE (appointment_date, appointment_id) > (?, ?) " +
+            "ORDER BY appointment_date, appointment_id LIMIT ?";
     
     /**
      * Constructor
      */
     public AppointmentRepository() {
-        super("appointments", "appointment_id");
+        super();
+        SlowQueryLog.getInstance().registerHotQuery(NEXT_PAGE_BY_DATE_SQL);
     }
     
     /**
-     * Get the SQL to create the appointments table
+     * Index for date-range queries and paging by date
      */
     @Override
-    protected String getCreateTableSql() {
-        return "CREATE TABLE IF NOT EXISTS appointments (" +
-               "appointment_id VARCHAR(10) PRIMARY KEY, " +
-               "appointment_date TIMESTAMP NOT NULL, " +
-               "description VARCHAR(50) NOT NULL" +
-               ")";
+    protected List<IndexDefinition> getIndexes() {
+        return INDEXES;
     }
     
     /**
-     * Map a result set to an Appointment entity
+     * Get the next page of appointments ordered by date, using keyset pagination on
+     * (appointment_date, appointment_id). Pass the last appointment of the previous page,
+     * or null for the first page.
      */
-    @Override
-    protected Appointment mapResultSetToEntity(ResultSet rs) throws SQLException {
-        String appointmentId = rs.getString("appointment_id");
-        Date appointmentDate = new Date(rs.getTimestamp("appointment_date").getTime());
-        String description = rs.getString("description");
+    public List<Appointment> findPageByDate(Appointment after, int limit) throws SQLException {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Invalid page size");
+        }
         
-        Appointment appointment = new Appointment(appointmentId, appointmentDate, description);
+        List<Appointment> appointments = new ArrayList<>(limit);
         
-        // Set the appointment as persisted if applicable
-        if (appointment instanceof PersistableEntity) {
-            ((PersistableEntity) appointment).setPersisted(true);
+        try (Connection conn = dbManager.getReadConnection();
+             PreparedStatement pstmt = conn.prepareStatement(after == null ? FIRST_PAGE_BY_DATE_SQL : NEXT_PAGE_BY_DATE_SQL)) {
+            
+            int index = 1;
+            if (after != null) {
+                // Dates are stored as epoch milliseconds
+                pstmt.setLong(index++, after.getAppointmentDate().getTime());
+                pstmt.setString(index++, after.getAppointmentId());
+            }
+            pstmt.setInt(index, limit);
+            
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    appointments.add(mapResultSetToEntity(rs));
+                }
+            }
         }
         
-        return appointment;
-    }
-    
-    /**
-     * Get the SQL for inserting an appointment
-     */
-    @Override
-    protected String getInsertSql() {
-        return "INSERT INTO appointments (appointment_id, appointment_date, description) " +
-               "VALUES (?, ?, ?)";
-    }
-    
-    /**
-     * Set parameters for inserting an appointment
-     */
-    @Override
-    protected void setInsertParameters(PreparedStatement pstmt, Appointment appointment) throws SQLException {
-        pstmt.setString(1, appointment.getAppointmentId());
-        pstmt.setTimestamp(2, new Timestamp(appointment.getAppointmentDate().getTime()));
-        pstmt.setString(3, appointment.getDescription());
-    }
-    
-    /**
-     * Get the SQL for updating an appointment
-     */
-    @Override
-    protected String getUpdateSql() {
-        return "UPDATE appointments SET appointment_date = ?, description = ? " +
-               "WHERE appointment_id = ?";
-    }
-    
-    /**
-     * Set parameters for updating an appointment
-     */
-    @Override
-    protected void setUpdateParameters(PreparedStatement pstmt, Appointment appointment) throws SQLException {
-        pstmt.setTimestamp(1, new Timestamp(appointment.getAppointmentDate().getTime()));
-        pstmt.setString(2, appointment.getDescription());
-        pstmt.setString(3, appointment.getAppointmentId());
-    }
-    
-    /**
-     * Get the ID from an appointment
-     */
-    @Override
-    protected String getEntityId(Appointment appointment) {
-        return appointment.getAppointmentId();
+        return appointments;
     }
 }
@@ -0,0 +1,66 @@
+package database.repositories;
+
+import appointment.Appointment;
+import database.DatabaseManager;
+import database.RepositoryFactory;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AppointmentRepositoryTest {
+
+    private static final long DAY_MILLIS = 86400000L;
+
+    private final DatabaseManager dbManager = DatabaseManager.getInstance();
+    private String testDbUrl;
+    private AppointmentRepository repository;
+
+    @BeforeEach
+    void createDatabase() throws SQLException {
+        testDbUrl = dbManager.createTestDatabase("appointment_repository");
+        repository = RepositoryFactory.getInstance().getRepository(Appointment.class).unwrap(AppointmentRepository.class);
+    }
+
+    @AfterEach
+    void deleteDatabase() throws SQLException {
+        RepositoryFactory.getInstance().closeAll();
+        dbManager.deleteTestDatabase(testDbUrl);
+    }
+
+    private List<List<String>> readPagesByDate(int limit) throws SQLException {
+        List<List<String>> pages = new ArrayList<>();
+        Appointment after = null;
+        List<Appointment> page;
+        while (!(page = repository.findPageByDate(after, limit)).isEmpty()) {
+            pages.add(page.stream().map(Appointment::getAppointmentId).toList());
+            after = page.get(page.size() - 1);
+        }
+        return pages;
+    }
+
+    @Test
+    void testPagesByDateBreakTiesById() throws SQLException {
+        long now = System.currentTimeMillis();
+        Date first = new Date(now + DAY_MILLIS);
+        Date second = new Date(now + 2 * DAY_MILLIS);
+        Date third = new Date(now + 3 * DAY_MILLIS);
+        repository.saveAll(List.of(
+                new Appointment("E", third, "Last"),
+                new Appointment("C", second, "Tied"),
+                new Appointment("A", second, "Tied"),
+                new Appointment("Z", first, "First"),
+                new Appointment("B", second, "Tied")));
+
+        // Page boundaries fall between rows on the same date; none is skipped or read twice
+        assertEquals(List.of(List.of("Z", "A"), List.of("B", "C"), List.of("E")), readPagesByDate(2));
+        assertEquals(List.of(List.of("Z", "A", "B", "C", "E")), readPagesByDate(10));
+        assertThrows(IllegalArgumentException.class, () -> repository.findPageByDate(null, 0));
+    }
+}